@@ -0,0 +1,529 @@
+package org.hhn.topicgrouper.tg;
+
+import gnu.trove.TIntCollection;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Passes the events of a solver on to a listener on a separate consumer
+ * thread, so a slow listener does not hold up the solver. Events go through
+ * a bounded ring buffer with one producer (the solver thread) and one
+ * consumer, which needs no locks. Merge events only carry the indices,
+ * improvement, sizes and log likelihoods. The consumer thread keeps a
+ * {@link TGSolutionReplica}, copied from the initial solution and joined
+ * with each merge event, so the listener sees the solution exactly as it was
+ * at the event. When the homonyms of the solver change (which happens
+ * without merge events), the event carries a {@link TGSolutionSnapshot} and
+ * the replica gets copied from it again.
+ *
+ * If the buffer is full, a merge event is either waited for (BLOCK), dropped
+ * (DROP) or only every sampleInterval-th merge is passed on in the first
+ * place (SAMPLE, which blocks when full but always passes on the last
+ * merge). Merges not passed on still get joined into the replica before the
+ * next event, so they are kept on the solver thread until then (40 bytes
+ * each). All other events are never dropped. For several listeners use one
+ * adapter each (in a {@link TGSolutionListenerMultiplexer}) so each gets its
+ * own consumer thread. Without events the consumer thread parks until the
+ * next one. Call {@link #close()} when the adapter is not needed anymore.
+ */
+public class AsyncTGSolutionListener<T> implements TGSolutionListener<T> {
+	public enum Backpressure {
+		BLOCK, DROP, SAMPLE
+	}
+
+	private static final int BEFORE_INITIALIZATION = 0;
+	private static final int INITIALIZING = 1;
+	private static final int INITIALIZED = 2;
+	private static final int UPDATED = 3;
+	private static final int DONE = 4;
+	// Spins before a waiting thread starts to park.
+	private static final int SPINS = 100;
+	private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	private final TGSolutionListener<T> listener;
+	private final Backpressure backpressure;
+	private int sampleInterval;
+
+	// Event slots (the mask is capacity - 1).
+	private final int mask;
+	private final int[] kinds;
+	private final int[] ints1;
+	private final int[] ints2;
+	private final int[] t1Sizes;
+	private final int[] t2Sizes;
+	private final int[] nTopics;
+	private final double[] doubles;
+	private final double[] logLikelihoods;
+	private final double[] totalLogLikelihoods;
+	// The initial snapshot, a snapshot after a homonym change or the merges
+	// not passed on before the event.
+	private final Object[] attachments;
+	// Number of events published by the producer and consumed by the
+	// consumer.
+	private final AtomicLong published;
+	private final AtomicLong consumed;
+
+	// Only accessed by the producer (besides dropped).
+	private TGSolution<T> solution;
+	private int merges;
+	private volatile long dropped;
+	private int homonyms;
+	private SkippedMerges skipped;
+	// Last merge not passed on when sampling.
+	private boolean pendingMerge;
+	private int pendingNewTopic;
+	private int pendingOldTopic;
+	private double pendingImprovement;
+	private int pendingT1Size;
+	private int pendingT2Size;
+	private int pendingNTopics;
+	private double pendingLogLikelihood;
+	private double pendingTotalLogLikelihood;
+
+	private final Object snapshotLock;
+	private volatile boolean snapshotRequested;
+	// Guarded by snapshotLock.
+	private TGSolutionSnapshot<T> requestedSnapshot;
+	private TGSolutionSnapshot<T> finalSnapshot;
+
+	private final Thread consumer;
+	// Set while the consumer is about to park or parked, waiting for events.
+	private volatile boolean consumerParked;
+	private volatile boolean closed;
+	private volatile RuntimeException failure;
+	// Only accessed by the consumer.
+	private TGSolutionReplica<T> replica;
+
+	public AsyncTGSolutionListener(TGSolutionListener<T> listener) {
+		this(listener, 1024, Backpressure.BLOCK);
+	}
+
+	// The capacity gets rounded up to a power of two.
+	public AsyncTGSolutionListener(TGSolutionListener<T> listener,
+			int capacity, Backpressure backpressure) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException(
+					"capacity must be in [1, 2^30]");
+		}
+		this.listener = listener;
+		this.backpressure = backpressure;
+		sampleInterval = 10;
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		mask = size - 1;
+		kinds = new int[size];
+		ints1 = new int[size];
+		ints2 = new int[size];
+		t1Sizes = new int[size];
+		t2Sizes = new int[size];
+		nTopics = new int[size];
+		doubles = new double[size];
+		logLikelihoods = new double[size];
+		totalLogLikelihoods = new double[size];
+		attachments = new Object[size];
+		published = new AtomicLong();
+		consumed = new AtomicLong();
+		snapshotLock = new Object();
+
+		consumer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				consume();
+			}
+		}, "TG listener");
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	// With SAMPLE, every sampleInterval-th merge gets passed on (10 by
+	// default).
+	public void setSampleInterval(int sampleInterval) {
+		if (sampleInterval < 1) {
+			throw new IllegalArgumentException("sampleInterval must be >= 1");
+		}
+		this.sampleInterval = sampleInterval;
+	}
+
+	public int getSampleInterval() {
+		return sampleInterval;
+	}
+
+	public Backpressure getBackpressure() {
+		return backpressure;
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	// Merge events not passed on so far (dropped or left out by sampling).
+	public long getDropped() {
+		return dropped;
+	}
+
+	@Override
+	public void beforeInitialization(int maxTopics, int documents) {
+		solution = null;
+		merges = 0;
+		homonyms = 0;
+		skipped = null;
+		pendingMerge = false;
+		synchronized (snapshotLock) {
+			finalSnapshot = null;
+		}
+		int slot = claim();
+		ints1[slot] = maxTopics;
+		ints2[slot] = documents;
+		publish(slot, BEFORE_INITIALIZATION);
+	}
+
+	@Override
+	public void initalizing(double percentage) {
+		int slot = claim();
+		doubles[slot] = percentage;
+		publish(slot, INITIALIZING);
+	}
+
+	@Override
+	public void initialized(TGSolution<T> initialSolution) {
+		solution = initialSolution;
+		TGSolutionSnapshot<T> snapshot = new TGSolutionSnapshot<T>(
+				initialSolution, merges);
+		homonyms = countHomonyms(initialSolution);
+		int slot = claim();
+		attachments[slot] = snapshot;
+		publish(slot, INITIALIZED);
+	}
+
+	@Override
+	public void updatedSolution(int newTopicIndex, int oldTopicIndex,
+			double improvement, int t1Size, int t2Size, TGSolution<T> solution) {
+		this.solution = solution;
+		merges++;
+		serveSnapshot();
+		int numberOfTopics = solution.getNumberOfTopics();
+		double logLikelihood = solution.getTopicLogLikelihoods()[newTopicIndex];
+		double totalLogLikelihood = solution.getTotalLogLikelhood();
+		if (pendingMerge) {
+			dropped++;
+			pendingMerge = false;
+			skip(pendingNewTopic, pendingOldTopic, pendingT1Size
+					+ pendingT2Size, pendingNTopics, pendingLogLikelihood,
+					pendingTotalLogLikelihood);
+		}
+		if (backpressure == Backpressure.SAMPLE
+				&& merges % sampleInterval != 0
+				&& countHomonyms(solution) == homonyms) {
+			pendingMerge = true;
+			pendingNewTopic = newTopicIndex;
+			pendingOldTopic = oldTopicIndex;
+			pendingImprovement = improvement;
+			pendingT1Size = t1Size;
+			pendingT2Size = t2Size;
+			pendingNTopics = numberOfTopics;
+			pendingLogLikelihood = logLikelihood;
+			pendingTotalLogLikelihood = totalLogLikelihood;
+			return;
+		}
+		int slot;
+		if (backpressure == Backpressure.DROP) {
+			if (published.get() - consumed.get() > mask) {
+				dropped++;
+				skip(newTopicIndex, oldTopicIndex, t1Size + t2Size,
+						numberOfTopics, logLikelihood, totalLogLikelihood);
+				return;
+			}
+			slot = (int) published.get() & mask;
+		} else {
+			slot = claim();
+		}
+		publishMerge(slot, newTopicIndex, oldTopicIndex, improvement, t1Size,
+				t2Size, numberOfTopics, logLikelihood, totalLogLikelihood);
+	}
+
+	@Override
+	public void done() {
+		if (pendingMerge) {
+			pendingMerge = false;
+			publishMerge(claim(), pendingNewTopic, pendingOldTopic,
+					pendingImprovement, pendingT1Size, pendingT2Size,
+					pendingNTopics, pendingLogLikelihood,
+					pendingTotalLogLikelihood);
+		}
+		// Requests after the end of the run get the final solution.
+		if (solution != null) {
+			synchronized (snapshotLock) {
+				finalSnapshot = new TGSolutionSnapshot<T>(solution, merges);
+				snapshotLock.notifyAll();
+			}
+		}
+		int slot = claim();
+		attachments[slot] = skipped;
+		skipped = null;
+		publish(slot, DONE);
+	}
+
+	private void skip(int newTopicIndex, int oldTopicIndex, int frequency,
+			int numberOfTopics, double logLikelihood, double totalLogLikelihood) {
+		if (skipped == null) {
+			skipped = new SkippedMerges();
+		}
+		skipped.add(newTopicIndex, oldTopicIndex, frequency, numberOfTopics,
+				logLikelihood, totalLogLikelihood);
+	}
+
+	private static int countHomonyms(TGSolution<?> solution) {
+		TIntCollection h = solution.getHomonymns();
+		return h == null ? 0 : h.size();
+	}
+
+	// Called by the solver thread while the solution does not change.
+	private void serveSnapshot() {
+		if (snapshotRequested && solution != null) {
+			synchronized (snapshotLock) {
+				requestedSnapshot = new TGSolutionSnapshot<T>(solution, merges);
+				snapshotRequested = false;
+				snapshotLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the current solution, taken by the solver thread
+	 * at its next event. Meant to be called by the listener on the consumer
+	 * thread.
+	 */
+	public TGSolutionSnapshot<T> getSnapshot() {
+		synchronized (snapshotLock) {
+			if (finalSnapshot != null) {
+				return finalSnapshot;
+			}
+			requestedSnapshot = null;
+			snapshotRequested = true;
+			try {
+				while (requestedSnapshot == null && finalSnapshot == null) {
+					if (closed) {
+						throw new IllegalStateException("Listener is closed");
+					}
+					snapshotLock.wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			return requestedSnapshot != null ? requestedSnapshot
+					: finalSnapshot;
+		}
+	}
+
+	// Waits for a free slot. While waiting, snapshot requests still get
+	// served, otherwise a consumer waiting for one would never free a slot.
+	private int claim() {
+		long seq = published.get();
+		int spins = 0;
+		while (seq - consumed.get() > mask) {
+			if (closed) {
+				throw new IllegalStateException("Listener is closed");
+			}
+			serveSnapshot();
+			if (spins++ < SPINS) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+		}
+		return (int) seq & mask;
+	}
+
+	private void publishMerge(int slot, int newTopicIndex, int oldTopicIndex,
+			double improvement, int t1Size, int t2Size, int numberOfTopics,
+			double logLikelihood, double totalLogLikelihood) {
+		ints1[slot] = newTopicIndex;
+		ints2[slot] = oldTopicIndex;
+		doubles[slot] = improvement;
+		t1Sizes[slot] = t1Size;
+		t2Sizes[slot] = t2Size;
+		nTopics[slot] = numberOfTopics;
+		logLikelihoods[slot] = logLikelihood;
+		totalLogLikelihoods[slot] = totalLogLikelihood;
+		// The solution is as of this merge when the homonyms changed.
+		int h = countHomonyms(solution);
+		if (h != homonyms) {
+			homonyms = h;
+			attachments[slot] = new TGSolutionSnapshot<T>(solution, merges);
+		} else {
+			attachments[slot] = skipped;
+		}
+		skipped = null;
+		publish(slot, UPDATED);
+	}
+
+	private void publish(int slot, int kind) {
+		kinds[slot] = kind;
+		// The volatile write makes the slot visible before the new count.
+		// It also comes before reading consumerParked, so either the
+		// consumer sees the event or this sees that the consumer parks.
+		published.set(published.get() + 1);
+		if (consumerParked) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	private void consume() {
+		long seq = consumed.get();
+		int spins = 0;
+		while (true) {
+			if (seq == published.get()) {
+				if (closed) {
+					return;
+				}
+				if (spins++ < SPINS) {
+					Thread.yield();
+				} else {
+					// Parks until publish() or close() wakes the consumer up,
+					// so an idle adapter costs nothing.
+					consumerParked = true;
+					if (seq == published.get() && !closed) {
+						LockSupport.park(this);
+					}
+					consumerParked = false;
+				}
+				continue;
+			}
+			spins = 0;
+			int slot = (int) seq & mask;
+			try {
+				if (failure == null) {
+					dispatch(slot);
+				}
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+			attachments[slot] = null;
+			seq++;
+			consumed.lazySet(seq);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void dispatch(int slot) {
+		switch (kinds[slot]) {
+		case BEFORE_INITIALIZATION:
+			listener.beforeInitialization(ints1[slot], ints2[slot]);
+			break;
+		case INITIALIZING:
+			listener.initalizing(doubles[slot]);
+			break;
+		case INITIALIZED:
+			replica = new TGSolutionReplica<T>(
+					(TGSolutionSnapshot<T>) attachments[slot]);
+			listener.initialized(replica);
+			break;
+		case UPDATED:
+			if (attachments[slot] instanceof TGSolutionSnapshot) {
+				replica = new TGSolutionReplica<T>(
+						(TGSolutionSnapshot<T>) attachments[slot]);
+			} else {
+				joinSkipped(slot);
+				replica.join(ints1[slot], ints2[slot], t1Sizes[slot]
+						+ t2Sizes[slot], logLikelihoods[slot],
+						totalLogLikelihoods[slot], nTopics[slot]);
+			}
+			listener.updatedSolution(ints1[slot], ints2[slot], doubles[slot],
+					t1Sizes[slot], t2Sizes[slot], replica);
+			break;
+		case DONE:
+			joinSkipped(slot);
+			listener.done();
+			break;
+		}
+	}
+
+	private void joinSkipped(int slot) {
+		SkippedMerges s = (SkippedMerges) attachments[slot];
+		if (s != null) {
+			for (int k = 0; k < s.size; k++) {
+				replica.join(s.newTopics[k], s.oldTopics[k], s.frequencies[k],
+						s.logLikelihoods[k], s.totalLogLikelihoods[k],
+						s.nTopics[k]);
+			}
+		}
+	}
+
+	/**
+	 * Waits until the listener got all events published so far. Rethrows
+	 * the first exception of the listener, after which it gets no more
+	 * events.
+	 */
+	public void flush() {
+		long seq = published.get();
+		while (consumed.get() < seq && consumer.isAlive()) {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Passes on all remaining events and stops the consumer thread. A
+	 * listener waiting for a snapshot that will not come any more (as the
+	 * solver failed) gets an IllegalStateException.
+	 */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(consumer);
+		synchronized (snapshotLock) {
+			snapshotLock.notifyAll();
+		}
+		try {
+			consumer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		checkFailure();
+	}
+
+	private void checkFailure() {
+		if (failure != null) {
+			throw new RuntimeException(failure);
+		}
+	}
+
+	// Merges not passed on (in the order of the solver).
+	private static class SkippedMerges {
+		private int size;
+		private int[] newTopics = new int[16];
+		private int[] oldTopics = new int[16];
+		private int[] frequencies = new int[16];
+		private int[] nTopics = new int[16];
+		private double[] logLikelihoods = new double[16];
+		private double[] totalLogLikelihoods = new double[16];
+
+		private void add(int newTopic, int oldTopic, int frequency,
+				int numberOfTopics, double logLikelihood,
+				double totalLogLikelihood) {
+			if (size == newTopics.length) {
+				int n = size * 2;
+				newTopics = Arrays.copyOf(newTopics, n);
+				oldTopics = Arrays.copyOf(oldTopics, n);
+				frequencies = Arrays.copyOf(frequencies, n);
+				nTopics = Arrays.copyOf(nTopics, n);
+				logLikelihoods = Arrays.copyOf(logLikelihoods, n);
+				totalLogLikelihoods = Arrays.copyOf(totalLogLikelihoods, n);
+			}
+			newTopics[size] = newTopic;
+			oldTopics[size] = oldTopic;
+			frequencies[size] = frequency;
+			nTopics[size] = numberOfTopics;
+			logLikelihoods[size] = logLikelihood;
+			totalLogLikelihoods[size] = totalLogLikelihood;
+			size++;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package org.hhn.topicgrouper.tg;
+
+/**
+ * Passes all calls on to another listener and keeps track of how fast the
+ * merges go, so that other threads may ask how long the solver still needs
+ * to get down to a number of topics. The rate is taken over the most recent
+ * merges, as the costs per merge change in the course of a run.
+ */
+public class MergeRateEstimator<T> implements TGSolutionListener<T> {
+	private final TGSolutionListener<T> listener;
+	private final int minTopics;
+	// Times of the most recent merges (System.nanoTime()) as a ring.
+	private final long[] times;
+	private volatile int merges;
+	private volatile int topicsLeft;
+	private volatile double nanosPerMerge;
+
+	// Estimates the time until the solution is down to minTopics topics.
+	public MergeRateEstimator(TGSolutionListener<T> listener, int minTopics) {
+		this(listener, minTopics, 1024);
+	}
+
+	public MergeRateEstimator(TGSolutionListener<T> listener, int minTopics,
+			int window) {
+		if (window < 2) {
+			throw new IllegalArgumentException("window must be >= 2");
+		}
+		this.listener = listener;
+		this.minTopics = Math.max(1, minTopics);
+		times = new long[window];
+		topicsLeft = -1;
+		nanosPerMerge = -1;
+	}
+
+	@Override
+	public void beforeInitialization(int maxTopics, int documents) {
+		merges = 0;
+		topicsLeft = -1;
+		nanosPerMerge = -1;
+		listener.beforeInitialization(maxTopics, documents);
+	}
+
+	@Override
+	public void initalizing(double percentage) {
+		listener.initalizing(percentage);
+	}
+
+	@Override
+	public void initialized(TGSolution<T> initialSolution) {
+		// Counted, since solvers set the number of topics only after
+		// initialized().
+		int nTopics = 0;
+		for (Object topic : initialSolution.getTopics()) {
+			if (topic != null) {
+				nTopics++;
+			}
+		}
+		topicsLeft = nTopics;
+		times[0] = System.nanoTime();
+		listener.initialized(initialSolution);
+	}
+
+	@Override
+	public void updatedSolution(int newTopicIndex, int oldTopicIndex,
+			double improvement, int t1Size, int t2Size, TGSolution<T> solution) {
+		long now = System.nanoTime();
+		int m = merges + 1;
+		// Merges since the oldest time in the ring.
+		int span = Math.min(m, times.length - 1);
+		nanosPerMerge = ((double) (now - times[(m - span) % times.length]))
+				/ span;
+		times[m % times.length] = now;
+		topicsLeft = solution.getNumberOfTopics();
+		merges = m;
+		listener.updatedSolution(newTopicIndex, oldTopicIndex, improvement,
+				t1Size, t2Size, solution);
+	}
+
+	@Override
+	public void done() {
+		listener.done();
+	}
+
+	public int getMerges() {
+		return merges;
+	}
+
+	// Merges still needed to get down to minTopics or -1 before
+	// initialized().
+	public int getRemainingMerges() {
+		int left = topicsLeft;
+		return left == -1 ? -1 : Math.max(0, left - minTopics);
+	}
+
+	// Time per merge over the most recent merges or -1 before the first
+	// merge.
+	public double getNanosPerMerge() {
+		return nanosPerMerge;
+	}
+
+	// Estimated time to get down to minTopics at the current rate or -1 if
+	// there is no rate yet.
+	public long getEstimatedRemainingMillis() {
+		int remaining = getRemainingMerges();
+		if (remaining == 0) {
+			return 0;
+		}
+		double rate = nanosPerMerge;
+		if (remaining == -1 || rate < 0) {
+			return -1;
+		}
+		return (long) (remaining * rate / 1000000);
+	}
+}
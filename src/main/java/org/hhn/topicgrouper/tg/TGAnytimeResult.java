@@ -0,0 +1,60 @@
+package org.hhn.topicgrouper.tg;
+
+/**
+ * Outcome of a solver run that may have stopped early because of a deadline
+ * or a cancellation. The solution is the hierarchy as far as it got: the
+ * topics joined so far and all other words as one word topics.
+ */
+public class TGAnytimeResult<T> {
+	public enum Status {
+		COMPLETE, DEADLINE, CANCELLED
+	}
+
+	private final Status status;
+	private final TGSolutionSnapshot<T> solution;
+	private final int remainingMerges;
+	private final long estimatedRemainingMillis;
+	private final long elapsedMillis;
+
+	public TGAnytimeResult(Status status, TGSolutionSnapshot<T> solution,
+			int remainingMerges, long estimatedRemainingMillis,
+			long elapsedMillis) {
+		this.status = status;
+		this.solution = solution;
+		this.remainingMerges = remainingMerges;
+		this.estimatedRemainingMillis = estimatedRemainingMillis;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public boolean isComplete() {
+		return status == Status.COMPLETE;
+	}
+
+	public TGSolutionSnapshot<T> getSolution() {
+		return solution;
+	}
+
+	public int getMerges() {
+		return solution.getMerges();
+	}
+
+	// Merges that were still missing to get down to the minimum number of
+	// topics.
+	public int getRemainingMerges() {
+		return remainingMerges;
+	}
+
+	// Time the missing merges would have taken at the most recent merge rate
+	// or -1 if the run stopped before the first merge.
+	public long getEstimatedRemainingMillis() {
+		return estimatedRemainingMillis;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+}
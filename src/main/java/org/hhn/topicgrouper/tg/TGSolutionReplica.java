@@ -0,0 +1,201 @@
+package org.hhn.topicgrouper.tg;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+
+import org.hhn.topicgrouper.doc.DocumentProvider.Vocab;
+
+/**
+ * A solution that follows a solver merge by merge from the data of its
+ * events (see {@link #join(int, int, int, double, double, int)}), so it can
+ * be kept up to date on another thread or rebuilt from a log. Joins work
+ * like in the solvers: topic j gets appended to topic i and i keeps its
+ * index. Topics of words are found like in a union find over the topics.
+ * Homonyms are not followed, getHomonymns() returns the ones of the copied
+ * solution (if any).
+ */
+public class TGSolutionReplica<T> implements TGSolution<T> {
+	private final Vocab<T> vocab;
+	private final TIntList[] topics;
+	private final int[] topicFrequencies;
+	private final double[] topicLogLikelihoods;
+	private final int[] globalWordFrequencies;
+	// Topic of each word as of setTopic() and the topic each topic got
+	// joined into (or -1).
+	private final int[] wordToTopic;
+	private final int[] joinedInto;
+	private int size;
+	private int nTopics;
+	private double totalLogLikelihood;
+	private TIntCollection homonyms;
+	// Computed on demand after each join.
+	private int[] topicIds;
+
+	// Without any topics.
+	public TGSolutionReplica(Vocab<T> vocab, int maxTopics) {
+		this.vocab = vocab;
+		int nWords = vocab.getNumberOfWords();
+		topics = new TIntList[maxTopics];
+		topicFrequencies = new int[maxTopics];
+		topicLogLikelihoods = new double[maxTopics];
+		globalWordFrequencies = new int[nWords];
+		wordToTopic = new int[nWords];
+		Arrays.fill(wordToTopic, -1);
+		joinedInto = new int[maxTopics];
+		Arrays.fill(joinedInto, -1);
+	}
+
+	// A copy of the solution.
+	public TGSolutionReplica(TGSolution<T> solution) {
+		this(solution.getVocab(), solution.getTopics().length);
+		TIntCollection[] t = solution.getTopics();
+		double[] logLikelihoods = solution.getTopicLogLikelihoods();
+		for (int i = 0; i < t.length; i++) {
+			if (t[i] != null) {
+				setTopic(i, new TIntArrayList(t[i]),
+						solution.getTopicFrequency(i),
+						logLikelihoods == null ? 0 : logLikelihoods[i]);
+			}
+		}
+		for (int w = 0; w < globalWordFrequencies.length; w++) {
+			globalWordFrequencies[w] = solution.getGlobalWordFrequency(w);
+		}
+		size = solution.getSize();
+		nTopics = solution.getNumberOfTopics();
+		totalLogLikelihood = solution.getTotalLogLikelhood();
+		TIntCollection h = solution.getHomonymns();
+		homonyms = h == null ? null : new TIntArrayList(h);
+	}
+
+	// The words are taken over (not copied).
+	public void setTopic(int i, TIntList words, int frequency,
+			double logLikelihood) {
+		topics[i] = words;
+		for (int k = 0; k < words.size(); k++) {
+			wordToTopic[words.get(k)] = i;
+		}
+		topicFrequencies[i] = frequency;
+		topicLogLikelihoods[i] = logLikelihood;
+		topicIds = null;
+	}
+
+	public void setGlobalWordFrequency(int wordIndex, int frequency) {
+		globalWordFrequencies[wordIndex] = frequency;
+	}
+
+	public void setSize(int size) {
+		this.size = size;
+	}
+
+	public void setNumberOfTopics(int nTopics) {
+		this.nTopics = nTopics;
+	}
+
+	public void setTotalLogLikelihood(double totalLogLikelihood) {
+		this.totalLogLikelihood = totalLogLikelihood;
+	}
+
+	// Joins topic j into topic i, where frequency and logLikelihood are the
+	// ones of the joined topic.
+	public void join(int i, int j, int frequency, double logLikelihood,
+			double totalLogLikelihood, int nTopics) {
+		topics[i].addAll(topics[j]);
+		topics[j] = null;
+		joinedInto[j] = i;
+		topicFrequencies[i] = frequency;
+		topicFrequencies[j] = 0;
+		topicLogLikelihoods[i] = logLikelihood;
+		topicLogLikelihoods[j] = 0;
+		this.totalLogLikelihood = totalLogLikelihood;
+		this.nTopics = nTopics;
+		topicIds = null;
+	}
+
+	@Override
+	public int getNumberOfTopics() {
+		return nTopics;
+	}
+
+	@Override
+	public TIntCollection[] getTopics() {
+		return topics;
+	}
+
+	@Override
+	public int[] getTopicIds() {
+		if (topicIds == null) {
+			int n = 0;
+			for (int i = 0; i < topics.length; i++) {
+				if (topics[i] != null) {
+					n++;
+				}
+			}
+			int[] ids = new int[n];
+			int k = 0;
+			for (int i = 0; i < topics.length && k < ids.length; i++) {
+				if (topics[i] != null) {
+					ids[k++] = i;
+				}
+			}
+			topicIds = ids;
+		}
+		return topicIds;
+	}
+
+	@Override
+	public int getTopicFrequency(int topicIndex) {
+		return topicFrequencies[topicIndex];
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public int getTopicForWord(int wordIndex) {
+		int topic = wordToTopic[wordIndex];
+		if (topic == -1) {
+			return -1;
+		}
+		int root = topic;
+		while (joinedInto[root] != -1) {
+			root = joinedInto[root];
+		}
+		// Path compression.
+		while (joinedInto[topic] != -1 && joinedInto[topic] != root) {
+			int next = joinedInto[topic];
+			joinedInto[topic] = root;
+			topic = next;
+		}
+		return root;
+	}
+
+	@Override
+	public int getGlobalWordFrequency(int wordIndex) {
+		return globalWordFrequencies[wordIndex];
+	}
+
+	@Override
+	public double getTotalLogLikelhood() {
+		return totalLogLikelihood;
+	}
+
+	@Override
+	public Vocab<T> getVocab() {
+		return vocab;
+	}
+
+	@Override
+	public TIntCollection getHomonymns() {
+		return homonyms;
+	}
+
+	@Override
+	public double[] getTopicLogLikelihoods() {
+		return topicLogLikelihoods;
+	}
+}
@@ -0,0 +1,115 @@
+package org.hhn.topicgrouper.tg;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.list.array.TIntArrayList;
+
+import org.hhn.topicgrouper.doc.DocumentProvider.Vocab;
+
+/**
+ * Copy of a solution that does not change any more when the solver goes on.
+ * Taking it costs O(number of words + number of initial topics).
+ */
+public class TGSolutionSnapshot<T> implements TGSolution<T> {
+	private final int merges;
+	private final int nTopics;
+	private final TIntCollection[] topics;
+	private final int[] topicIds;
+	private final int[] topicFrequencies;
+	private final int size;
+	private final int[] topicForWord;
+	private final int[] globalWordFrequencies;
+	private final double totalLogLikelihood;
+	private final Vocab<T> vocab;
+	private final TIntCollection homonyms;
+	private final double[] topicLogLikelihoods;
+
+	// merges is the number of merges applied to the solution so far.
+	public TGSolutionSnapshot(TGSolution<T> solution, int merges) {
+		this.merges = merges;
+		nTopics = solution.getNumberOfTopics();
+		TIntCollection[] t = solution.getTopics();
+		topics = new TIntCollection[t.length];
+		topicFrequencies = new int[t.length];
+		for (int i = 0; i < t.length; i++) {
+			if (t[i] != null) {
+				topics[i] = new TIntArrayList(t[i]);
+				topicFrequencies[i] = solution.getTopicFrequency(i);
+			}
+		}
+		topicIds = solution.getTopicIds().clone();
+		size = solution.getSize();
+		vocab = solution.getVocab();
+		int nWords = vocab.getNumberOfWords();
+		topicForWord = new int[nWords];
+		globalWordFrequencies = new int[nWords];
+		for (int i = 0; i < nWords; i++) {
+			topicForWord[i] = solution.getTopicForWord(i);
+			globalWordFrequencies[i] = solution.getGlobalWordFrequency(i);
+		}
+		totalLogLikelihood = solution.getTotalLogLikelhood();
+		TIntCollection h = solution.getHomonymns();
+		homonyms = h == null ? null : new TIntArrayList(h);
+		double[] lls = solution.getTopicLogLikelihoods();
+		topicLogLikelihoods = lls == null ? null : lls.clone();
+	}
+
+	// Number of merges the solution had when the snapshot was taken.
+	public int getMerges() {
+		return merges;
+	}
+
+	@Override
+	public int getNumberOfTopics() {
+		return nTopics;
+	}
+
+	@Override
+	public TIntCollection[] getTopics() {
+		return topics;
+	}
+
+	@Override
+	public int[] getTopicIds() {
+		return topicIds;
+	}
+
+	@Override
+	public int getTopicFrequency(int topicIndex) {
+		return topicFrequencies[topicIndex];
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public int getTopicForWord(int wordIndex) {
+		return topicForWord[wordIndex];
+	}
+
+	@Override
+	public int getGlobalWordFrequency(int wordIndex) {
+		return globalWordFrequencies[wordIndex];
+	}
+
+	@Override
+	public double getTotalLogLikelhood() {
+		return totalLogLikelihood;
+	}
+
+	@Override
+	public Vocab<T> getVocab() {
+		return vocab;
+	}
+
+	@Override
+	public TIntCollection getHomonymns() {
+		return homonyms;
+	}
+
+	@Override
+	public double[] getTopicLogLikelihoods() {
+		return topicLogLikelihoods;
+	}
+}
@@ -1,25 +1,54 @@
 package org.hhn.topicgrouper.tg.impl;
 
 import gnu.trove.TIntCollection;
-import gnu.trove.iterator.TIntIterator;
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
-import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hhn.topicgrouper.doc.Document;
 import org.hhn.topicgrouper.doc.DocumentProvider;
 import org.hhn.topicgrouper.doc.DocumentProvider.Vocab;
+import org.hhn.topicgrouper.tg.MergeRateEstimator;
+import org.hhn.topicgrouper.tg.TGAnytimeResult;
 import org.hhn.topicgrouper.tg.TGSolution;
 import org.hhn.topicgrouper.tg.TGSolutionListener;
+import org.hhn.topicgrouper.tg.TGSolutionSnapshot;
 import org.hhn.topicgrouper.tg.TGSolver;
+import org.hhn.topicgrouper.util.CancellationToken;
+import org.hhn.topicgrouper.util.LogTable;
 import org.hhn.topicgrouper.util.UnionFind;
 
 public abstract class AbstractTopicGrouper<T> implements TGSolver<T> {
+	private static final int CHECKPOINT_MAGIC = 0x54474350; // "TGCP"
+	private static final int CHECKPOINT_VERSION = 3;
+	// Relative slack for comparing improvement bounds against computed
+	// improvements, so that rounding errors never prune the best candidate.
+	protected static final double PRUNE_TOLERANCE = 1e-9;
+	private static final int DENSE_BLOCK_SIZE = 256;
+
 	protected final int minWordFrequency;
 	protected final DocumentProvider<T> documentProvider;
 	protected final int[] documentSizes;
@@ -30,6 +59,8 @@ public abstract class AbstractTopicGrouper<T> implements TGSolver<T> {
 	protected final int maxTopics;
 
 	protected final TIntList[] topics;
+	// Ids of the topics with topics[i] != null.
+	protected final LiveTopicIndex liveTopics;
 	protected final UnionFind topicUnionFind;
 	protected final int[] wordToInitialTopic;
 	protected final int[] topicSizes;
@@ -38,23 +69,67 @@ public abstract class AbstractTopicGrouper<T> implements TGSolver<T> {
 	protected double totalLogLikelihood;
 	protected final int[] nTopics;
 	protected final TGSolution<T> solution;
-	protected final int[][] topicFrequencyPerDocuments;
+	// Sparse frequency of each topic per document.
+	protected final DocFrequencies[] topicFrequencyPerDocuments;
 	protected final double[] sumWordFrTimesLogWordFrByTopic;
 
-	// key is word index, value is list of documents with word, list entry
-	// consists of document index and word frequency in respective document
-	protected final TIntObjectMap<List<DocIndexAndWordFr>> invertedIndex;
+	// For each word the documents with the word and the word frequency in the
+	// respective document
+	protected final InvertedIndex invertedIndex;
+	// Directory for memory mapped storage or null if everything is on the
+	// heap.
+	private final File mappedStorageDirectory;
+	// Only exists with memory mapped storage.
+	protected final MappedFrequencyStore frequencyStore;
 
 	protected final int minTopics;
-	protected final DocIndexAndWordFr searchDummy = new DocIndexAndWordFr();
+
+	private boolean sparseInitialization;
+	private double liveTopicSortThreshold;
+	private double denseRowThreshold;
+	private long maxDenseRowMemory;
+	// Dense rows that may still be created in the current run.
+	private AtomicInteger denseRowsLeft;
+	// log(n) for n from 0 to the largest document size, but 0 for n = 0 (see
+	// computeDenseLogLikelihoodHelp()).
+	private double[] denseLogs;
+	// Size of liveTopics when it was sorted the last time.
+	private int sortedLiveTopics;
+
+	private File checkpointFile;
+	private int checkpointInterval;
+	private int mergesSinceCheckpoint;
+	private int checkpointsWritten;
+	// Single thread for writing checkpoints, created on demand.
+	private ExecutorService checkpointExecutor;
+	private Future<?> pendingCheckpoint;
+
+	// Set while solving with a deadline or a cancellation token.
+	private boolean deadlineSet;
+	private long deadlineNanos;
+	private CancellationToken cancellationToken;
+	// Why the run stopped early or null.
+	private volatile TGAnytimeResult.Status stopStatus;
+	private volatile MergeRateEstimator<T> mergeRateEstimator;
 
 	public AbstractTopicGrouper(int minWordFrequency,
 			DocumentProvider<T> documentProvider, int minTopics) {
+		this(minWordFrequency, documentProvider, minTopics, null);
+	}
+
+	/**
+	 * If mappedStorageDirectory is not null, the inverted index and the
+	 * frequencies of the topics per document are kept in memory mapped
+	 * temporary files in the directory instead of on the heap, so the
+	 * operating system manages which parts are in memory and the heap does
+	 * not grow with the number of postings. Results are the same either way.
+	 */
+	public AbstractTopicGrouper(int minWordFrequency,
+			DocumentProvider<T> documentProvider, int minTopics,
+			File mappedStorageDirectory) {
 		this.minWordFrequency = minWordFrequency;
 		this.documentProvider = documentProvider;
 		this.documents = documentProvider.getDocuments();
-		this.documentSizes = getDocumentSizes();
-		this.logDocumentSizes = getLogDocumentSizes();
 
 		if (minWordFrequency < 1) {
 			throw new IllegalArgumentException("minWordFrequency must be >= 1");
@@ -76,34 +151,179 @@ public abstract class AbstractTopicGrouper<T> implements TGSolver<T> {
 		maxTopics = counter;
 		topicUnionFind = new UnionFind(maxTopics);
 		topics = new TIntList[maxTopics];
+		liveTopics = new LiveTopicIndex(maxTopics);
 		topicSizes = new int[maxTopics];
 		topicLogLikelihoods = new double[maxTopics];
 		nTopics = new int[1];
 
-		topicFrequencyPerDocuments = new int[maxTopics][];
+		topicFrequencyPerDocuments = new DocFrequencies[maxTopics];
 		sumWordFrTimesLogWordFrByTopic = new double[maxTopics];
 
+		this.mappedStorageDirectory = mappedStorageDirectory;
 		invertedIndex = createInvertedIndex();
+		// Everything else only reads the postings.
+		this.documentSizes = getDocumentSizes();
+		this.logDocumentSizes = getLogDocumentSizes();
+		frequencyStore = mappedStorageDirectory == null ? null
+				: createFrequencyStore(mappedStorageDirectory);
 
 		solution = createSolution();
+
+		checkpointInterval = 1000;
+		maxDenseRowMemory = 256L << 20;
+	}
+
+	/**
+	 * If set, the state of the solver is written to the file every
+	 * checkpointInterval merges while grouping topics. The state gets copied
+	 * on the solving thread but written on a separate thread, so grouping
+	 * continues while the file is written. A checkpoint is skipped if the
+	 * previous one is still being written. Use
+	 * {@link #resume(File, TGSolutionListener)} to continue from the file.
+	 */
+	public void setCheckpointFile(File checkpointFile) {
+		this.checkpointFile = checkpointFile;
+	}
+
+	public File getCheckpointFile() {
+		return checkpointFile;
+	}
+
+	public void setCheckpointInterval(int checkpointInterval) {
+		if (checkpointInterval < 1) {
+			throw new IllegalArgumentException(
+					"checkpointInterval must be >= 1");
+		}
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	public int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	public int getCheckpointsWritten() {
+		return checkpointsWritten;
+	}
+
+	/**
+	 * If set, the initial join candidates are computed from the pairs of words
+	 * that co-occur in some document (see {@link #computeCooccurrences(int,
+	 * CooccurrenceBuffer)}), which takes about O(sum of squared document
+	 * lengths) instead of O(maxTopics^2 * postings). The likelihood of a join
+	 * of two words that never co-occur only depends on their frequencies and
+	 * is computed in closed form. Results are the same as without this option
+	 * up to rounding.
+	 */
+	public void setSparseInitialization(boolean sparseInitialization) {
+		this.sparseInitialization = sparseInitialization;
+	}
+
+	public boolean isSparseInitialization() {
+		return sparseInitialization;
+	}
+
+	/**
+	 * Scans over all topics go through a dense index of the existing topics.
+	 * Joins leave the index in arbitrary order. If the threshold is > 0, the
+	 * index gets sorted again whenever the number of topics drops below
+	 * threshold times the number at the last sort, so that scans access the
+	 * per topic arrays in memory order. Results do not depend on this.
+	 */
+	public void setLiveTopicSortThreshold(double liveTopicSortThreshold) {
+		if (liveTopicSortThreshold < 0 || liveTopicSortThreshold >= 1) {
+			throw new IllegalArgumentException(
+					"liveTopicSortThreshold must be in [0, 1)");
+		}
+		this.liveTopicSortThreshold = liveTopicSortThreshold;
+	}
+
+	public double getLiveTopicSortThreshold() {
+		return liveTopicSortThreshold;
+	}
+
+	/**
+	 * Topics that occur in at least this fraction of all documents also keep
+	 * their frequencies in a dense row with one entry per document. The
+	 * likelihood of joining two such topics is then computed by a plain loop
+	 * over the rows instead of the merge join, which pays off when most
+	 * documents have both topics (late merges, small corpora). 0 (the
+	 * default) means no dense rows. Results do not depend on this. Not used
+	 * with memory mapped storage.
+	 */
+	public void setDenseRowThreshold(double denseRowThreshold) {
+		if (denseRowThreshold < 0 || denseRowThreshold > 1) {
+			throw new IllegalArgumentException(
+					"denseRowThreshold must be in [0, 1]");
+		}
+		this.denseRowThreshold = denseRowThreshold;
+		if (denseRowThreshold > 0 && denseLogs == null) {
+			int maxDocumentSize = 0;
+			for (int i = 0; i < documentSizes.length; i++) {
+				maxDocumentSize = Math.max(maxDocumentSize, documentSizes[i]);
+			}
+			double[] logs = new double[maxDocumentSize + 1];
+			for (int n = 1; n < logs.length; n++) {
+				logs[n] = LogTable.log(n);
+			}
+			denseLogs = logs;
+		}
+	}
+
+	public double getDenseRowThreshold() {
+		return denseRowThreshold;
+	}
+
+	/**
+	 * Upper bound for the memory of all dense rows together (see
+	 * {@link #setDenseRowThreshold(double)}), 256 MB by default. Topics
+	 * beyond it keep only their sparse frequencies until rows of joined
+	 * topics get freed.
+	 */
+	public void setMaxDenseRowMemory(long maxDenseRowMemory) {
+		if (maxDenseRowMemory < 0) {
+			throw new IllegalArgumentException(
+					"maxDenseRowMemory must be >= 0");
+		}
+		this.maxDenseRowMemory = maxDenseRowMemory;
+	}
+
+	public long getMaxDenseRowMemory() {
+		return maxDenseRowMemory;
+	}
+
+	// Starts counting dense rows anew for a run or a resumed run.
+	protected void resetDenseRows() {
+		long rowBytes = 4L * Math.max(1, documents.size());
+		denseRowsLeft = new AtomicInteger((int) Math.min(Integer.MAX_VALUE,
+				maxDenseRowMemory / rowBytes));
+	}
+
+	// Sets up the dense row of topic frequencies according to
+	// denseRowThreshold.
+	protected void initDenseRow(DocFrequencies frs) {
+		if (denseRowThreshold > 0 && frequencyStore == null) {
+			frs.setDenseRow(
+					Math.max(1, (int) Math.ceil(denseRowThreshold
+							* documents.size())), documents.size(),
+					denseRowsLeft);
+		}
 	}
 
 	protected TGSolution<T> createSolution() {
 		return new DefaultTGSolution();
 	}
 
+	// Sums up the postings of the words that become topics per document.
 	private int[] getDocumentSizes() {
 		int[] documentSizes = new int[documents.size()];
-		for (int i = 0; i < documents.size(); i++) {
-			int sum = 0;
-			TIntIterator indices = documents.get(i).getWordIndices().iterator();
-			while (indices.hasNext()) {
-				int index = indices.next();
-				if (documentProvider.getWordFrequency(index) >= minWordFrequency) {
-					sum += documents.get(i).getWordFrequency(index);
+		for (int w = 0; w < nWords; w++) {
+			if (wordToInitialTopic[w] >= 0) {
+				int end = invertedIndex.getEnd(w);
+				for (int pos = invertedIndex.getStart(w); pos < end; pos++) {
+					documentSizes[invertedIndex.getDocIndex(pos)] += invertedIndex
+							.getWordFr(pos);
 				}
 			}
-			documentSizes[i] = sum;
 		}
 		return documentSizes;
 	}
@@ -113,52 +333,193 @@ public abstract class AbstractTopicGrouper<T> implements TGSolver<T> {
 
 		for (int i = 0; i < documentSizes.length; i++) {
 			if (documentSizes[i] > 0) {
-				logDocumentSizes[i] = Math.log(documentSizes[i]);
+				logDocumentSizes[i] = LogTable.log(documentSizes[i]);
 			}
 		}
 
 		return logDocumentSizes;
 	}
 
-	protected TIntObjectMap<List<DocIndexAndWordFr>> createInvertedIndex() {
-		TIntObjectMap<List<DocIndexAndWordFr>> invertedIndex = new TIntObjectHashMap<List<DocIndexAndWordFr>>();
-		for (int i = 0; i < documents.size(); i++) {
-			Document<T> d = documents.get(i);
-			TIntIterator it = d.getWordIndices().iterator();
-			while (it.hasNext()) {
-				int wordIndex = it.next();
-				List<DocIndexAndWordFr> value = invertedIndex.get(wordIndex);
-				if (value == null) {
-					value = new ArrayList<DocIndexAndWordFr>();
-					invertedIndex.put(wordIndex, value);
-				}
-				DocIndexAndWordFr entry = new DocIndexAndWordFr();
-				entry.docIndex = i;
-				entry.wordFr = d.getWordFrequency(wordIndex);
-				int position = Collections.binarySearch(value, entry);
-				value.add(-position - 1, entry);
-			}
+	protected InvertedIndex createInvertedIndex() {
+		if (mappedStorageDirectory != null) {
+			return new MappedInvertedIndex(documents, documentProvider
+					.getVocab().getNumberOfWords(),
+					createMappedIntArray(mappedStorageDirectory));
+		}
+		return new InvertedIndex(documents, documentProvider.getVocab()
+				.getNumberOfWords());
+	}
+
+	protected MappedFrequencyStore createFrequencyStore(File directory) {
+		return new MappedFrequencyStore(createMappedIntArray(directory));
+	}
+
+	protected MappedIntArray createMappedIntArray(File directory) {
+		return new MappedIntArray(directory);
+	}
+
+	public File getMappedStorageDirectory() {
+		return mappedStorageDirectory;
+	}
+
+	/**
+	 * Closes the files of the memory mapped storage (if any). Afterwards the
+	 * solver must neither solve nor compute likelihoods.
+	 */
+	public void closeMappedStorage() {
+		if (frequencyStore != null) {
+			frequencyStore.close();
+			((MappedInvertedIndex) invertedIndex).getPostings().close();
 		}
-		return invertedIndex;
 	}
 
 	@Override
 	public void solve(TGSolutionListener<T> solutionListener) {
-		// Initialization
-		totalLogLikelihood = 0;
-		solutionListener.beforeInitialization(maxTopics, documentSizes.length);
-		createInitialTopics();
+		startSolving();
+		try {
+			// Initialization
+			totalLogLikelihood = 0;
+			solutionListener.beforeInitialization(maxTopics,
+					documentSizes.length);
+			createInitialTopics();
+
+			createInitialJoinCandidates(solutionListener);
+
+			solutionListener.initialized(solution);
+
+			initGrouping();
+			// Join candidates are incomplete if the run stopped during
+			// initialization.
+			if (isStopRequested()) {
+				releaseDocumentTopicIndex();
+			} else {
+				groupTopics(solutionListener);
+			}
+			waitForCheckpoint();
 
-		createInitialJoinCandidates(solutionListener);
+			solutionListener.done();
+		} finally {
+			finishSolving();
+		}
+	}
 
-		solutionListener.initialized(solution);
+	/**
+	 * Same as {@link #solve(TGSolutionListener)} but stops early once the
+	 * deadline (as of System.currentTimeMillis(), Long.MAX_VALUE for none)
+	 * has passed or the token (may be null) got cancelled. Both are checked
+	 * after each merge and per row or tile of the initial join candidates,
+	 * so a run stops with a consistent solution. The listener gets
+	 * initialized() and done() either way. The result holds a copy of the
+	 * solution as far as the run got and an estimate of how long the rest
+	 * would have taken. While solving, other threads may ask for the
+	 * estimate via {@link #getEstimatedRemainingMillis()}.
+	 */
+	public TGAnytimeResult<T> solve(TGSolutionListener<T> solutionListener,
+			long deadline, CancellationToken cancellationToken) {
+		long start = System.nanoTime();
+		MergeRateEstimator<T> estimator = new MergeRateEstimator<T>(
+				solutionListener, minTopics);
+		deadlineSet = deadline != Long.MAX_VALUE;
+		deadlineNanos = start
+				+ TimeUnit.MILLISECONDS.toNanos(deadline
+						- System.currentTimeMillis());
+		this.cancellationToken = cancellationToken;
+		stopStatus = null;
+		mergeRateEstimator = estimator;
+		try {
+			solve(estimator);
+		} finally {
+			deadlineSet = false;
+			this.cancellationToken = null;
+			mergeRateEstimator = null;
+		}
+		TGAnytimeResult.Status status = stopStatus == null ? TGAnytimeResult.Status.COMPLETE
+				: stopStatus;
+		stopStatus = null;
+		return new TGAnytimeResult<T>(status, new TGSolutionSnapshot<T>(
+				solution, estimator.getMerges()),
+				estimator.getRemainingMerges(),
+				estimator.getEstimatedRemainingMillis(),
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
 
-		groupTopics(solutionListener);
+	// Estimated time until the current run of solve(TGSolutionListener,
+	// long, CancellationToken) is done or -1 if unknown.
+	public long getEstimatedRemainingMillis() {
+		MergeRateEstimator<T> estimator = mergeRateEstimator;
+		return estimator == null ? -1 : estimator.getEstimatedRemainingMillis();
+	}
 
-		solutionListener.done();
+	// True once the deadline has passed or the token got cancelled. Stays
+	// true for the rest of the run. May be called from worker threads.
+	protected boolean isStopRequested() {
+		if (stopStatus != null) {
+			return true;
+		}
+		if (cancellationToken != null && cancellationToken.isCancelled()) {
+			stopStatus = TGAnytimeResult.Status.CANCELLED;
+			return true;
+		}
+		if (deadlineSet && System.nanoTime() - deadlineNanos >= 0) {
+			stopStatus = TGAnytimeResult.Status.DEADLINE;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Continues grouping from a checkpoint written while solving with the same
+	 * document provider and minimum word frequency (see
+	 * {@link #setCheckpointFile(File)}). The listener gets the restored
+	 * solution via initialized() and then all remaining merges as with
+	 * {@link #solve(TGSolutionListener)}.
+	 */
+	public void resume(File file, TGSolutionListener<T> solutionListener)
+			throws IOException {
+		startSolving();
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				readCheckpoint(in);
+			} finally {
+				in.close();
+			}
+			solutionListener.beforeInitialization(maxTopics,
+					documentSizes.length);
+			solutionListener.initialized(solution);
+
+			groupTopics(solutionListener);
+			waitForCheckpoint();
+
+			solutionListener.done();
+		} finally {
+			finishSolving();
+		}
+	}
+
+	// Hooks for setting up and releasing resources needed while solving or
+	// resuming.
+	protected void startSolving() {
+	}
+
+	protected void finishSolving() {
+		if (checkpointExecutor != null) {
+			checkpointExecutor.shutdown();
+			checkpointExecutor = null;
+		}
+		pendingCheckpoint = null;
+		mergesSinceCheckpoint = 0;
+	}
+
+	// Called once before groupTopics() when solving from scratch, but not when
+	// resuming.
+	protected void initGrouping() {
+		nTopics[0] = maxTopics;
 	}
 
 	protected void createInitialTopics() {
+		liveTopics.clear();
 		int counter = 0;
 		for (int i = 0; i < nWords; i++) {
 			// Only generate topics for elements occurring often in enough
@@ -170,110 +531,765 @@ public abstract class AbstractTopicGrouper<T> implements TGSolver<T> {
 				topic.add(i);
 				// at position i
 				topics[counter] = topic;
-				topicSizes[counter] = documentProvider.getWordFrequency(i);
+				topicSizes[counter] = wordFr;
 				totalSize += topicSizes[counter];
-				topicLogLikelihoods[counter] = computeOneWordTopicLogLikelihood(i);
-				totalLogLikelihood += topicLogLikelihoods[counter];
-
-				topicFrequencyPerDocuments[counter] = new int[documents.size()];
-				for (int j = 0; j < documents.size(); j++) {
-					topicFrequencyPerDocuments[counter][j] = documents.get(j)
-							.getWordFrequency(i);
-				}
-
-				sumWordFrTimesLogWordFrByTopic[counter] = wordFr
-						* Math.log(wordFr);
+				sumWordFrTimesLogWordFrByTopic[counter] = LogTable.xLogX(wordFr);
 
+				liveTopics.add(counter);
 				counter++;
 			}
 		}
+		resetDenseRows();
+		initTopicFrequencies(counter);
+		// Summed up in the order of the topics, so the total does not depend
+		// on how initTopicFrequencies() splits the work.
+		for (int i = 0; i < counter; i++) {
+			totalLogLikelihood += topicLogLikelihoods[i];
+		}
+		sortedLiveTopics = maxTopics;
+	}
+
+	// Sets up the frequencies per document and the log likelihoods of the
+	// initial topics 0 to n - 1. Topics are independent of each other, so
+	// subclasses may split this into ranges for initTopicFrequencies(int,
+	// int) running in parallel.
+	protected void initTopicFrequencies(int n) {
+		initTopicFrequencies(0, n);
+	}
+
+	// One pass over the postings of each word from start to end - 1.
+	protected void initTopicFrequencies(int start, int end) {
+		for (int i = start; i < end; i++) {
+			int word = topics[i].get(0);
+			topicLogLikelihoods[i] = computeOneWordTopicLogLikelihood(word);
+			topicFrequencyPerDocuments[i] = createWordDocFrequencies(word);
+			initDenseRow(topicFrequencyPerDocuments[i]);
+		}
+	}
+
+	// Takes a topic out of liveTopics once it got joined into another one.
+	// Also the point where no frequencies are being accessed, so memory
+	// mapped storage gets compacted here.
+	protected void removeLiveTopic(int topic) {
+		liveTopics.remove(topic);
+		if (liveTopics.size() < liveTopicSortThreshold * sortedLiveTopics) {
+			liveTopics.sort();
+			sortedLiveTopics = liveTopics.size();
+		}
+		if (frequencyStore != null) {
+			frequencyStore.compactIfNeeded();
+		}
+	}
+
+	// Drops the frequencies of a topic that is gone.
+	protected void releaseTopicFrequencies(int topic) {
+		if (topicFrequencyPerDocuments[topic] != null) {
+			topicFrequencyPerDocuments[topic].release();
+			topicFrequencyPerDocuments[topic] = null;
+		}
+	}
+
+	protected DocFrequencies createWordDocFrequencies(int wordIndex) {
+		int start = invertedIndex.getStart(wordIndex);
+		int end = invertedIndex.getEnd(wordIndex);
+		if (frequencyStore != null) {
+			MappedInvertedIndex index = (MappedInvertedIndex) invertedIndex;
+			return frequencyStore.create(index.getPostings(),
+					index.getAddress(start), end - start);
+		}
+		return new DocFrequencies(Arrays.copyOfRange(
+				invertedIndex.docIndices, start, end), Arrays.copyOfRange(
+				invertedIndex.wordFrs, start, end));
 	}
 
 	protected double computeOneWordTopicLogLikelihood(int wordIndex) {
 		double sum = 0; // Coherence weight log(1).
-		for (int i = 0; i < documents.size(); i++) {
-			Document<T> d = documents.get(i);
-			double wordFrPerDoc = d.getWordFrequency(wordIndex);
-			if (wordFrPerDoc > 0 && documentSizes[i] > 0) {
+		// Postings are sorted by document, so the terms are added in the
+		// same order as with a scan over all documents.
+		int end = invertedIndex.getEnd(wordIndex);
+		for (int pos = invertedIndex.getStart(wordIndex); pos < end; pos++) {
+			int docIndex = invertedIndex.getDocIndex(pos);
+			if (documentSizes[docIndex] > 0) {
+				int wordFrPerDoc = invertedIndex.getWordFr(pos);
 				sum += wordFrPerDoc
-						* (Math.log(wordFrPerDoc) - logDocumentSizes[i]);
+						* (LogTable.log(wordFrPerDoc) - logDocumentSizes[docIndex]);
 			}
 		}
 		return sum;
 	}
 
+	// Only reads shared state, so the workers of parallel initializations
+	// may call this (and computeTwoWordLogLikelihoodHelp()) concurrently.
 	protected double computeTwoWordLogLikelihood(int i, int j, int word1,
 			int word2) {
 		double sum = computeTwoWordLogLikelihoodHelp(word1, word2);
-		sum += sumWordFrTimesLogWordFrByTopic[i];
-		sum += sumWordFrTimesLogWordFrByTopic[j];
+		// Added like in computeTwoTopicLogLikelihood(), so both give exactly
+		// the same result for initial topics.
+		sum += sumWordFrTimesLogWordFrByTopic[i]
+				+ sumWordFrTimesLogWordFrByTopic[j];
 		int sizeSum = topicSizes[i] + topicSizes[j];
-		sum -= (sizeSum) * Math.log(sizeSum);
+		sum -= LogTable.xLogX(sizeSum);
 
 		return sum;
 	}
 
 	protected double computeTwoWordLogLikelihoodHelp(int word1, int word2) {
-		double sum = 0;
-		List<DocIndexAndWordFr> l1 = invertedIndex.get(word1);
-		List<DocIndexAndWordFr> l2 = invertedIndex.get(word2);
-		if (l1 != null && l2 != null) {
-			for (DocIndexAndWordFr entry1 : l1) {
-				searchDummy.docIndex = entry1.docIndex;
-				int posEntry2 = Collections.binarySearch(l2, searchDummy);
-				if (posEntry2 >= 0) {
-					DocIndexAndWordFr entry2 = l2.get(posEntry2);
-					if (documentSizes[entry1.docIndex] > 0) {
-						int fr = entry1.wordFr + entry2.wordFr;
-						sum += fr
-								* (Math.log(fr) - logDocumentSizes[entry1.docIndex]);
-					}
-				} else {
-					if (documentSizes[entry1.docIndex] > 0) {
-						sum += entry1.wordFr
-								* (Math.log(entry1.wordFr) - logDocumentSizes[entry1.docIndex]);
-					}
+		if (frequencyStore != null) {
+			MappedInvertedIndex index = (MappedInvertedIndex) invertedIndex;
+			return computeLogLikelihoodHelp(index.getPostings(),
+					index.getAddress(index.getStart(word1)),
+					index.getAddress(index.getEnd(word1)),
+					index.getPostings(),
+					index.getAddress(index.getStart(word2)),
+					index.getAddress(index.getEnd(word2)), 1);
+		}
+		return computeLogLikelihoodHelp(invertedIndex.docIndices,
+				invertedIndex.wordFrs, invertedIndex.getStart(word1),
+				invertedIndex.getEnd(word1), invertedIndex.docIndices,
+				invertedIndex.wordFrs, invertedIndex.getStart(word2),
+				invertedIndex.getEnd(word2), 1);
+	}
+
+	protected abstract void createInitialJoinCandidates(
+			TGSolutionListener<T> solutionListener);
+
+	//
+	// Sparse initialization
+	//
+
+	// Buffers of one thread for computeCooccurrences().
+	protected class CooccurrenceBuffer {
+		// Topics co-occurring with the current topic.
+		public final int[] partners;
+		public int size;
+		// Likelihood correction per partner topic (see computeCooccurrences()).
+		public final double[] corrections;
+		// marks[j] == topic + 1 if j co-occurs with topic.
+		public final int[] marks;
+
+		public CooccurrenceBuffer() {
+			partners = new int[maxTopics];
+			corrections = new double[maxTopics];
+			marks = new int[maxTopics];
+		}
+
+		public boolean isPartner(int topic, int j) {
+			return marks[j] == topic + 1;
+		}
+	}
+
+	// Words (as initial topics) and their frequencies per document in
+	// compressed sparse row format, i.e. the transposed inverted index.
+	// Only needed for sparse initialization.
+	private int[] docTopicOffsets;
+	private int[] docTopics;
+	private int[] docTopicFrs;
+
+	protected void createDocumentTopicIndex() {
+		int nDocs = documents.size();
+		docTopicOffsets = new int[nDocs + 1];
+		for (int w = 0; w < nWords; w++) {
+			if (wordToInitialTopic[w] != -1) {
+				for (int p = invertedIndex.getStart(w); p < invertedIndex
+						.getEnd(w); p++) {
+					docTopicOffsets[invertedIndex.getDocIndex(p) + 1]++;
 				}
 			}
-			for (DocIndexAndWordFr entry2 : l2) {
-				searchDummy.docIndex = entry2.docIndex;
-				int posEntry1 = Collections.binarySearch(l1, searchDummy);
-				if (posEntry1 < 0) {
-					if (documentSizes[entry2.docIndex] > 0) {
-						sum += entry2.wordFr
-								* (Math.log(entry2.wordFr) - logDocumentSizes[entry2.docIndex]);
+		}
+		for (int d = 0; d < nDocs; d++) {
+			docTopicOffsets[d + 1] += docTopicOffsets[d];
+		}
+		docTopics = new int[docTopicOffsets[nDocs]];
+		docTopicFrs = new int[docTopicOffsets[nDocs]];
+		int[] next = Arrays.copyOf(docTopicOffsets, nDocs);
+		for (int w = 0; w < nWords; w++) {
+			int topic = wordToInitialTopic[w];
+			if (topic != -1) {
+				for (int p = invertedIndex.getStart(w); p < invertedIndex
+						.getEnd(w); p++) {
+					int pos = next[invertedIndex.getDocIndex(p)]++;
+					docTopics[pos] = topic;
+					docTopicFrs[pos] = invertedIndex.getWordFr(p);
+				}
+			}
+		}
+	}
+
+	protected void releaseDocumentTopicIndex() {
+		docTopicOffsets = null;
+		docTopics = null;
+		docTopicFrs = null;
+	}
+
+	// For an initial (one word) topic, finds all other initial topics that
+	// co-occur with it in a document. For each such partner j the sum of
+	// fr * (log(fr) - log(docSize)) over the shared documents changes when
+	// joining the two words: buffer.corrections[j] is the joined term minus
+	// the two single terms, summed over the shared documents. Only
+	// documents of the topic are visited, so the costs over all topics are
+	// the sum of squared document lengths.
+	protected void computeCooccurrences(int topic, CooccurrenceBuffer buffer) {
+		for (int k = 0; k < buffer.size; k++) {
+			buffer.corrections[buffer.partners[k]] = 0;
+		}
+		buffer.size = 0;
+		int mark = topic + 1;
+		TIntList words = topics[topic];
+		int w = words.get(0);
+		for (int p = invertedIndex.getStart(w); p < invertedIndex.getEnd(w); p++) {
+			int d = invertedIndex.getDocIndex(p);
+			if (documentSizes[d] == 0) {
+				continue;
+			}
+			int fr1 = invertedIndex.getWordFr(p);
+			double logDocSize = logDocumentSizes[d];
+			double term1 = fr1 * (LogTable.log(fr1) - logDocSize);
+			for (int q = docTopicOffsets[d]; q < docTopicOffsets[d + 1]; q++) {
+				int j = docTopics[q];
+				if (j != topic) {
+					if (buffer.marks[j] != mark) {
+						buffer.marks[j] = mark;
+						buffer.partners[buffer.size++] = j;
 					}
+					int fr2 = docTopicFrs[q];
+					int fr = fr1 + fr2;
+					// Written symmetrically so that the result for (j, topic)
+					// is the same.
+					buffer.corrections[j] += fr * (LogTable.log(fr) - logDocSize)
+							- (term1 + fr2 * (LogTable.log(fr2) - logDocSize));
 				}
 			}
 		}
-		return sum;
 	}
 
-	protected abstract void createInitialJoinCandidates(
-			TGSolutionListener<T> solutionListener);
+	// Same as computeTwoWordLogLikelihood() for initial topics i and j up to
+	// rounding, where correction is the result of computeCooccurrences() or 0
+	// if the words do not co-occur.
+	protected double computeSparseTwoWordLogLikelihood(int i, int j,
+			double correction) {
+		int sizeSum = topicSizes[i] + topicSizes[j];
+		return (topicLogLikelihoods[i] + topicLogLikelihoods[j]) + correction
+				+ (sumWordFrTimesLogWordFrByTopic[i] + sumWordFrTimesLogWordFrByTopic[j])
+				- LogTable.xLogX(sizeSum);
+	}
+
+	// Initial topics sorted by size and then by index. Without
+	// co-occurrence the improvement of a join is n_i log n_i + n_j log n_j -
+	// (n_i + n_j) log(n_i + n_j), which strictly decreases with n_j. So the
+	// best partner of i among topics not co-occurring with i is the first one
+	// in this order that does not co-occur with i.
+	protected int[] getInitialTopicsBySize() {
+		// Sorting longs of (size, index) avoids boxing.
+		long[] keys = new long[maxTopics];
+		for (int i = 0; i < maxTopics; i++) {
+			keys[i] = (((long) topicSizes[i]) << 32) | i;
+		}
+		Arrays.sort(keys);
+		int[] sorted = new int[maxTopics];
+		for (int i = 0; i < maxTopics; i++) {
+			sorted[i] = (int) keys[i];
+		}
+		return sorted;
+	}
+
+	// Returns the best partner of the initial topic among the topics that do
+	// not co-occur with it (see getInitialTopicsBySize()) or -1 if there is
+	// none. Needs at most buffer.size + 2 steps.
+	protected int findBestNonCooccurringTopic(int topic, int[] topicsBySize,
+			CooccurrenceBuffer buffer) {
+		for (int k = 0; k < topicsBySize.length; k++) {
+			int j = topicsBySize[k];
+			if (j != topic && !buffer.isPartner(topic, j)) {
+				return j;
+			}
+		}
+		return -1;
+	}
 
 	protected abstract void groupTopics(TGSolutionListener<T> solutionListener);
 
+	//
+	// Checkpoints
+	//
+
+	// A copy of the solver state that can be written on another thread while
+	// grouping goes on.
+	protected interface CheckpointSnapshot {
+		public void write(DataOutput out) throws IOException;
+	}
+
+	// Must be called by groupTopics() after a merge when the solver state is
+	// consistent.
+	protected void checkpointIfDue() {
+		if (checkpointFile == null) {
+			return;
+		}
+		mergesSinceCheckpoint++;
+		if (mergesSinceCheckpoint < checkpointInterval) {
+			return;
+		}
+		if (pendingCheckpoint != null) {
+			if (!pendingCheckpoint.isDone()) {
+				// Try again after the next merge.
+				return;
+			}
+			waitForCheckpoint();
+		}
+		mergesSinceCheckpoint = 0;
+		final CheckpointSnapshot snapshot = createCheckpointSnapshot();
+		final File file = checkpointFile;
+		if (checkpointExecutor == null) {
+			checkpointExecutor = Executors
+					.newSingleThreadExecutor(new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "TG checkpoint writer");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		pendingCheckpoint = checkpointExecutor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				writeCheckpoint(snapshot, file);
+				return null;
+			}
+		});
+	}
+
+	// Waits until a pending checkpoint is written and rethrows a failure.
+	protected void waitForCheckpoint() {
+		if (pendingCheckpoint == null) {
+			return;
+		}
+		try {
+			pendingCheckpoint.get();
+			checkpointsWritten++;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pendingCheckpoint = null;
+		}
+	}
+
+	// The file is replaced only once the checkpoint is complete, so a crash
+	// while writing leaves the previous checkpoint intact.
+	protected void writeCheckpoint(CheckpointSnapshot snapshot, File file)
+			throws IOException {
+		File tmpFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmpFile), 1 << 16));
+		try {
+			snapshot.write(out);
+		} finally {
+			out.close();
+		}
+		try {
+			Files.move(tmpFile.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmpFile.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	protected CheckpointSnapshot createCheckpointSnapshot() {
+		final int nTopics = this.nTopics[0];
+		final int totalSize = this.totalSize;
+		final double totalLogLikelihood = this.totalLogLikelihood;
+		final int[] parents = topicUnionFind.getParents();
+		final int[][] topicWords = new int[maxTopics][];
+		final DocFrequencies[] topicFrs = new DocFrequencies[maxTopics];
+		for (int i = 0; i < maxTopics; i++) {
+			if (topics[i] != null) {
+				topicWords[i] = topics[i].toArray();
+				topicFrs[i] = topicFrequencyPerDocuments[i].snapshot();
+			}
+		}
+		final int[] topicSizes = this.topicSizes.clone();
+		final double[] topicLogLikelihoods = this.topicLogLikelihoods.clone();
+		final double[] sumWordFrTimesLogWordFr = sumWordFrTimesLogWordFrByTopic
+				.clone();
+		final CheckpointSnapshot solverSnapshot = createSolverSnapshot();
+
+		return new CheckpointSnapshot() {
+			@Override
+			public void write(DataOutput out) throws IOException {
+				writeCheckpointHeader(out);
+				out.writeInt(nTopics);
+				out.writeInt(totalSize);
+				out.writeDouble(totalLogLikelihood);
+				CheckpointIO.writeVarInts(out, parents, parents.length);
+				for (int i = 0; i < maxTopics; i++) {
+					out.writeBoolean(topicWords[i] != null);
+					if (topicWords[i] != null) {
+						CheckpointIO.writeVarInts(out, topicWords[i],
+								topicWords[i].length);
+						out.writeInt(topicSizes[i]);
+						out.writeDouble(topicLogLikelihoods[i]);
+						out.writeDouble(sumWordFrTimesLogWordFr[i]);
+						CheckpointIO.writeDocFrequencies(out, topicFrs[i]);
+					}
+				}
+				solverSnapshot.write(out);
+			}
+		};
+	}
+
+	protected void readCheckpoint(DataInput in) throws IOException {
+		readCheckpointHeader(in);
+		nTopics[0] = in.readInt();
+		totalSize = in.readInt();
+		totalLogLikelihood = in.readDouble();
+		topicUnionFind.setParents(CheckpointIO.readVarInts(in));
+		liveTopics.clear();
+		resetDenseRows();
+		for (int i = 0; i < maxTopics; i++) {
+			if (in.readBoolean()) {
+				liveTopics.add(i);
+				topics[i] = new TIntArrayList(CheckpointIO.readVarInts(in));
+				topicSizes[i] = in.readInt();
+				topicLogLikelihoods[i] = in.readDouble();
+				sumWordFrTimesLogWordFrByTopic[i] = in.readDouble();
+				releaseTopicFrequencies(i);
+				DocFrequencies frs = CheckpointIO.readDocFrequencies(in);
+				topicFrequencyPerDocuments[i] = frequencyStore == null ? frs
+						: frequencyStore.create(frs);
+				initDenseRow(topicFrequencyPerDocuments[i]);
+			} else {
+				topics[i] = null;
+				topicSizes[i] = 0;
+				topicLogLikelihoods[i] = 0;
+				sumWordFrTimesLogWordFrByTopic[i] = 0;
+				releaseTopicFrequencies(i);
+			}
+		}
+		sortedLiveTopics = liveTopics.size();
+		readSolverState(in);
+	}
+
+	// The header identifies the solver and the input data so that a
+	// checkpoint is not resumed with a different setup.
+	protected void writeCheckpointHeader(DataOutput out) throws IOException {
+		out.writeInt(CHECKPOINT_MAGIC);
+		out.writeInt(CHECKPOINT_VERSION);
+		out.writeUTF(getClass().getName());
+		out.writeInt(minWordFrequency);
+		out.writeInt(maxTopics);
+		out.writeInt(documents.size());
+		out.writeInt(invertedIndex.getNumberOfPostings());
+	}
+
+	protected void readCheckpointHeader(DataInput in) throws IOException {
+		if (in.readInt() != CHECKPOINT_MAGIC) {
+			throw new IOException("not a checkpoint file");
+		}
+		int version = in.readInt();
+		if (version != CHECKPOINT_VERSION) {
+			throw new IOException("unsupported checkpoint version " + version);
+		}
+		String className = in.readUTF();
+		if (!className.equals(getClass().getName())) {
+			throw new IOException("checkpoint was written by " + className);
+		}
+		if (in.readInt() != minWordFrequency || in.readInt() != maxTopics
+				|| in.readInt() != documents.size()
+				|| in.readInt() != invertedIndex.getNumberOfPostings()) {
+			throw new IOException(
+					"checkpoint does not match the documents or the minimum word frequency");
+		}
+	}
+
+	// Copy of the solver specific state such as join candidates and counters.
+	protected abstract CheckpointSnapshot createSolverSnapshot();
+
+	protected abstract void readSolverState(DataInput in) throws IOException;
+
 	protected double computeTwoTopicLogLikelihood(int topic1, int topic2) {
+		double sum = computeTwoTopicLogLikelihoodHelp(
+				topicFrequencyPerDocuments[topic1],
+				topicFrequencyPerDocuments[topic2], 1);
+
+		// Adding both sums at once makes the result exactly symmetric in
+		// topic1 and topic2, so a likelihood computed for either topic can be
+		// reused for the other.
+		sum += sumWordFrTimesLogWordFrByTopic[topic1]
+				+ sumWordFrTimesLogWordFrByTopic[topic2];
+		int sizeSum = topicSizes[topic1] + topicSizes[topic2];
+		sum -= LogTable.xLogX(sizeSum);
+
+		return sum;
+	}
+
+	// Same as computeTwoTopicLogLikelihood(topic1, topic2) but gives up and
+	// returns Double.NEGATIVE_INFINITY as soon as the result is known to be
+	// below minLikelihood. Every document term of the sum is <= 0 (fr <=
+	// docSize), so a partial sum bounds the final sum from above.
+	protected double computeTwoTopicLogLikelihood(int topic1, int topic2,
+			double minLikelihood) {
+		int sizeSum = topicSizes[topic1] + topicSizes[topic2];
+		double sizeTerm = LogTable.xLogX(sizeSum);
+		double sum = computeTwoTopicLogLikelihoodHelp(
+				topicFrequencyPerDocuments[topic1],
+				topicFrequencyPerDocuments[topic2], minLikelihood
+						- sumWordFrTimesLogWordFrByTopic[topic1]
+						- sumWordFrTimesLogWordFrByTopic[topic2] + sizeTerm);
+		if (sum == Double.NEGATIVE_INFINITY) {
+			return sum;
+		}
+
+		sum += sumWordFrTimesLogWordFrByTopic[topic1]
+				+ sumWordFrTimesLogWordFrByTopic[topic2];
+		sum -= sizeTerm;
+
+		return sum;
+	}
+
+	// The improvement of joining topics i and j. The likelihoods of the
+	// topics are always subtracted in the order of their indices, so a join
+	// gets the same value (to the last bit) from both sides and on every
+	// path that computes it.
+	protected final double improvement(int i, int j, double logLikelihood) {
+		return i < j ? logLikelihood - topicLogLikelihoods[i]
+				- topicLogLikelihoods[j] : logLikelihood
+				- topicLogLikelihoods[j] - topicLogLikelihoods[i];
+	}
+
+	// With sign == -1 the frequencies of the second topic get subtracted.
+	protected double computeTwoTopicLogLikelihoodHelp(DocFrequencies f1,
+			DocFrequencies f2, int sign) {
+		if (frequencyStore != null) {
+			MappedDocFrequencies m1 = (MappedDocFrequencies) f1;
+			MappedDocFrequencies m2 = (MappedDocFrequencies) f2;
+			return computeLogLikelihoodHelp(m1.getArray(), m1.getAddress(),
+					m1.getEndAddress(), m2.getArray(), m2.getAddress(),
+					m2.getEndAddress(), sign);
+		}
+		if (f1.denseFrequencies != null && f2.denseFrequencies != null) {
+			return computeDenseLogLikelihoodHelp(f1.denseFrequencies,
+					f2.denseFrequencies, sign);
+		}
+		return computeLogLikelihoodHelp(f1.docIndices, f1.frequencies, 0,
+				f1.size, f2.docIndices, f2.frequencies, 0, f2.size, sign);
+	}
+
+	// For sign == 1 with the stop at minSum (see below).
+	protected double computeTwoTopicLogLikelihoodHelp(DocFrequencies f1,
+			DocFrequencies f2, double minSum) {
+		if (frequencyStore != null) {
+			MappedDocFrequencies m1 = (MappedDocFrequencies) f1;
+			MappedDocFrequencies m2 = (MappedDocFrequencies) f2;
+			return computeLogLikelihoodHelp(m1.getArray(), m1.getAddress(),
+					m1.getEndAddress(), m2.getArray(), m2.getAddress(),
+					m2.getEndAddress(), minSum);
+		}
+		if (f1.denseFrequencies != null && f2.denseFrequencies != null) {
+			return computeDenseLogLikelihoodHelp(f1.denseFrequencies,
+					f2.denseFrequencies, minSum);
+		}
+		return computeLogLikelihoodHelp(f1.docIndices, f1.frequencies, 0,
+				f1.size, f2.docIndices, f2.frequencies, 0, f2.size, minSum);
+	}
+
+	// The merge join for dense rows of frequencies, without branches. A
+	// document without either topic adds 0 * (0 - log(docSize)), which
+	// leaves the sum as it is (fr <= docSize, so there is no fr > 0 with
+	// docSize 0). All other documents are visited in the same order and add
+	// the same terms, so the result is exactly the same. A vectorized loop
+	// (say via jdk.incubator.vector) would add up the terms in several lanes
+	// and so lose this exactness.
+	protected double computeDenseLogLikelihoodHelp(int[] frs1, int[] frs2,
+			int sign) {
+		double[] logs = denseLogs;
 		double sum = 0;
-		int[] frTopicPerDocument1 = topicFrequencyPerDocuments[topic1];
-		int[] frTopicPerDocument2 = topicFrequencyPerDocuments[topic2];
-		for (int i = 0; i < documents.size(); i++) {
-			if ((frTopicPerDocument1[i] > 0 || frTopicPerDocument2[i] > 0)
-					&& documentSizes[i] > 0) {
-				int fr = frTopicPerDocument1[i] + frTopicPerDocument2[i];
-				sum += fr * (Math.log(fr) - logDocumentSizes[i]);
+		for (int d = 0; d < frs1.length; d++) {
+			int fr = frs1[d] + sign * frs2[d];
+			sum += fr * (logs[fr] - logDocumentSizes[d]);
+		}
+		return sum;
+	}
+
+	// Dense version of the merge join with the stop at minSum. The stop is
+	// checked once per block of documents. Terms are <= 0, so the result is
+	// the same as when checking after each document.
+	protected double computeDenseLogLikelihoodHelp(int[] frs1, int[] frs2,
+			double minSum) {
+		double[] logs = denseLogs;
+		double sum = 0;
+		for (int start = 0; start < frs1.length; start += DENSE_BLOCK_SIZE) {
+			int end = Math.min(frs1.length, start + DENSE_BLOCK_SIZE);
+			for (int d = start; d < end; d++) {
+				int fr = frs1[d] + frs2[d];
+				sum += fr * (logs[fr] - logDocumentSizes[d]);
+			}
+			if (sum < minSum) {
+				return Double.NEGATIVE_INFINITY;
 			}
 		}
+		return sum;
+	}
 
-		sum += sumWordFrTimesLogWordFrByTopic[topic1];
-		sum += sumWordFrTimesLogWordFrByTopic[topic2];
-		int sizeSum = topicSizes[topic1] + topicSizes[topic2];
-		sum -= (sizeSum) * Math.log(sizeSum);
+	// Merge join over two sorted postings ranges, so only documents where
+	// either side occurs are visited. Sums up fr * (log(fr) - log(docSize))
+	// where fr is the frequency of the first side plus sign times the
+	// frequency of the second side.
+	protected double computeLogLikelihoodHelp(int[] docIndices1, int[] frs1,
+			int p1, int end1, int[] docIndices2, int[] frs2, int p2, int end2,
+			int sign) {
+		double sum = 0;
+		while (p1 < end1 || p2 < end2) {
+			int docIndex;
+			int fr;
+			if (p2 == end2 || (p1 < end1 && docIndices1[p1] < docIndices2[p2])) {
+				docIndex = docIndices1[p1];
+				fr = frs1[p1++];
+			} else if (p1 == end1 || docIndices2[p2] < docIndices1[p1]) {
+				docIndex = docIndices2[p2];
+				fr = sign * frs2[p2++];
+			} else {
+				docIndex = docIndices1[p1];
+				fr = frs1[p1++] + sign * frs2[p2++];
+			}
+			if (fr > 0 && documentSizes[docIndex] > 0) {
+				sum += fr * (LogTable.log(fr) - logDocumentSizes[docIndex]);
+			}
+		}
+		return sum;
+	}
+
+	// The merge join from above for sign == 1 which stops and returns
+	// Double.NEGATIVE_INFINITY once the sum drops below minSum. Otherwise the
+	// result is exactly the same.
+	protected double computeLogLikelihoodHelp(int[] docIndices1, int[] frs1,
+			int p1, int end1, int[] docIndices2, int[] frs2, int p2, int end2,
+			double minSum) {
+		double sum = 0;
+		while (p1 < end1 || p2 < end2) {
+			int docIndex;
+			int fr;
+			if (p2 == end2 || (p1 < end1 && docIndices1[p1] < docIndices2[p2])) {
+				docIndex = docIndices1[p1];
+				fr = frs1[p1++];
+			} else if (p1 == end1 || docIndices2[p2] < docIndices1[p1]) {
+				docIndex = docIndices2[p2];
+				fr = frs2[p2++];
+			} else {
+				docIndex = docIndices1[p1];
+				fr = frs1[p1++] + frs2[p2++];
+			}
+			if (fr > 0 && documentSizes[docIndex] > 0) {
+				sum += fr * (LogTable.log(fr) - logDocumentSizes[docIndex]);
+				if (sum < minSum) {
+					return Double.NEGATIVE_INFINITY;
+				}
+			}
+		}
+		return sum;
+	}
+
+	// The merge join from above over memory mapped postings, where document
+	// indices and frequencies alternate from address p to end. Both sides are
+	// read strictly in ascending order, so page faults are amortized over
+	// whole pages.
+	protected double computeLogLikelihoodHelp(MappedIntArray array1, long p1,
+			long end1, MappedIntArray array2, long p2, long end2, int sign) {
+		double sum = 0;
+		int d1 = p1 < end1 ? array1.get(p1) : 0;
+		int d2 = p2 < end2 ? array2.get(p2) : 0;
+		while (p1 < end1 || p2 < end2) {
+			int docIndex;
+			int fr;
+			if (p2 == end2 || (p1 < end1 && d1 < d2)) {
+				docIndex = d1;
+				fr = array1.get(p1 + 1);
+				p1 += 2;
+				d1 = p1 < end1 ? array1.get(p1) : 0;
+			} else if (p1 == end1 || d2 < d1) {
+				docIndex = d2;
+				fr = sign * array2.get(p2 + 1);
+				p2 += 2;
+				d2 = p2 < end2 ? array2.get(p2) : 0;
+			} else {
+				docIndex = d1;
+				fr = array1.get(p1 + 1) + sign * array2.get(p2 + 1);
+				p1 += 2;
+				p2 += 2;
+				d1 = p1 < end1 ? array1.get(p1) : 0;
+				d2 = p2 < end2 ? array2.get(p2) : 0;
+			}
+			if (fr > 0 && documentSizes[docIndex] > 0) {
+				sum += fr * (LogTable.log(fr) - logDocumentSizes[docIndex]);
+			}
+		}
+		return sum;
+	}
 
+	// Memory mapped version of the merge join with the stop at minSum.
+	protected double computeLogLikelihoodHelp(MappedIntArray array1, long p1,
+			long end1, MappedIntArray array2, long p2, long end2, double minSum) {
+		double sum = 0;
+		int d1 = p1 < end1 ? array1.get(p1) : 0;
+		int d2 = p2 < end2 ? array2.get(p2) : 0;
+		while (p1 < end1 || p2 < end2) {
+			int docIndex;
+			int fr;
+			if (p2 == end2 || (p1 < end1 && d1 < d2)) {
+				docIndex = d1;
+				fr = array1.get(p1 + 1);
+				p1 += 2;
+				d1 = p1 < end1 ? array1.get(p1) : 0;
+			} else if (p1 == end1 || d2 < d1) {
+				docIndex = d2;
+				fr = array2.get(p2 + 1);
+				p2 += 2;
+				d2 = p2 < end2 ? array2.get(p2) : 0;
+			} else {
+				docIndex = d1;
+				fr = array1.get(p1 + 1) + array2.get(p2 + 1);
+				p1 += 2;
+				p2 += 2;
+				d1 = p1 < end1 ? array1.get(p1) : 0;
+				d2 = p2 < end2 ? array2.get(p2) : 0;
+			}
+			if (fr > 0 && documentSizes[docIndex] > 0) {
+				sum += fr * (LogTable.log(fr) - logDocumentSizes[docIndex]);
+				if (sum < minSum) {
+					return Double.NEGATIVE_INFINITY;
+				}
+			}
+		}
 		return sum;
 	}
 
+	// Upper bound of the improvement of joining two topics with frequencies
+	// f1, f2 and sizes n1, n2. The improvement equals the sum of (f1 + f2) *
+	// H(f1 / (f1 + f2)) over the documents where both topics occur (H is the
+	// binary entropy) minus (n1 + n2) * H(n1 / (n1 + n2)). By concavity of H
+	// the first part is at most (s1 + s2) * H(s1 / (s1 + s2)) where s1, s2
+	// are the total frequencies in the shared documents. That term grows with
+	// s1 and s2, and s1 is at most n1 and at most the maximum document
+	// frequency of the first topic times the number of documents of the
+	// second one (same for s2).
+	protected static double computeImprovementBound(DocFrequencies f1,
+			long n1, DocFrequencies f2, long n2) {
+		long s1 = Math.min(n1, ((long) f1.getMaxFrequency()) * f2.size());
+		long s2 = Math.min(n2, ((long) f2.getMaxFrequency()) * f1.size());
+		if (s1 == n1 && s2 == n2) {
+			return 0;
+		}
+		return entropyTerm(s1, s2) - entropyTerm(n1, n2);
+	}
+
+	// (a + b) * log(a + b) - a * log(a) - b * log(b)
+	protected static double entropyTerm(long a, long b) {
+		return LogTable.xLogX(a + b) - LogTable.xLogX(a) - LogTable.xLogX(b);
+	}
+
 	public double computeTopicWordLogLikelihood(int topic, int wordIndex) {
 		int htopic = wordToInitialTopic[wordIndex];
 		int wtopic = topicUnionFind.find(htopic);
@@ -293,61 +1309,92 @@ public abstract class AbstractTopicGrouper<T> implements TGSolver<T> {
 	}
 	
 	protected double computeTopicWordLogLikelihoodHelp(int topic, int wordIndex, boolean add) {
-		double sum = 0;
 		int sign = add ? 1 : -1;
-		int[] frTopicPerDocument1 = topicFrequencyPerDocuments[topic];
+		DocFrequencies topicFrs = topicFrequencyPerDocuments[topic];
+		int start = invertedIndex.getStart(wordIndex);
+		int end = invertedIndex.getEnd(wordIndex);
+		double sum;
+		if (frequencyStore != null) {
+			MappedDocFrequencies frs = (MappedDocFrequencies) topicFrs;
+			MappedInvertedIndex index = (MappedInvertedIndex) invertedIndex;
+			sum = computeLogLikelihoodHelp(frs.getArray(), frs.getAddress(),
+					frs.getEndAddress(), index.getPostings(),
+					index.getAddress(start), index.getAddress(end), sign);
+		} else {
+			sum = computeLogLikelihoodHelp(topicFrs.docIndices,
+					topicFrs.frequencies, 0, topicFrs.size,
+					invertedIndex.docIndices, invertedIndex.wordFrs, start,
+					end, sign);
+		}
 		int frWordTotal = 0;
-		for (int i = 0; i < documents.size(); i++) {
-			int fr2 = documents.get(i).getWordFrequency(wordIndex);
-			if ((frTopicPerDocument1[i] > 0 || fr2 > 0) && documentSizes[i] > 0) {
-				int fr = frTopicPerDocument1[i] + sign * fr2;
-				if (fr > 0) {
-					sum += fr * (Math.log(fr) - logDocumentSizes[i]);
-				}
-			}
-			frWordTotal += fr2;
+		for (int i = start; i < end; i++) {
+			frWordTotal += invertedIndex.getWordFr(i);
 		}
 
 		sum += sumWordFrTimesLogWordFrByTopic[topic];
-		sum += sign * frWordTotal * Math.log(frWordTotal);
+		sum += sign * LogTable.xLogX(frWordTotal);
 		int sizeSum = topicSizes[topic] + sign * frWordTotal;
-		sum -= (sizeSum) * Math.log(sizeSum);
+		sum -= LogTable.xLogX(sizeSum);
 
 		return sum;		
 	}
 
-	protected static class DocIndexAndWordFr implements
-			Comparable<DocIndexAndWordFr> {
-		public int docIndex;
-		public int wordFr;
-
-		public int compareTo(DocIndexAndWordFr o) {
-			return docIndex - o.docIndex;
-		}
-	}
-
 	public class DefaultTGSolution implements TGSolution<T> {
+		// Topic of each word as of topicUnionFind version wordTopicsVersion
+		// and the number of lookups via find() at version lookupsVersion.
+		private int[] wordTopics;
+		private int wordTopicsVersion = -1;
+		private int lookups;
+		private int lookupsVersion = -1;
+
 		@Override
 		public TIntCollection[] getTopics() {
 			return topics;
 		}
 
+		// Lookups go through the union find until there were more than
+		// nWords / 16 of them since the last merge. Then all topics of
+		// words get materialized so further lookups are array accesses.
 		@Override
 		public int getTopicForWord(int wordIndex) {
+			int version = topicUnionFind.getVersion();
+			if (wordTopicsVersion == version) {
+				return wordTopics[wordIndex];
+			}
+			if (lookupsVersion != version) {
+				lookupsVersion = version;
+				lookups = 0;
+			}
+			if (++lookups > nWords / 16) {
+				return getTopicsForWords()[wordIndex];
+			}
 			int topic = wordToInitialTopic[wordIndex];
 			return topic == -1 ? -1 : topicUnionFind.find(topic);
 		}
 
-		@Override
-		public int[] getTopicIds() {
-			int[] topicIds = new int[nTopics[0]];
-			int j = 0;
-			for (int i = 0; i < topics.length; i++) {
-				if (topics[i] != null) {
-					topicIds[j++] = i;
+		/**
+		 * Topic of each word (-1 for words without a topic). Computed in
+		 * one pass and cached until the next merge, so it must not be
+		 * changed.
+		 */
+		public int[] getTopicsForWords() {
+			int version = topicUnionFind.getVersion();
+			if (wordTopicsVersion != version) {
+				int[] topicIds = topicUnionFind.getIdentifiers();
+				int[] result = new int[nWords];
+				for (int w = 0; w < nWords; w++) {
+					int topic = wordToInitialTopic[w];
+					result[w] = topic == -1 ? -1 : topicIds[topic];
 				}
+				wordTopics = result;
+				wordTopicsVersion = version;
 			}
-			return topicIds;
+			return wordTopics;
+		}
+
+		@Override
+		public int[] getTopicIds() {
+			return liveTopics.toSortedArray();
 		}
 
 		@Override
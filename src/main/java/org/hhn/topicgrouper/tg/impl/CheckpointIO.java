@@ -0,0 +1,82 @@
+package org.hhn.topicgrouper.tg.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Helpers for the binary checkpoint format of {@link AbstractTopicGrouper}.
+ * Non negative ints are written as variable length ints (7 bits per byte), so
+ * word indices, sizes and the gaps between sorted document indices mostly
+ * take one or two bytes.
+ */
+public final class CheckpointIO {
+	private CheckpointIO() {
+	}
+
+	public static void writeVarInt(DataOutput out, int v) throws IOException {
+		if (v < 0) {
+			throw new IllegalArgumentException("negative value " + v);
+		}
+		while ((v & ~0x7F) != 0) {
+			out.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	public static int readVarInt(DataInput in) throws IOException {
+		int v = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			v |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return v;
+			}
+		}
+		throw new IOException("malformed var int");
+	}
+
+	public static void writeVarInts(DataOutput out, int[] values, int length)
+			throws IOException {
+		writeVarInt(out, length);
+		for (int i = 0; i < length; i++) {
+			writeVarInt(out, values[i]);
+		}
+	}
+
+	public static int[] readVarInts(DataInput in) throws IOException {
+		int[] values = new int[readVarInt(in)];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = readVarInt(in);
+		}
+		return values;
+	}
+
+	public static void writeDocFrequencies(DataOutput out, DocFrequencies frs)
+			throws IOException {
+		writeVarInt(out, frs.size());
+		int last = 0;
+		for (int i = 0; i < frs.size(); i++) {
+			// Document indices are ascending, so only the gaps are stored.
+			int docIndex = frs.getDocIndex(i);
+			writeVarInt(out, docIndex - last);
+			last = docIndex;
+			writeVarInt(out, frs.getFrequency(i));
+		}
+	}
+
+	public static DocFrequencies readDocFrequencies(DataInput in)
+			throws IOException {
+		int size = readVarInt(in);
+		int[] docIndices = new int[size];
+		int[] frequencies = new int[size];
+		int last = 0;
+		for (int i = 0; i < size; i++) {
+			last += readVarInt(in);
+			docIndices[i] = last;
+			frequencies[i] = readVarInt(in);
+		}
+		return new DocFrequencies(docIndices, frequencies);
+	}
+}
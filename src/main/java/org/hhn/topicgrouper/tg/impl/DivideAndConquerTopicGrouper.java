@@ -0,0 +1,718 @@
+package org.hhn.topicgrouper.tg.impl;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.tg.TGSolutionListener;
+import org.hhn.topicgrouper.util.LogTable;
+
+/**
+ * Two level solver for large vocabularies. The initial topics are partitioned
+ * into blocks of co-occurring words. On level 1, each block is grouped exactly
+ * down to a few topics, where the blocks run in parallel. On level 2, all
+ * topics left are grouped exactly. Both levels join topics in the same order
+ * as {@link LowMemTopicGrouper} would for the respective topics, so the costs
+ * are quadratic in the block size and in the number of topics after level 1
+ * instead of in the vocabulary size. With a block size of at least the number
+ * of initial topics, the result is the one of LowMemTopicGrouper.
+ * <p>
+ * The listener gets all merges of both levels like from the other solvers,
+ * the ones of level 1 block by block. Checkpoints are only written on level
+ * 2. Homonyms are not supported.
+ */
+public class DivideAndConquerTopicGrouper<T> extends AbstractTopicGrouper<T> {
+	// Below this number of topics parallel rows do not pay off.
+	private static final int MIN_TOPICS_FOR_PARALLEL_ROWS = 256;
+
+	private int blockSize;
+	private int blockTopics;
+	private int parallelBlocks;
+
+	// Initial topics per block, each in ascending order. Only set from the
+	// initialization to the end of level 1.
+	private int[][] blocks;
+	private int numberOfBlocks;
+	private long pairComputations;
+	protected ForkJoinPool pool;
+
+	public DivideAndConquerTopicGrouper(int minWordFrequency,
+			DocumentProvider<T> documentProvider, int minTopics) {
+		this(minWordFrequency, documentProvider, minTopics, null);
+	}
+
+	// See AbstractTopicGrouper for memory mapped storage.
+	public DivideAndConquerTopicGrouper(int minWordFrequency,
+			DocumentProvider<T> documentProvider, int minTopics,
+			File mappedStorageDirectory) {
+		super(minWordFrequency, documentProvider, minTopics,
+				mappedStorageDirectory);
+		blockSize = 1000;
+		blockTopics = 20;
+		parallelBlocks = 1;
+	}
+
+	/**
+	 * Maximum number of initial topics per block (1000 by default). Larger
+	 * blocks give results closer to the exact solvers but the costs of a
+	 * block are quadratic in its size.
+	 */
+	public void setBlockSize(int blockSize) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("blockSize must be >= 1");
+		}
+		this.blockSize = blockSize;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	// Number of topics each block is grouped down to on level 1 (20 by
+	// default). Blocks keep more topics if needed to reach minTopics.
+	public void setBlockTopics(int blockTopics) {
+		if (blockTopics < 1) {
+			throw new IllegalArgumentException("blockTopics must be >= 1");
+		}
+		this.blockTopics = blockTopics;
+	}
+
+	public int getBlockTopics() {
+		return blockTopics;
+	}
+
+	/**
+	 * Number of blocks grouped in parallel on level 1 (1 by default). On level
+	 * 2, the same number of threads computes the join candidates. The results
+	 * do not depend on it.
+	 */
+	public void setParallelBlocks(int parallelBlocks) {
+		if (parallelBlocks < 1) {
+			throw new IllegalArgumentException("parallelBlocks must be >= 1");
+		}
+		this.parallelBlocks = parallelBlocks;
+	}
+
+	public int getParallelBlocks() {
+		return parallelBlocks;
+	}
+
+	// Number of blocks of the last run.
+	public int getNumberOfBlocks() {
+		return numberOfBlocks;
+	}
+
+	public long getPairComputations() {
+		return pairComputations;
+	}
+
+	@Override
+	protected void startSolving() {
+		super.startSolving();
+		if (parallelBlocks > 1) {
+			pool = new ForkJoinPool(parallelBlocks);
+		}
+	}
+
+	@Override
+	protected void finishSolving() {
+		if (pool != null) {
+			pool.shutdownNow();
+			pool = null;
+		}
+		blocks = null;
+		releaseDocumentTopicIndex();
+		super.finishSolving();
+	}
+
+	// Join candidates are computed per block, so initialization only
+	// creates the blocks.
+	@Override
+	protected void createInitialJoinCandidates(
+			TGSolutionListener<T> solutionListener) {
+		pairComputations = 0;
+		// Needed for the blocks and for sparse initialization of the blocks.
+		createDocumentTopicIndex();
+		blocks = createBlocks(solutionListener);
+		numberOfBlocks = blocks.length;
+		if (!isSparseInitialization()) {
+			releaseDocumentTopicIndex();
+		}
+	}
+
+	// Greedy co-occurrence clustering: A block starts with the largest topic
+	// not in a block yet. It then keeps taking the topic with the best join
+	// improvement with any of its members among the topics that co-occur with
+	// a member (see computeCooccurrences()) until it is full. Blocks of less
+	// than half the block size are packed together.
+	protected int[][] createBlocks(TGSolutionListener<T> solutionListener) {
+		if (blockSize >= maxTopics) {
+			int[] block = new int[maxTopics];
+			for (int i = 0; i < maxTopics; i++) {
+				block[i] = i;
+			}
+			return new int[][] { block };
+		}
+		final double[] affinities = new double[maxTopics];
+		// Candidates for the current block, best improvement first.
+		IndexedTopicHeap frontier = new IndexedTopicHeap(maxTopics) {
+			@Override
+			protected int compare(int topic1, int topic2) {
+				if (affinities[topic1] == affinities[topic2]) {
+					return topic1 - topic2;
+				}
+				return affinities[topic1] > affinities[topic2] ? -1 : 1;
+			}
+		};
+		CooccurrenceBuffer buffer = new CooccurrenceBuffer();
+		int[] topicsBySize = getInitialTopicsBySize();
+		boolean[] assigned = new boolean[maxTopics];
+		List<int[]> result = new ArrayList<int[]>();
+		TIntArrayList packed = new TIntArrayList();
+		int nAssigned = 0;
+		for (int s = maxTopics - 1; s >= 0 && !isStopRequested(); s--) {
+			if (assigned[topicsBySize[s]]) {
+				continue;
+			}
+			TIntArrayList block = new TIntArrayList();
+			int next = topicsBySize[s];
+			while (next != -1) {
+				block.add(next);
+				assigned[next] = true;
+				if (block.size() == blockSize) {
+					break;
+				}
+				computeCooccurrences(next, buffer);
+				for (int k = 0; k < buffer.size; k++) {
+					int j = buffer.partners[k];
+					if (!assigned[j]) {
+						// The improvement of joining the two words.
+						double affinity = buffer.corrections[j]
+								- entropyTerm(topicSizes[next], topicSizes[j]);
+						if (!frontier.contains(j)) {
+							affinities[j] = affinity;
+							frontier.add(j);
+						} else if (affinity > affinities[j]) {
+							affinities[j] = affinity;
+							frontier.update(j);
+						}
+					}
+				}
+				next = frontier.peek();
+				if (next != -1) {
+					frontier.remove(next);
+				}
+			}
+			frontier.clear();
+			nAssigned += block.size();
+			if (block.size() < blockSize / 2) {
+				if (packed.size() + block.size() > blockSize) {
+					result.add(packed.toArray());
+					packed.clear();
+				}
+				packed.addAll(block);
+			} else {
+				result.add(block.toArray());
+			}
+			solutionListener.initalizing(((double) nAssigned) / maxTopics);
+		}
+		if (!packed.isEmpty()) {
+			result.add(packed.toArray());
+		}
+		int[][] blocks = result.toArray(new int[result.size()][]);
+		for (int[] block : blocks) {
+			Arrays.sort(block);
+		}
+		return blocks;
+	}
+
+	@Override
+	protected void groupTopics(TGSolutionListener<T> solutionListener) {
+		if (blocks != null) {
+			groupBlocks(solutionListener);
+			blocks = null;
+		}
+		// Joins of blocks that stopped early still get replayed above, as
+		// their frequencies per document are joined already.
+		if (nTopics[0] > minTopics && !isStopRequested()) {
+			SubsetGrouper grouper = new SubsetGrouper(
+					liveTopics.toSortedArray(), pool != null);
+			// Level 1 may have left all initial topics as they are.
+			grouper.initCandidates(nTopics[0] == maxTopics);
+			releaseDocumentTopicIndex();
+			grouper.group(minTopics, solutionListener);
+			pairComputations += grouper.pairComputations;
+		}
+	}
+
+	// Level 1. The blocks are grouped independently, then their joins are
+	// replayed in the order of a grouping that only allows joins within
+	// blocks: Every step takes the block whose next join comes first like a
+	// join candidate.
+	protected void groupBlocks(TGSolutionListener<T> solutionListener) {
+		final List<SubsetGrouper> groupers = new ArrayList<SubsetGrouper>();
+		if (pool == null) {
+			for (int[] block : blocks) {
+				groupers.add(groupBlock(block));
+			}
+		} else {
+			List<Callable<SubsetGrouper>> tasks = new ArrayList<Callable<SubsetGrouper>>();
+			for (final int[] block : blocks) {
+				tasks.add(new Callable<SubsetGrouper>() {
+					@Override
+					public SubsetGrouper call() {
+						return groupBlock(block);
+					}
+				});
+			}
+			try {
+				for (Future<SubsetGrouper> future : pool.invokeAll(tasks)) {
+					groupers.add(future.get());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		// Position of the next join to replay per block.
+		final int[] next = new int[groupers.size()];
+		IndexedTopicHeap heap = new IndexedTopicHeap(groupers.size()) {
+			@Override
+			protected int compare(int block1, int block2) {
+				SubsetGrouper grouper1 = groupers.get(block1);
+				SubsetGrouper grouper2 = groupers.get(block2);
+				double improvement1 = grouper1.joinImprovements
+						.get(next[block1]);
+				double improvement2 = grouper2.joinImprovements
+						.get(next[block2]);
+				if (improvement1 == improvement2) {
+					return grouper1.joined1.get(next[block1])
+							- grouper2.joined1.get(next[block2]);
+				}
+				return improvement1 > improvement2 ? -1 : 1;
+			}
+		};
+		for (int b = 0; b < groupers.size(); b++) {
+			if (!groupers.get(b).joined1.isEmpty()) {
+				heap.add(b);
+			}
+			pairComputations += groupers.get(b).pairComputations;
+		}
+		while (heap.size() > 0) {
+			int b = heap.peek();
+			SubsetGrouper grouper = groupers.get(b);
+			int k = next[b]++;
+			joinTopics(grouper.joined1.get(k), grouper.joined2.get(k),
+					grouper.joinLogLikelihoods.get(k),
+					grouper.joinImprovements.get(k), solutionListener);
+			if (next[b] < grouper.joined1.size()) {
+				heap.update(b);
+			} else {
+				heap.remove(b);
+			}
+		}
+	}
+
+	private SubsetGrouper groupBlock(int[] block) {
+		// Enough topics per block to reach minTopics in total.
+		int target = Math.min(block.length, Math.max(blockTopics,
+				(int) ((((long) minTopics) * block.length + maxTopics - 1) / maxTopics)));
+		SubsetGrouper grouper = new SubsetGrouper(block, false);
+		grouper.initCandidates(true);
+		grouper.group(target, null);
+		return grouper;
+	}
+
+	// Joins topic j into topic i once their frequencies per document have
+	// been joined already (by a SubsetGrouper).
+	protected void joinTopics(int i, int j, double logLikelihood,
+			double improvement, TGSolutionListener<T> solutionListener) {
+		int t1Size = topicSizes[i];
+		int t2Size = topicSizes[j];
+		topics[i].addAll(topics[j]);
+		topicUnionFind.union(j, i);
+		topicSizes[i] += t2Size;
+		sumWordFrTimesLogWordFrByTopic[i] += sumWordFrTimesLogWordFrByTopic[j];
+		totalLogLikelihood -= topicLogLikelihoods[i];
+		topicLogLikelihoods[i] = logLikelihood;
+		totalLogLikelihood += topicLogLikelihoods[i];
+		topics[j] = null;
+		releaseTopicFrequencies(j);
+		removeLiveTopic(j);
+		totalLogLikelihood -= topicLogLikelihoods[j];
+		topicLogLikelihoods[j] = 0;
+		topicSizes[j] = 0;
+
+		nTopics[0]--;
+
+		solutionListener.updatedSolution(i, j, improvement, t1Size, t2Size,
+				solution);
+	}
+
+	/**
+	 * Exact grouping of a subset of the topics in the join order of
+	 * LowMemTopicGrouper, with deferred join candidate updates and pruned
+	 * rescans as there. It keeps its own copies of the topic sizes and
+	 * likelihoods but joins the frequencies per document of its topics in
+	 * place. The joins are either applied right away or recorded for a later
+	 * replay via joinTopics().
+	 */
+	protected class SubsetGrouper {
+		// Global topic ids in ascending order, so that local indices break
+		// ties like global ids.
+		private final int[] ids;
+		private final int[] sizes;
+		private final double[] sumWordFrTimesLogWordFr;
+		private final double[] logLikelihoods;
+		// Best join candidate per local topic. A partner of -1 with a finite
+		// improvement marks an invalid candidate, the improvement is then an
+		// upper bound of the one of the best candidate.
+		private final int[] partners;
+		private final double[] partnerLogLikelihoods;
+		private final double[] improvements;
+		private final LiveTopicIndex live;
+		private final double[] row;
+		private final double[] bounds;
+		private final boolean parallel;
+		private long pairComputations;
+
+		// Recorded joins (global ids) when not applied right away.
+		private final TIntArrayList joined1;
+		private final TIntArrayList joined2;
+		private final TDoubleArrayList joinLogLikelihoods;
+		private final TDoubleArrayList joinImprovements;
+
+		public SubsetGrouper(int[] ids, boolean parallel) {
+			this.ids = ids;
+			this.parallel = parallel;
+			int n = ids.length;
+			sizes = new int[n];
+			sumWordFrTimesLogWordFr = new double[n];
+			logLikelihoods = new double[n];
+			partners = new int[n];
+			partnerLogLikelihoods = new double[n];
+			improvements = new double[n];
+			live = new LiveTopicIndex(n);
+			row = new double[n];
+			bounds = new double[n];
+			for (int a = 0; a < n; a++) {
+				sizes[a] = topicSizes[ids[a]];
+				sumWordFrTimesLogWordFr[a] = sumWordFrTimesLogWordFrByTopic[ids[a]];
+				logLikelihoods[a] = topicLogLikelihoods[ids[a]];
+				live.add(a);
+			}
+			joined1 = new TIntArrayList();
+			joined2 = new TIntArrayList();
+			joinLogLikelihoods = new TDoubleArrayList();
+			joinImprovements = new TDoubleArrayList();
+		}
+
+		// For one word topics (words == true), the pairs are computed once
+		// like in the initialization of LowMemTopicGrouper, otherwise every
+		// topic gets rescanned.
+		public void initCandidates(boolean words) {
+			int n = ids.length;
+			Arrays.fill(partners, -1);
+			Arrays.fill(improvements, Double.NEGATIVE_INFINITY);
+			if (!words) {
+				for (int a = 0; a < n; a++) {
+					rescan(a);
+				}
+				return;
+			}
+			CooccurrenceBuffer buffer = isSparseInitialization() ? new CooccurrenceBuffer()
+					: null;
+			for (int a = 0; a < n; a++) {
+				int i = ids[a];
+				if (buffer != null) {
+					computeCooccurrences(i, buffer);
+				}
+				for (int b = a + 1; b < n; b++) {
+					int j = ids[b];
+					double logLikelihood = buffer != null ? computeSparseTwoWordLogLikelihood(
+							i, j, buffer.isPartner(i, j) ? buffer.corrections[j]
+									: 0) : computeTwoWordLogLikelihood(i, j,
+							topics[i].get(0), topics[j].get(0));
+					double improvement = logLikelihood - logLikelihoods[a]
+							- logLikelihoods[b];
+					offer(a, b, logLikelihood, improvement);
+					offer(b, a, logLikelihood, improvement);
+				}
+			}
+			pairComputations += ((long) n) * (n - 1) / 2;
+		}
+
+		private void offer(int a, int b, double logLikelihood,
+				double improvement) {
+			if (improvement > improvements[a]
+					|| (improvement == improvements[a] && b < partners[a])) {
+				partners[a] = b;
+				partnerLogLikelihoods[a] = logLikelihood;
+				improvements[a] = improvement;
+			}
+		}
+
+		// Same as computeTwoTopicLogLikelihood() on the local copies.
+		private double computePairLogLikelihood(int a, int b) {
+			double sum = computeTwoTopicLogLikelihoodHelp(
+					topicFrequencyPerDocuments[ids[a]],
+					topicFrequencyPerDocuments[ids[b]], 1);
+			sum += sumWordFrTimesLogWordFr[a] + sumWordFrTimesLogWordFr[b];
+			int sizeSum = sizes[a] + sizes[b];
+			sum -= LogTable.xLogX(sizeSum);
+			return sum;
+		}
+
+		// Same as computeTwoTopicLogLikelihood(topic1, topic2, minLikelihood)
+		// on the local copies.
+		private double computePairLogLikelihood(int a, int b,
+				double minLikelihood) {
+			int sizeSum = sizes[a] + sizes[b];
+			double sizeTerm = LogTable.xLogX(sizeSum);
+			double sum = computeTwoTopicLogLikelihoodHelp(
+					topicFrequencyPerDocuments[ids[a]],
+					topicFrequencyPerDocuments[ids[b]], minLikelihood
+							- sumWordFrTimesLogWordFr[a]
+							- sumWordFrTimesLogWordFr[b] + sizeTerm);
+			if (sum == Double.NEGATIVE_INFINITY) {
+				return sum;
+			}
+			sum += sumWordFrTimesLogWordFr[a] + sumWordFrTimesLogWordFr[b];
+			sum -= sizeTerm;
+			return sum;
+		}
+
+		// Joins until targetTopics are left. With a listener the joins are
+		// applied via joinTopics() right away, otherwise they are recorded.
+		public void group(int targetTopics,
+				TGSolutionListener<T> solutionListener) {
+			while (live.size() > targetTopics && !isStopRequested()) {
+				// Best join candidate, ties go to the lowest topic.
+				int a = -1;
+				for (int k = 0; k < live.size(); k++) {
+					int t = live.get(k);
+					if (improvements[t] != Double.NEGATIVE_INFINITY
+							&& (a == -1 || improvements[t] > improvements[a] || (improvements[t] == improvements[a] && t < a))) {
+						a = t;
+					}
+				}
+				if (a == -1) {
+					return;
+				}
+				if (partners[a] == -1) {
+					rescan(a);
+					continue;
+				}
+				int b = partners[a];
+				double logLikelihood = partnerLogLikelihoods[a];
+				double improvement = improvements[a];
+				topicFrequencyPerDocuments[ids[a]]
+						.addAll(topicFrequencyPerDocuments[ids[b]]);
+				sizes[a] += sizes[b];
+				sumWordFrTimesLogWordFr[a] += sumWordFrTimesLogWordFr[b];
+				logLikelihoods[a] = logLikelihood;
+				live.remove(b);
+				partners[b] = -1;
+				improvements[b] = Double.NEGATIVE_INFINITY;
+				if (solutionListener != null) {
+					joinTopics(ids[a], ids[b], logLikelihood, improvement,
+							solutionListener);
+					checkpointIfDue();
+				} else {
+					joined1.add(ids[a]);
+					joined2.add(ids[b]);
+					joinLogLikelihoods.add(logLikelihood);
+					joinImprovements.add(improvement);
+				}
+				updateCandidates(a, b);
+			}
+		}
+
+		// Same rules as LowMemTopicGrouper.updateJoinCandidates() with
+		// deferred updates.
+		private void updateCandidates(final int a, int b) {
+			pairComputations += sumOverRanges(live.size(), new RangeTask() {
+				@Override
+				public int compute(int start, int end) {
+					int n = 0;
+					for (int k = start; k < end; k++) {
+						int t = live.get(k);
+						if (t != a) {
+							row[t] = computePairLogLikelihood(a, t);
+							n++;
+						}
+					}
+					return n;
+				}
+			});
+			partners[a] = -1;
+			improvements[a] = Double.NEGATIVE_INFINITY;
+			for (int k = 0; k < live.size(); k++) {
+				int t = live.get(k);
+				if (t == a) {
+					continue;
+				}
+				offer(a, t, row[t], row[t] - logLikelihoods[a]
+						- logLikelihoods[t]);
+				double improvement = row[t] - logLikelihoods[t]
+						- logLikelihoods[a];
+				if (improvement > improvements[t]
+						|| (improvement == improvements[t] && a < partners[t])) {
+					partners[t] = a;
+					partnerLogLikelihoods[t] = row[t];
+					improvements[t] = improvement;
+				} else if (partners[t] == a || partners[t] == b) {
+					// Invalid, the improvement stays as an upper bound.
+					partners[t] = -1;
+				}
+			}
+		}
+
+		// Recomputes the best join candidate of topic a, skipping partners
+		// like LowMemTopicGrouper.computeCandidateTwoTopicLogLikelihoods().
+		private void rescan(final int a) {
+			int seed = -1;
+			int n = 0;
+			for (int k = 0; k < live.size(); k++) {
+				int t = live.get(k);
+				if (t != a) {
+					bounds[t] = computeImprovementBound(
+							topicFrequencyPerDocuments[ids[a]], sizes[a],
+							topicFrequencyPerDocuments[ids[t]], sizes[t]);
+					if (seed == -1 || bounds[t] > bounds[seed]) {
+						seed = t;
+					}
+					n++;
+				}
+			}
+			partners[a] = -1;
+			improvements[a] = Double.NEGATIVE_INFINITY;
+			if (seed == -1) {
+				return;
+			}
+			row[seed] = computePairLogLikelihood(a, seed);
+			final int fSeed = seed;
+			final double seedImprovement = row[seed] - logLikelihoods[a]
+					- logLikelihoods[seed];
+			int pruned = sumOverRanges(live.size(), new RangeTask() {
+				@Override
+				public int compute(int start, int end) {
+					return rescan(a, fSeed, seedImprovement, start, end);
+				}
+			});
+			pairComputations += n - pruned;
+			for (int k = 0; k < live.size(); k++) {
+				int t = live.get(k);
+				if (t != a && row[t] != Double.NEGATIVE_INFINITY) {
+					offer(a, t, row[t], row[t] - logLikelihoods[a]
+							- logLikelihoods[t]);
+				}
+			}
+		}
+
+		// Sets row[t] for the topics at positions start to end - 1 in live or
+		// Double.NEGATIVE_INFINITY if t cannot be the best partner. Returns
+		// the number of such pruned partners.
+		private int rescan(int a, int seed, double bestImprovement,
+				int start, int end) {
+			int pruned = 0;
+			for (int p = start; p < end; p++) {
+				int t = live.get(p);
+				if (t == a || t == seed) {
+					continue;
+				}
+				double base = logLikelihoods[a] + logLikelihoods[t];
+				int sizeSum = sizes[a] + sizes[t];
+				double threshold = bestImprovement
+						- PRUNE_TOLERANCE
+						* (Math.abs(base) + Math.abs(bestImprovement) + LogTable
+								.xLogX(sizeSum));
+				row[t] = bounds[t] < threshold ? Double.NEGATIVE_INFINITY
+						: computePairLogLikelihood(a, t, threshold + base);
+				if (row[t] == Double.NEGATIVE_INFINITY) {
+					pruned++;
+				} else {
+					bestImprovement = Math.max(bestImprovement, row[t]
+							- logLikelihoods[a] - logLikelihoods[t]);
+				}
+			}
+			return pruned;
+		}
+
+		// Splits 0 to n - 1 into ranges that run in the pool if the grouper is
+		// parallel and there are enough topics, otherwise directly.
+		private int sumOverRanges(int n, final RangeTask task) {
+			if (!parallel || pool == null
+					|| live.size() < MIN_TOPICS_FOR_PARALLEL_ROWS || n < 2) {
+				return task.compute(0, n);
+			}
+			int nTasks = Math.min(n, parallelBlocks * 4);
+			List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(
+					nTasks);
+			for (int k = 0; k < nTasks; k++) {
+				final int start = (int) (((long) n) * k / nTasks);
+				final int end = (int) (((long) n) * (k + 1) / nTasks);
+				tasks.add(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						return task.compute(start, end);
+					}
+				});
+			}
+			int sum = 0;
+			try {
+				for (Future<Integer> future : pool.invokeAll(tasks)) {
+					sum += future.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+			return sum;
+		}
+	}
+
+	private interface RangeTask {
+		// Runs over the indices start to end - 1 and returns a count to be
+		// summed up over all ranges.
+		int compute(int start, int end);
+	}
+
+	// Checkpoints are only written on level 2, where the joins depend on
+	// nothing but the topics. So there is no solver state to save.
+	@Override
+	protected CheckpointSnapshot createSolverSnapshot() {
+		final long pairComputations = this.pairComputations;
+		final int numberOfBlocks = this.numberOfBlocks;
+		return new CheckpointSnapshot() {
+			@Override
+			public void write(DataOutput out) throws IOException {
+				out.writeLong(pairComputations);
+				out.writeInt(numberOfBlocks);
+			}
+		};
+	}
+
+	@Override
+	protected void readSolverState(DataInput in) throws IOException {
+		pairComputations = in.readLong();
+		numberOfBlocks = in.readInt();
+		blocks = null;
+	}
+}
@@ -0,0 +1,237 @@
+package org.hhn.topicgrouper.tg.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sparse frequencies of a topic (or word) per document. Entries are kept as
+ * (document index, frequency) postings sorted by document index, only
+ * documents with a frequency > 0 are stored. So memory is proportional to the
+ * number of documents in which the topic occurs.
+ */
+public class DocFrequencies {
+	protected int[] docIndices;
+	protected int[] frequencies;
+	protected int size;
+	protected int maxFrequency;
+	// Frequencies of all documents by document index or null (see
+	// setDenseRow()).
+	protected int[] denseFrequencies;
+	private int denseMinSize;
+	private int denseLength;
+	// Number of dense rows that may still be created, shared by all topics
+	// (or null for no limit).
+	private AtomicInteger denseRowsLeft;
+
+	public DocFrequencies() {
+		this(4);
+	}
+
+	public DocFrequencies(int initialCapacity) {
+		docIndices = new int[initialCapacity];
+		frequencies = new int[initialCapacity];
+	}
+
+	// The arrays are taken over (not copied), document indices must be
+	// ascending and frequencies must be > 0.
+	public DocFrequencies(int[] docIndices, int[] frequencies) {
+		this.docIndices = docIndices;
+		this.frequencies = frequencies;
+		this.size = docIndices.length;
+		for (int i = 0; i < size; i++) {
+			maxFrequency = Math.max(maxFrequency, frequencies[i]);
+		}
+	}
+
+	// For subclasses that keep the entries elsewhere.
+	protected DocFrequencies(int size, int maxFrequency) {
+		this.size = size;
+		this.maxFrequency = maxFrequency;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getDocIndex(int pos) {
+		return docIndices[pos];
+	}
+
+	public int getFrequency(int pos) {
+		return frequencies[pos];
+	}
+
+	// The largest frequency in any document.
+	public int getMaxFrequency() {
+		return maxFrequency;
+	}
+
+	// The dense row if there is one, otherwise null.
+	public int[] getDenseFrequencies() {
+		return denseFrequencies;
+	}
+
+	// Once there are at least minSize entries, the frequencies are also kept
+	// in a dense row of the given length (the number of documents). 0 means
+	// never.
+	public void setDenseRow(int minSize, int length) {
+		setDenseRow(minSize, length, null);
+	}
+
+	// Like setDenseRow(int, int) but a row is only created if rowsLeft is
+	// still > 0, which then gets decremented (and incremented again by
+	// release()). Without a row, creating one is tried again on each change.
+	public void setDenseRow(int minSize, int length, AtomicInteger rowsLeft) {
+		denseMinSize = minSize;
+		denseLength = length;
+		denseRowsLeft = rowsLeft;
+		updateDenseRow();
+	}
+
+	private void updateDenseRow() {
+		if (denseFrequencies == null && denseMinSize > 0
+				&& size >= denseMinSize && takeDenseRow()) {
+			denseFrequencies = new int[denseLength];
+			for (int i = 0; i < size; i++) {
+				denseFrequencies[docIndices[i]] = frequencies[i];
+			}
+		}
+	}
+
+	private boolean takeDenseRow() {
+		if (denseRowsLeft == null) {
+			return true;
+		}
+		int left;
+		do {
+			left = denseRowsLeft.get();
+			if (left <= 0) {
+				return false;
+			}
+		} while (!denseRowsLeft.compareAndSet(left, left - 1));
+		return true;
+	}
+
+	// Returns the frequency for the document or 0 if there is no entry.
+	public int get(int docIndex) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midDocIndex = docIndices[mid];
+			if (midDocIndex < docIndex) {
+				low = mid + 1;
+			} else if (midDocIndex > docIndex) {
+				high = mid - 1;
+			} else {
+				return frequencies[mid];
+			}
+		}
+		return 0;
+	}
+
+	// Appends an entry, the document index must be larger than all the
+	// document indices added so far.
+	public void add(int docIndex, int frequency) {
+		if (size > 0 && docIndices[size - 1] >= docIndex) {
+			throw new IllegalArgumentException("document index " + docIndex
+					+ " is not in ascending order");
+		}
+		if (frequency == 0) {
+			return;
+		}
+		if (size == docIndices.length) {
+			int newCapacity = Math.max(4, size + (size >> 1));
+			docIndices = Arrays.copyOf(docIndices, newCapacity);
+			frequencies = Arrays.copyOf(frequencies, newCapacity);
+		}
+		docIndices[size] = docIndex;
+		frequencies[size] = frequency;
+		size++;
+		maxFrequency = Math.max(maxFrequency, frequency);
+		if (denseFrequencies != null) {
+			denseFrequencies[docIndex] = frequency;
+		} else {
+			updateDenseRow();
+		}
+	}
+
+	// Adds the frequencies of other to this (as needed when joining two
+	// topics).
+	public void addAll(DocFrequencies other) {
+		merge(other, 1);
+	}
+
+	// Subtracts the frequencies of other from this. Entries that become 0 are
+	// removed.
+	public void removeAll(DocFrequencies other) {
+		merge(other, -1);
+	}
+
+	// Returns a copy that is not affected by later changes of this. Merges
+	// never write into the current arrays but replace them, so the arrays are
+	// shared unless add() may still write into them.
+	public DocFrequencies snapshot() {
+		if (size == docIndices.length) {
+			return new DocFrequencies(docIndices, frequencies);
+		}
+		return new DocFrequencies(Arrays.copyOf(docIndices, size),
+				Arrays.copyOf(frequencies, size));
+	}
+
+	// Frees storage outside of the heap (if any) and gives back the dense
+	// row. This must not be used afterwards.
+	public void release() {
+		if (denseFrequencies != null) {
+			denseFrequencies = null;
+			if (denseRowsLeft != null) {
+				denseRowsLeft.incrementAndGet();
+			}
+		}
+	}
+
+	protected void merge(DocFrequencies other, int sign) {
+		int[] newDocIndices = new int[size + other.size];
+		int[] newFrequencies = new int[size + other.size];
+		int newSize = 0;
+		int newMaxFrequency = 0;
+		int p1 = 0, p2 = 0;
+		while (p1 < size || p2 < other.size) {
+			int docIndex;
+			int fr;
+			if (p2 == other.size
+					|| (p1 < size && docIndices[p1] < other.docIndices[p2])) {
+				docIndex = docIndices[p1];
+				fr = frequencies[p1++];
+			} else if (p1 == size || other.docIndices[p2] < docIndices[p1]) {
+				docIndex = other.docIndices[p2];
+				fr = sign * other.frequencies[p2++];
+			} else {
+				docIndex = docIndices[p1];
+				fr = frequencies[p1++] + sign * other.frequencies[p2++];
+			}
+			if (fr != 0) {
+				newDocIndices[newSize] = docIndex;
+				newFrequencies[newSize] = fr;
+				newSize++;
+				newMaxFrequency = Math.max(newMaxFrequency, fr);
+			}
+		}
+		if (newSize < newDocIndices.length) {
+			newDocIndices = Arrays.copyOf(newDocIndices, newSize);
+			newFrequencies = Arrays.copyOf(newFrequencies, newSize);
+		}
+		docIndices = newDocIndices;
+		frequencies = newFrequencies;
+		size = newSize;
+		maxFrequency = newMaxFrequency;
+		if (denseFrequencies != null) {
+			for (int i = 0; i < other.size; i++) {
+				denseFrequencies[other.docIndices[i]] += sign
+						* other.frequencies[i];
+			}
+		} else {
+			updateDenseRow();
+		}
+	}
+}
@@ -1,45 +1,110 @@
 package org.hhn.topicgrouper.tg.impl;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+
 import org.hhn.topicgrouper.doc.DocumentProvider;
 import org.hhn.topicgrouper.tg.TGSolutionListener;
 
 public class EHACTopicGrouper<T> extends AbstractTopicGrouper<T> {
-	protected final MyPriorityQueue<JoinCandidate>[] allJcs;
-	protected final JoinCandidate[] jcSafe;
+	// Join candidates are stored as primitives (partner and improvement) per
+	// topic. The log likelihood of a join is only recomputed for the best
+	// candidate, see getBestJoinCandidate().
+	protected final JoinCandidateQueue[] allJcs;
+	protected final JoinCandidate bestJc;
+	// Orders topics by the head of their join candidate queue.
+	protected final IndexedTopicHeap topicHeap;
+
+	private boolean keyedJCQueues;
 
-	@SuppressWarnings("unchecked")
 	public EHACTopicGrouper(int minWordFrequency,
 			DocumentProvider<T> documentProvider, int minTopics) {
-		super(minWordFrequency, documentProvider, minTopics);
-		allJcs = new MyPriorityQueue[maxTopics];
-		jcSafe = new JoinCandidate[maxTopics];
+		this(minWordFrequency, documentProvider, minTopics, null);
+	}
+
+	// See AbstractTopicGrouper for memory mapped storage.
+	public EHACTopicGrouper(int minWordFrequency,
+			DocumentProvider<T> documentProvider, int minTopics,
+			File mappedStorageDirectory) {
+		super(minWordFrequency, documentProvider, minTopics,
+				mappedStorageDirectory);
+		allJcs = new JoinCandidateQueue[maxTopics];
+		bestJc = new JoinCandidate();
+		topicHeap = new IndexedTopicHeap(maxTopics) {
+			@Override
+			protected int compare(int topic1, int topic2) {
+				return compareBestJoinCandidates(topic1, topic2);
+			}
+		};
+	}
+
+	protected int compareBestJoinCandidates(int topic1, int topic2) {
+		JoinCandidateQueue q1 = allJcs[topic1];
+		JoinCandidateQueue q2 = allJcs[topic2];
+		if (q1.isEmpty()) {
+			return q2.isEmpty() ? topic1 - topic2 : 1;
+		}
+		if (q2.isEmpty()) {
+			return -1;
+		}
+		// Same as JoinCandidate.compareTo(o, i, oi).
+		double improvement1 = q1.peekImprovement();
+		double improvement2 = q2.peekImprovement();
+		if (improvement1 == improvement2) {
+			return topic1 - topic2;
+		}
+		return improvement1 > improvement2 ? -1 : 1;
+	}
+
+	/**
+	 * If set, each join candidate queue keeps an index from partner topic to
+	 * heap position. Removing and updating candidates in a merge step then
+	 * takes O(log maxTopics) instead of a linear scan of the queue, but needs 4
+	 * more bytes per join candidate. Must be set before solving.
+	 */
+	public void setKeyedJCQueues(boolean keyedJCQueues) {
+		this.keyedJCQueues = keyedJCQueues;
+	}
+
+	public boolean isKeyedJCQueues() {
+		return keyedJCQueues;
+	}
+
+	protected JoinCandidateQueue createJoinCandidateQueue(int capacity) {
+		return keyedJCQueues ? new KeyedJoinCandidateQueue(capacity, maxTopics)
+				: new JoinCandidateQueue(capacity);
 	}
 
-	// Produces a huge memory footprint by creating so many jcs...
+	// Still has a memory footprint of O(maxTopics^2), but only 12 bytes per
+	// join candidate.
 	protected void createInitialJoinCandidates(
 			TGSolutionListener<T> solutionListener) {
 		int initMax = maxTopics * (maxTopics - 1) / 2;
 		int initCounter = 0;
 
 		for (int i = 0; i < maxTopics; i++) {
-			allJcs[i] = new MyPriorityQueue<JoinCandidate>(maxTopics - 1);
+			allJcs[i] = createJoinCandidateQueue(maxTopics - 1);
+		}
+
+		if (isSparseInitialization()) {
+			createSparseInitialJoinCandidates(solutionListener);
+			return;
 		}
 
 		for (int i = 0; i < maxTopics; i++) {
+			if (isStopRequested()) {
+				return;
+			}
 			for (int j = i + 1; j < maxTopics; j++) {
 				double newLogLikelihood = computeTwoWordLogLikelihood(i, j,
 						topics[i].get(0), topics[j].get(0));
 
-				double newImprovement = newLogLikelihood
-						- topicLogLikelihoods[i] - topicLogLikelihoods[j];
+				double newImprovement = improvement(i, j, newLogLikelihood);
 
-				JoinCandidate a = new JoinCandidate(j, newLogLikelihood,
-						newImprovement);
-				allJcs[i].add(a);
-
-				JoinCandidate b = new JoinCandidate(i, newLogLikelihood,
-						newImprovement);
-				allJcs[j].add(b);
+				allJcs[i].add(j, newImprovement);
+				allJcs[j].add(i, newImprovement);
 
 				initCounter++;
 				if (initCounter % 100000 == 0) {
@@ -48,21 +113,56 @@ public class EHACTopicGrouper<T> extends AbstractTopicGrouper<T> {
 				}
 			}
 		}
+		for (int i = 0; i < maxTopics; i++) {
+			topicHeap.add(i);
+		}
+	}
+
+	// All pairs still go into the queues, but only co-occurring pairs need
+	// a correction. The others are computed in closed form.
+	protected void createSparseInitialJoinCandidates(
+			TGSolutionListener<T> solutionListener) {
+		createDocumentTopicIndex();
+		CooccurrenceBuffer buffer = new CooccurrenceBuffer();
+		for (int i = 0; i < maxTopics; i++) {
+			if (isStopRequested()) {
+				return;
+			}
+			computeCooccurrences(i, buffer);
+			for (int j = i + 1; j < maxTopics; j++) {
+				double newLogLikelihood = computeSparseTwoWordLogLikelihood(i,
+						j, buffer.isPartner(i, j) ? buffer.corrections[j] : 0);
+
+				double newImprovement = improvement(i, j, newLogLikelihood);
+
+				allJcs[i].add(j, newImprovement);
+				allJcs[j].add(i, newImprovement);
+			}
+			if ((i + 1) % 1000 == 0) {
+				solutionListener.initalizing(((double) i + 1) / maxTopics);
+			}
+		}
+		releaseDocumentTopicIndex();
+		for (int i = 0; i < maxTopics; i++) {
+			topicHeap.add(i);
+		}
 	}
 
 	// This grouping avoids the generation of new objects cause memory is scarce
 	// and the gc would get too "stressed".
 	protected void groupTopics(TGSolutionListener<T> solutionListener) {
-		nTopics[0] = maxTopics;
 		int[] jcia = new int[1];
-		while (nTopics[0] > minTopics) {
+		while (nTopics[0] > minTopics && !isStopRequested()) {
 			JoinCandidate jc = getBestJoinCandidate(jcia);
 			int jci = jcia[0];
+			// Both topics get reinserted or dropped after the join.
+			topicHeap.remove(jci);
+			topicHeap.remove(jc.j);
 			int tSizeI = topicSizes[jci];
 			int tSizeJ = topicSizes[jc.j];
 
 			// Join the topics at position jc.i
-			totalLogLikelihood += (jc.logLikelihood - topicLogLikelihoods[jci] - topicLogLikelihoods[jc.j]);
+			totalLogLikelihood += jc.improvement;
 
 			topics[jci].addAll(topics[jc.j]);
 			topicUnionFind.union(jc.j, jci);
@@ -71,13 +171,12 @@ public class EHACTopicGrouper<T> extends AbstractTopicGrouper<T> {
 
 			// Compute likelihood for joined topic
 			topicLogLikelihoods[jci] = jc.logLikelihood;
-			int[] a = topicFrequencyPerDocuments[jci];
-			int[] b = topicFrequencyPerDocuments[jc.j];
-			for (int i = 0; i < a.length; i++) {
-				a[i] += b[i];
-			}
+			topicFrequencyPerDocuments[jci]
+					.addAll(topicFrequencyPerDocuments[jc.j]);
 			// Topic at position jc.j is gone
 			topics[jc.j] = null;
+			releaseTopicFrequencies(jc.j);
+			removeLiveTopic(jc.j);
 			allJcs[jc.j] = null;
 			topicLogLikelihoods[jc.j] = 0;
 			topicSizes[jc.j] = 0;
@@ -87,59 +186,109 @@ public class EHACTopicGrouper<T> extends AbstractTopicGrouper<T> {
 			solutionListener.updatedSolution(jci, jc.j, jc.improvement, tSizeI,
 					tSizeJ, solution);
 
-			// Enabl reuse of jc objects by saving them first.
-			allJcs[jci].toArray(jcSafe);
 			allJcs[jci].clear();
-			int nextO = 0;
-
-			for (int j = 0; j < maxTopics; j++) {
-				if (j != jci && topics[j] != null) {
-					double newLikelihood = computeTwoTopicLogLikelihood(jci, j);
-					double newImprovement = newLikelihood
-							- topicLogLikelihoods[jci] - topicLogLikelihoods[j];
-
-					// Used an old but saved object.
-					JoinCandidate jc2 = jcSafe[nextO++];
-					jc2.init(j, newLikelihood, newImprovement);
-					allJcs[jci].offer(jc2);
-
-					Object[] otherQueue = allJcs[j].queue;
-					int otherQueueSize = allJcs[j].size();
-					for (int i = 0; i < otherQueueSize; i++) {
-						JoinCandidate jc3 = (JoinCandidate) otherQueue[i];
-						if (jc3.j == jc.j) {
-							allJcs[j].removeAt(i);
-							break;
-						}
-					}
-					otherQueueSize--;
-					for (int i = 0; i < otherQueueSize; i++) {
-						JoinCandidate jc3 = (JoinCandidate) otherQueue[i];
-						if (jc3.j == jci) {
-							allJcs[j].removeAt(i);
-							// Reuse the object that just got removed.
-							jc3.init(jci, newLikelihood, newImprovement);
-							allJcs[j].offer(jc3);
-							break;
-						}
+			for (int k = 0; k < liveTopics.size(); k++) {
+				int j = liveTopics.get(k);
+				if (j != jci) {
+					double newLikelihood = computePairLogLikelihood(jci, j);
+					double newImprovement = improvement(jci, j, newLikelihood);
+
+					allJcs[jci].add(j, newImprovement);
+
+					// Only the position of topic j in the topic heap needs an
+					// update when the head of its queue changes.
+					JoinCandidateQueue otherQueue = allJcs[j];
+					int headPartner = otherQueue.peekPartner();
+					double headImprovement = otherQueue.peekImprovement();
+
+					otherQueue.remove(jc.j);
+					otherQueue.update(jci, newImprovement);
+
+					if (otherQueue.peekPartner() != headPartner
+							|| otherQueue.peekImprovement() != headImprovement) {
+						topicHeap.update(j);
 					}
 				}
 			}
+			topicHeap.add(jci);
+			checkpointIfDue();
 		}
 	}
 
+	// The queues only order the candidates. The improvement that gets
+	// reported and added to the total is derived from the recomputed
+	// likelihood, so it always matches the likelihood of the joined topic.
+	// It equals the queued improvement except after sparse initialization,
+	// whose closed form agrees with computeTwoTopicLogLikelihood() only up to
+	// rounding.
 	protected JoinCandidate getBestJoinCandidate(int[] ia) {
-		JoinCandidate best = null;
-		for (int i = 0; i < topics.length; i++) {
-			if (allJcs[i] != null) {
-				JoinCandidate jc = allJcs[i].peek();
-				if (best == null || best.compareTo(jc, ia[0], i) > 0) {
-					best = jc;
-					ia[0] = i;
+		ia[0] = topicHeap.peek();
+		JoinCandidateQueue queue = allJcs[ia[0]];
+		int j = queue.peekPartner();
+		double logLikelihood = computePairLogLikelihood(ia[0], j);
+		bestJc.init(j, logLikelihood, improvement(ia[0], j, logLikelihood));
+		queue.poll();
+		return bestJc;
+	}
+
+	// The queues are copied as they are. That temporarily doubles the memory
+	// for join candidates, but recomputing them on resume would cost as much
+	// as the initialization. The order in queues and in topicHeap is total, so
+	// rebuilding them continues with exactly the same merges.
+	@Override
+	protected CheckpointSnapshot createSolverSnapshot() {
+		final int[][] partners = new int[maxTopics][];
+		final double[][] improvements = new double[maxTopics][];
+		for (int i = 0; i < maxTopics; i++) {
+			JoinCandidateQueue queue = allJcs[i];
+			if (queue != null) {
+				partners[i] = new int[queue.size()];
+				improvements[i] = new double[queue.size()];
+				queue.getPartners(partners[i]);
+				queue.getImprovements(improvements[i]);
+			}
+		}
+		return new CheckpointSnapshot() {
+			@Override
+			public void write(DataOutput out) throws IOException {
+				for (int i = 0; i < maxTopics; i++) {
+					out.writeBoolean(partners[i] != null);
+					if (partners[i] != null) {
+						CheckpointIO.writeVarInts(out, partners[i],
+								partners[i].length);
+						for (int k = 0; k < improvements[i].length; k++) {
+							out.writeDouble(improvements[i][k]);
+						}
+					}
 				}
 			}
+		};
+	}
+
+	@Override
+	protected void readSolverState(DataInput in) throws IOException {
+		topicHeap.clear();
+		for (int i = 0; i < maxTopics; i++) {
+			if (in.readBoolean()) {
+				int[] partners = CheckpointIO.readVarInts(in);
+				allJcs[i] = createJoinCandidateQueue(maxTopics - 1);
+				for (int k = 0; k < partners.length; k++) {
+					allJcs[i].add(partners[k], in.readDouble());
+				}
+			} else {
+				allJcs[i] = null;
+			}
 		}
-		allJcs[ia[0]].poll();
-		return best;
+		for (int i = 0; i < maxTopics; i++) {
+			if (allJcs[i] != null) {
+				topicHeap.add(i);
+			}
+		}
+	}
+
+	// The topics in index order, like improvement().
+	protected double computePairLogLikelihood(int topic1, int topic2) {
+		return topic1 < topic2 ? computeTwoTopicLogLikelihood(topic1, topic2)
+				: computeTwoTopicLogLikelihood(topic2, topic1);
 	}
 }
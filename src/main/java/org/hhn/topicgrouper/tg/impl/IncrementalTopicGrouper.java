@@ -0,0 +1,430 @@
+package org.hhn.topicgrouper.tg.impl;
+
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+import org.hhn.topicgrouper.doc.Document;
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.tg.TGSolution;
+import org.hhn.topicgrouper.tg.TGSolutionListener;
+import org.hhn.topicgrouper.tg.report.MergeLogSolutionReporter;
+
+/**
+ * Topic grouper for a document provider that got new documents since a
+ * previous run whose merges were recorded via a
+ * {@link MergeLogSolutionReporter}. The documents of the previous run must be
+ * the first documents of the provider and must be unchanged, new documents
+ * are appended (as with DefaultDocumentProvider.addDocument()). The previous
+ * run must not have used homonym handling.
+ * <p>
+ * New documents only add terms to the likelihoods of topics with words in
+ * them (or in old documents whose size changed because a word now has the
+ * minimum frequency). Such topics are "affected", all other topics and all
+ * joins of them are the same as in the previous run. So instead of computing
+ * join candidates for all pairs of topics, only the candidates of affected
+ * topics are computed. Recorded merges get replayed as long as they are still
+ * the best choice:
+ * <ul>
+ * <li>A merge of two unaffected topics must not be beaten by the best
+ * candidate of an affected topic.
+ * <li>A merge involving an affected topic must be the best candidate of the
+ * affected topics and must be better than the recorded improvement, which
+ * bounds all joins of unaffected topics.
+ * </ul>
+ * At the first merge that cannot be confirmed, the candidates of unaffected
+ * topics are computed and grouping goes on like in
+ * {@link LowMemTopicGrouper}. With a tolerance of 0 the result is the same as
+ * for a run from scratch to the last bit: improvements do not depend on the
+ * order of the two topics (see {@link #improvement(int, int, double)}) and a
+ * replayed merge must be the one a run from scratch would pick among all
+ * joins with the same improvement (see
+ * {@link #findJoinFromScratch(double, MyJoinCandidate)}), otherwise it counts
+ * as a change. A positive tolerance also confirms merges whose improvement
+ * changed by less than the tolerance.
+ */
+public class IncrementalTopicGrouper<T> extends LowMemTopicGrouper<T> {
+	private final MergeLogSolutionReporter<T> previousRun;
+	private final boolean[] initiallyAffected;
+	private final int affectedDocuments;
+	private double tolerance;
+
+	private boolean[] affected;
+	private boolean replayDone;
+	private int replayedMerges;
+
+	public IncrementalTopicGrouper(int minWordFrequency,
+			DocumentProvider<T> documentProvider, int minTopics,
+			MergeLogSolutionReporter<T> previousRun) {
+		super(minWordFrequency, documentProvider, minTopics);
+		this.previousRun = previousRun;
+		if (previousRun.hasHomonyms()) {
+			throw new IllegalArgumentException(
+					"previous run used homonym handling");
+		}
+		int oldDocuments = previousRun.getDocuments();
+		if (oldDocuments > documents.size()) {
+			throw new IllegalArgumentException(
+					"previous run has more documents than the provider");
+		}
+		int[] oldWordFrs = new int[nWords];
+		for (int i = 0; i < oldDocuments; i++) {
+			Document<T> d = documents.get(i);
+			TIntIterator it = d.getWordIndices().iterator();
+			while (it.hasNext()) {
+				int wordIndex = it.next();
+				oldWordFrs[wordIndex] += d.getWordFrequency(wordIndex);
+			}
+		}
+		int oldTopics = 0;
+		for (int w = 0; w < nWords; w++) {
+			if (oldWordFrs[w] >= minWordFrequency) {
+				oldTopics++;
+			}
+		}
+		if (oldTopics != previousRun.getMaxTopics()) {
+			throw new IllegalArgumentException(
+					"previous run does not match the documents or the minimum word frequency");
+		}
+
+		// Documents whose terms in the likelihoods are new or changed.
+		boolean[] affectedDocs = new boolean[documents.size()];
+		int nAffectedDocs = 0;
+		for (int i = 0; i < documents.size(); i++) {
+			if (i >= oldDocuments) {
+				affectedDocs[i] = true;
+			} else {
+				Document<T> d = documents.get(i);
+				int oldSize = 0;
+				TIntIterator it = d.getWordIndices().iterator();
+				while (it.hasNext()) {
+					int wordIndex = it.next();
+					if (oldWordFrs[wordIndex] >= minWordFrequency) {
+						oldSize += d.getWordFrequency(wordIndex);
+					}
+				}
+				affectedDocs[i] = oldSize != documentSizes[i];
+			}
+			if (affectedDocs[i]) {
+				nAffectedDocs++;
+			}
+		}
+		affectedDocuments = nAffectedDocs;
+
+		initiallyAffected = new boolean[maxTopics];
+		for (int w = 0; w < nWords; w++) {
+			int topic = wordToInitialTopic[w];
+			if (topic != -1) {
+				for (int p = invertedIndex.getStart(w); p < invertedIndex
+						.getEnd(w); p++) {
+					if (affectedDocs[invertedIndex.getDocIndex(p)]) {
+						initiallyAffected[topic] = true;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Recorded merges whose improvement changed by less than the tolerance
+	 * compared to the competing joins still get replayed. 0 (the default)
+	 * means exact results.
+	 */
+	public void setTolerance(double tolerance) {
+		if (tolerance < 0) {
+			throw new IllegalArgumentException("tolerance must be >= 0");
+		}
+		this.tolerance = tolerance;
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	public TGSolution<T> getSolution() {
+		return solution;
+	}
+
+	public int getAffectedDocuments() {
+		return affectedDocuments;
+	}
+
+	// Number of initial topics with words in affected documents.
+	public int getAffectedTopics() {
+		int n = 0;
+		for (int i = 0; i < maxTopics; i++) {
+			if (initiallyAffected[i]) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	public int getReplayedMerges() {
+		return replayedMerges;
+	}
+
+	/**
+	 * Share of the two topic likelihood computations (see
+	 * {@link #getPairComputations()}) that were saved compared to a run with
+	 * the given number of computations. getPairComputations() of the previous
+	 * run is a close estimate for a run from scratch.
+	 */
+	public double getWorkSaved(long referencePairComputations) {
+		return referencePairComputations == 0 ? 0 : 1
+				- ((double) pairComputations) / referencePairComputations;
+	}
+
+	@Override
+	protected void createInitialJoinCandidates(
+			TGSolutionListener<T> solutionListener) {
+		affected = initiallyAffected.clone();
+		replayDone = false;
+		replayedMerges = 0;
+		pairComputations = 0;
+
+		int nAffected = getAffectedTopics();
+		int counter = 0;
+		for (int i = 0; i < maxTopics && !isStopRequested(); i++) {
+			if (affected[i]) {
+				jcs[i] = new MyJoinCandidate(i, -1, 0,
+						Double.NEGATIVE_INFINITY);
+				updateJoinCandidateForTopic(jcs[i]);
+				allJcs.add(i);
+				counter++;
+				solutionListener.initalizing(((double) counter) / nAffected);
+			}
+		}
+	}
+
+	@Override
+	protected void groupTopics(TGSolutionListener<T> solutionListener) {
+		if (!replayDone) {
+			replayMerges(solutionListener);
+			if (isStopRequested()) {
+				return;
+			}
+			if (nTopics[0] > minTopics) {
+				repairJoinCandidates();
+			}
+			replayDone = true;
+		}
+		super.groupTopics(solutionListener);
+	}
+
+	protected void replayMerges(TGSolutionListener<T> solutionListener) {
+		// Maps topics of the previous run to topics of this run.
+		int[] currentTopics = new int[previousRun.getMaxTopics()];
+		for (int i = 0; i < currentTopics.length; i++) {
+			currentTopics[i] = wordToInitialTopic[previousRun
+					.getInitialTopicWord(i)];
+		}
+		MyJoinCandidate jc = new MyJoinCandidate();
+		for (int k = 0; k < previousRun.size() && nTopics[0] > minTopics
+				&& !isStopRequested(); k++) {
+			int i = currentTopics[previousRun.getTopic1(k)];
+			int j = currentTopics[previousRun.getTopic2(k)];
+			double improvement = previousRun.getImprovement(k);
+			int best = peekValidJoinCandidate();
+			if (!affected[i] && !affected[j]) {
+				// The join is unchanged and no other join of unaffected topics
+				// was better, so only affected topics could beat it.
+				if (best != -1
+						&& jcs[best].improvement - improvement >= tolerance) {
+					break;
+				}
+				jc.init(i, j, previousRun.getLogLikelihood(k), improvement);
+			} else {
+				MyJoinCandidate bestJc = jcs[best];
+				if ((bestJc.i == i && bestJc.j == j)
+						|| (bestJc.i == j && bestJc.j == i)) {
+					findJoinFromScratch(bestJc.improvement, jc);
+					if (!((jc.i == i && jc.j == j) || (jc.i == j && jc.j == i))) {
+						// Another join with the same improvement.
+						break;
+					}
+				} else {
+					double logLikelihood = computeTwoTopicLogLikelihood(i, j);
+					pairComputations++;
+					jc.init(i, j, logLikelihood, improvement(i, j,
+							logLikelihood));
+					if (bestJc.improvement - jc.improvement >= tolerance) {
+						break;
+					}
+				}
+				if (improvement - jc.improvement >= tolerance) {
+					break;
+				}
+			}
+			joinTopics(jc, solutionListener);
+			currentTopics[previousRun.getTopic1(k)] = jc.i;
+			replayedMerges++;
+			mainLoopCount++;
+			updateAffectedJoinCandidates(jc.i, jc.j);
+		}
+	}
+
+	// The join a run from scratch would make if the best improvement is the
+	// given one, which must be the one at the head of allJcs. Such a run
+	// takes the lowest topic whose best join has that improvement and its
+	// lowest partner. Joins of two unaffected topics are worse (or the replay
+	// would have stopped), so every such topic is affected or the best
+	// partner of an affected topic.
+	protected void findJoinFromScratch(double improvement, MyJoinCandidate jc) {
+		int first = -1;
+		for (int k = 0; k < liveTopics.size(); k++) {
+			int t = liveTopics.get(k);
+			if (allJcs.contains(t) && jcs[t].improvement == improvement) {
+				if (jcs[t].j == -1) {
+					updateJoinCandidateForTopic(jcs[t]);
+					allJcs.update(t);
+					if (jcs[t].improvement != improvement) {
+						continue;
+					}
+				}
+				int lower = Math.min(t, jcs[t].j);
+				if (first == -1 || lower < first) {
+					first = lower;
+				}
+			}
+		}
+		if (allJcs.contains(first)) {
+			MyJoinCandidate firstJc = jcs[first];
+			jc.init(first, firstJc.j, firstJc.logLikelihood,
+					firstJc.improvement);
+			return;
+		}
+		// An unaffected topic, all its partners with that improvement are
+		// affected and have it as their best partner.
+		int partner = -1;
+		for (int k = 0; k < liveTopics.size(); k++) {
+			int t = liveTopics.get(k);
+			if (allJcs.contains(t) && jcs[t].j == first
+					&& jcs[t].improvement == improvement
+					&& (partner == -1 || t < partner)) {
+				partner = t;
+			}
+		}
+		jc.init(first, partner, jcs[partner].logLikelihood, improvement);
+	}
+
+	// Recomputes invalid join candidates at the head of allJcs (see
+	// isDeferJCUpdates()) until the head is valid.
+	protected int peekValidJoinCandidate() {
+		int best = allJcs.peek();
+		while (best != -1 && jcs[best].j == -1) {
+			updateJoinCandidateForTopic(jcs[best]);
+			allJcs.update(best);
+			best = allJcs.peek();
+		}
+		return best;
+	}
+
+	// Like updateJoinCandidates() but only for the join candidates of
+	// affected topics (the ones in allJcs).
+	protected void updateAffectedJoinCandidates(int i, int j) {
+		affected[i] |= affected[j];
+		affected[j] = false;
+		allJcs.remove(j);
+		jcs[j] = null;
+		if (partnerLists != null) {
+			partnerLists.invalidate(j);
+			partnerLists.invalidate(i);
+		}
+		if (affected[i]) {
+			allJcs.remove(i);
+			if (jcs[i] == null) {
+				jcs[i] = new MyJoinCandidate();
+			}
+			jcs[i].i = i;
+			computeTwoTopicLogLikelihoods(i, pairLikelihoods);
+			updateJoinCandidateForTopic(jcs[i], pairLikelihoods);
+			allJcs.add(i);
+		}
+		for (int k = 0; k < liveTopics.size(); k++) {
+			int t = liveTopics.get(k);
+			if (t != i && allJcs.contains(t)) {
+				MyJoinCandidate jc2 = jcs[t];
+				double newLikelihood;
+				if (affected[i]) {
+					newLikelihood = pairLikelihoods[t];
+				} else {
+					newLikelihood = computeTwoTopicLogLikelihood(i, t);
+					pairComputations++;
+				}
+				double newImprovement = improvement(t, i, newLikelihood);
+				updatePartnerList(t, i, j, newLikelihood, newImprovement);
+				if (newImprovement > jc2.improvement
+						|| (newImprovement == jc2.improvement && i < jc2.j)) {
+					jc2.init(i, newLikelihood, newImprovement);
+					allJcs.update(t);
+				} else if (jc2.j == i || jc2.j == j) {
+					if (!isDeferJCUpdates()) {
+						updateJoinCandidateForTopic(jc2);
+						allJcs.update(t);
+					} else {
+						jc2.j = -1;
+					}
+				}
+			}
+		}
+	}
+
+	// Computes the join candidates of the unaffected topics. Joins between
+	// them are computed once for both sides.
+	protected void repairJoinCandidates() {
+		TIntArrayList unaffected = new TIntArrayList();
+		TIntArrayList others = new TIntArrayList();
+		for (int k = 0; k < liveTopics.size(); k++) {
+			int t = liveTopics.get(k);
+			if (allJcs.contains(t)) {
+				others.add(t);
+			} else {
+				unaffected.add(t);
+				jcs[t] = new MyJoinCandidate(t, -1, 0,
+						Double.NEGATIVE_INFINITY);
+			}
+		}
+		for (int a = 0; a < unaffected.size(); a++) {
+			int u = unaffected.get(a);
+			for (int b = a + 1; b < unaffected.size(); b++) {
+				int v = unaffected.get(b);
+				double newLikelihood = computeTwoTopicLogLikelihood(u, v);
+				double newImprovement = improvement(u, v, newLikelihood);
+				updateRepairedJoinCandidate(jcs[u], v, newLikelihood,
+						newImprovement);
+				updateRepairedJoinCandidate(jcs[v], u, newLikelihood,
+						newImprovement);
+			}
+			for (int b = 0; b < others.size(); b++) {
+				int v = others.get(b);
+				double newLikelihood = computeTwoTopicLogLikelihood(u, v);
+				updateRepairedJoinCandidate(jcs[u], v, newLikelihood,
+						improvement(u, v, newLikelihood));
+			}
+		}
+		long u = unaffected.size();
+		pairComputations += u * (u - 1) / 2 + u * others.size();
+		for (int a = 0; a < unaffected.size(); a++) {
+			allJcs.add(unaffected.get(a));
+		}
+	}
+
+	private void updateRepairedJoinCandidate(MyJoinCandidate jc, int j,
+			double logLikelihood, double improvement) {
+		if (improvement > jc.improvement
+				|| (improvement == jc.improvement && j < jc.j)) {
+			jc.init(jc.i, j, logLikelihood, improvement);
+		}
+	}
+
+	@Override
+	protected void readSolverState(DataInput in) throws IOException {
+		super.readSolverState(in);
+		// Checkpoints are only written after the replay.
+		replayDone = true;
+	}
+}
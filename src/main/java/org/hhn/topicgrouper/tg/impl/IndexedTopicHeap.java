@@ -0,0 +1,125 @@
+package org.hhn.topicgrouper.tg.impl;
+
+import java.util.Arrays;
+
+/**
+ * Binary min heap over topic ids 0 to maxTopics - 1 with a position index, so
+ * that a topic can be updated or removed in O(log n) when its key changes. The
+ * order of topics is defined by {@link #compare(int, int)}.
+ */
+public abstract class IndexedTopicHeap {
+	private final int[] heap;
+	// Position of each topic in heap or -1 if the topic is not in the heap.
+	private final int[] positions;
+	private int size;
+
+	public IndexedTopicHeap(int maxTopics) {
+		heap = new int[maxTopics];
+		positions = new int[maxTopics];
+		Arrays.fill(positions, -1);
+	}
+
+	// Negative if topic1 should come before topic2.
+	protected abstract int compare(int topic1, int topic2);
+
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(int topic) {
+		return positions[topic] != -1;
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			positions[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	// Topic at position pos of the heap array, its children are at 2 * pos + 1
+	// and 2 * pos + 2. Allows to visit all topics up to some key without
+	// removing them.
+	public int get(int pos) {
+		return heap[pos];
+	}
+
+	// Returns the smallest topic or -1 if the heap is empty.
+	public int peek() {
+		return size == 0 ? -1 : heap[0];
+	}
+
+	public void add(int topic) {
+		if (positions[topic] != -1) {
+			throw new IllegalArgumentException("topic " + topic
+					+ " already in heap");
+		}
+		heap[size] = topic;
+		positions[topic] = size;
+		size++;
+		siftUp(size - 1);
+	}
+
+	public void remove(int topic) {
+		int pos = positions[topic];
+		if (pos == -1) {
+			return;
+		}
+		size--;
+		positions[topic] = -1;
+		if (pos != size) {
+			int last = heap[size];
+			heap[pos] = last;
+			positions[last] = pos;
+			update(last);
+		}
+	}
+
+	// Restores the heap order after the key of topic has changed.
+	public void update(int topic) {
+		int pos = positions[topic];
+		if (pos != -1) {
+			pos = siftUp(pos);
+			siftDown(pos);
+		}
+	}
+
+	private int siftUp(int pos) {
+		int topic = heap[pos];
+		while (pos > 0) {
+			int parentPos = (pos - 1) >>> 1;
+			int parent = heap[parentPos];
+			if (compare(topic, parent) >= 0) {
+				break;
+			}
+			heap[pos] = parent;
+			positions[parent] = pos;
+			pos = parentPos;
+		}
+		heap[pos] = topic;
+		positions[topic] = pos;
+		return pos;
+	}
+
+	private void siftDown(int pos) {
+		int topic = heap[pos];
+		int half = size >>> 1;
+		while (pos < half) {
+			int childPos = 2 * pos + 1;
+			int child = heap[childPos];
+			int rightPos = childPos + 1;
+			if (rightPos < size && compare(heap[rightPos], child) < 0) {
+				childPos = rightPos;
+				child = heap[childPos];
+			}
+			if (compare(topic, child) <= 0) {
+				break;
+			}
+			heap[pos] = child;
+			positions[child] = pos;
+			pos = childPos;
+		}
+		heap[pos] = topic;
+		positions[topic] = pos;
+	}
+}
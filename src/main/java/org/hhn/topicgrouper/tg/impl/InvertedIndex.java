@@ -0,0 +1,97 @@
+package org.hhn.topicgrouper.tg.impl;
+
+import gnu.trove.iterator.TIntIterator;
+
+import java.util.List;
+
+import org.hhn.topicgrouper.doc.Document;
+
+/**
+ * Inverted index in compressed sparse row format: The postings of word w are
+ * at the positions offsets[w] (inclusive) to offsets[w + 1] (exclusive) of the
+ * parallel arrays docIndices and wordFrs. Postings of a word are sorted by
+ * document index.
+ */
+public class InvertedIndex {
+	protected final int[] offsets;
+	protected final int[] docIndices;
+	protected final int[] wordFrs;
+
+	public <T> InvertedIndex(List<Document<T>> documents, int nWords) {
+		offsets = countPostings(documents, nWords);
+		docIndices = new int[offsets[nWords]];
+		wordFrs = new int[offsets[nWords]];
+		addPostings(documents);
+	}
+
+	// For subclasses that store the postings elsewhere via setPosting().
+	protected InvertedIndex(int[] offsets) {
+		this.offsets = offsets;
+		docIndices = null;
+		wordFrs = null;
+	}
+
+	// Counts postings per word and turns the counts into offsets.
+	protected static <T> int[] countPostings(List<Document<T>> documents,
+			int nWords) {
+		int[] offsets = new int[nWords + 1];
+		for (int i = 0; i < documents.size(); i++) {
+			Document<T> d = documents.get(i);
+			TIntIterator it = d.getWordIndices().iterator();
+			while (it.hasNext()) {
+				int wordIndex = it.next();
+				if (d.getWordFrequency(wordIndex) > 0) {
+					offsets[wordIndex + 1]++;
+				}
+			}
+		}
+		for (int w = 0; w < nWords; w++) {
+			offsets[w + 1] += offsets[w];
+		}
+		return offsets;
+	}
+
+	protected <T> void addPostings(List<Document<T>> documents) {
+		// Documents are visited in ascending order, so the postings of each
+		// word end up sorted without any extra effort.
+		int nWords = offsets.length - 1;
+		int[] next = new int[nWords];
+		System.arraycopy(offsets, 0, next, 0, nWords);
+		for (int i = 0; i < documents.size(); i++) {
+			Document<T> d = documents.get(i);
+			TIntIterator it = d.getWordIndices().iterator();
+			while (it.hasNext()) {
+				int wordIndex = it.next();
+				int fr = d.getWordFrequency(wordIndex);
+				if (fr > 0) {
+					setPosting(next[wordIndex]++, i, fr);
+				}
+			}
+		}
+	}
+
+	protected void setPosting(int pos, int docIndex, int wordFr) {
+		docIndices[pos] = docIndex;
+		wordFrs[pos] = wordFr;
+	}
+
+	public int getStart(int wordIndex) {
+		return offsets[wordIndex];
+	}
+
+	public int getEnd(int wordIndex) {
+		return offsets[wordIndex + 1];
+	}
+
+	public int getDocIndex(int pos) {
+		return docIndices[pos];
+	}
+
+	public int getWordFr(int pos) {
+		return wordFrs[pos];
+	}
+
+	public int getNumberOfPostings() {
+		return offsets[offsets.length - 1];
+	}
+}
@@ -0,0 +1,170 @@
+package org.hhn.topicgrouper.tg.impl;
+
+/**
+ * Priority queue of the join candidates of one topic, specialized for
+ * primitives: A candidate is just the partner topic and the improvement of
+ * the join, stored in parallel arrays of a binary heap. The best candidate
+ * (highest improvement, lowest partner on ties like in
+ * {@link AbstractTopicGrouper.JoinCandidate#compareTo(AbstractTopicGrouper.JoinCandidate)})
+ * is at the head.
+ * <p>
+ * This needs 12 bytes per candidate instead of a JoinCandidate object plus a
+ * reference to it in an Object[] heap (about 36 to 48 bytes depending on
+ * compressed oops). Finding a candidate by partner is a linear scan, see
+ * {@link KeyedJoinCandidateQueue} for a variant with a position index.
+ */
+public class JoinCandidateQueue {
+	private final int[] partners;
+	private final double[] improvements;
+	private int size;
+
+	public JoinCandidateQueue(int capacity) {
+		partners = new int[capacity];
+		improvements = new double[capacity];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	// Copies the partners of all candidates in heap order into the array.
+	public void getPartners(int[] target) {
+		System.arraycopy(partners, 0, target, 0, size);
+	}
+
+	// Copies the improvements of all candidates in heap order into the array.
+	public void getImprovements(double[] target) {
+		System.arraycopy(improvements, 0, target, 0, size);
+	}
+
+	public int peekPartner() {
+		return size == 0 ? -1 : partners[0];
+	}
+
+	public double peekImprovement() {
+		return size == 0 ? Double.NEGATIVE_INFINITY : improvements[0];
+	}
+
+	public int getPartner(int pos) {
+		return partners[pos];
+	}
+
+	public double getImprovement(int pos) {
+		return improvements[pos];
+	}
+
+	public void add(int partner, double improvement) {
+		if (size == partners.length) {
+			throw new IllegalStateException("queue is full");
+		}
+		size++;
+		siftUp(size - 1, partner, improvement);
+	}
+
+	// Removes the head.
+	public void poll() {
+		if (size > 0) {
+			removeAt(0);
+		}
+	}
+
+	// Returns the position of the candidate for partner or -1.
+	public int indexOf(int partner) {
+		for (int i = 0; i < size; i++) {
+			if (partners[i] == partner) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// Sets the improvement of the candidate for partner, the candidate is
+	// added if it is not in the queue yet.
+	public void update(int partner, double improvement) {
+		int pos = indexOf(partner);
+		if (pos == -1) {
+			add(partner, improvement);
+		} else {
+			siftDown(pos, partner, improvement);
+			if (partners[pos] == partner) {
+				siftUp(pos, partner, improvement);
+			}
+		}
+	}
+
+	public boolean remove(int partner) {
+		int pos = indexOf(partner);
+		if (pos == -1) {
+			return false;
+		}
+		removeAt(pos);
+		return true;
+	}
+
+	public void removeAt(int pos) {
+		size--;
+		if (pos != size) {
+			int movedPartner = partners[size];
+			double movedImprovement = improvements[size];
+			siftDown(pos, movedPartner, movedImprovement);
+			if (partners[pos] == movedPartner) {
+				siftUp(pos, movedPartner, movedImprovement);
+			}
+		}
+	}
+
+	// True if candidate 1 comes before candidate 2.
+	private static boolean before(int partner1, double improvement1,
+			int partner2, double improvement2) {
+		if (improvement1 == improvement2) {
+			return partner1 < partner2;
+		}
+		return improvement1 > improvement2;
+	}
+
+	private void siftUp(int pos, int partner, double improvement) {
+		while (pos > 0) {
+			int parentPos = (pos - 1) >>> 1;
+			if (!before(partner, improvement, partners[parentPos],
+					improvements[parentPos])) {
+				break;
+			}
+			set(pos, partners[parentPos], improvements[parentPos]);
+			pos = parentPos;
+		}
+		set(pos, partner, improvement);
+	}
+
+	private void siftDown(int pos, int partner, double improvement) {
+		int half = size >>> 1;
+		while (pos < half) {
+			int childPos = 2 * pos + 1;
+			int rightPos = childPos + 1;
+			if (rightPos < size
+					&& before(partners[rightPos], improvements[rightPos],
+							partners[childPos], improvements[childPos])) {
+				childPos = rightPos;
+			}
+			if (!before(partners[childPos], improvements[childPos], partner,
+					improvement)) {
+				break;
+			}
+			set(pos, partners[childPos], improvements[childPos]);
+			pos = childPos;
+		}
+		set(pos, partner, improvement);
+	}
+
+	protected void set(int pos, int partner, double improvement) {
+		partners[pos] = partner;
+		improvements[pos] = improvement;
+	}
+}
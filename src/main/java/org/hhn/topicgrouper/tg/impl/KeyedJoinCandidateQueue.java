@@ -0,0 +1,45 @@
+package org.hhn.topicgrouper.tg.impl;
+
+import java.util.Arrays;
+
+/**
+ * Join candidate queue with an index from partner topic to heap position. So
+ * finding, removing or updating the candidate for a partner takes O(log n)
+ * instead of a linear scan, at the cost of 4 more bytes per possible partner.
+ */
+public class KeyedJoinCandidateQueue extends JoinCandidateQueue {
+	// Heap position per partner or -1 if there is no candidate for the
+	// partner.
+	private final int[] positions;
+
+	public KeyedJoinCandidateQueue(int capacity, int maxTopics) {
+		super(capacity);
+		positions = new int[maxTopics];
+		Arrays.fill(positions, -1);
+	}
+
+	@Override
+	public int indexOf(int partner) {
+		return positions[partner];
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < size(); i++) {
+			positions[getPartner(i)] = -1;
+		}
+		super.clear();
+	}
+
+	@Override
+	public void removeAt(int pos) {
+		positions[getPartner(pos)] = -1;
+		super.removeAt(pos);
+	}
+
+	@Override
+	protected void set(int pos, int partner, double improvement) {
+		super.set(pos, partner, improvement);
+		positions[partner] = pos;
+	}
+}
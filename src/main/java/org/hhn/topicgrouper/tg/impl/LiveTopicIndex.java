@@ -0,0 +1,80 @@
+package org.hhn.topicgrouper.tg.impl;
+
+import java.util.Arrays;
+
+/**
+ * Dense array of the ids of the existing topics, so that scans over all
+ * topics do not visit the slots of joined topics. Removing a topic moves the
+ * last id into its place, so the order of ids is arbitrary until
+ * {@link #sort()} is called.
+ */
+public class LiveTopicIndex {
+	private final int[] ids;
+	// Position of each topic in ids or -1 if the topic is not in the index.
+	private final int[] positions;
+	private int size;
+
+	public LiveTopicIndex(int maxTopics) {
+		ids = new int[maxTopics];
+		positions = new int[maxTopics];
+		Arrays.fill(positions, -1);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int get(int pos) {
+		return ids[pos];
+	}
+
+	public boolean contains(int topic) {
+		return positions[topic] != -1;
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			positions[ids[i]] = -1;
+		}
+		size = 0;
+	}
+
+	public void add(int topic) {
+		if (positions[topic] != -1) {
+			throw new IllegalArgumentException("topic " + topic
+					+ " already in index");
+		}
+		ids[size] = topic;
+		positions[topic] = size;
+		size++;
+	}
+
+	public void remove(int topic) {
+		int pos = positions[topic];
+		if (pos == -1) {
+			return;
+		}
+		size--;
+		positions[topic] = -1;
+		if (pos != size) {
+			int last = ids[size];
+			ids[pos] = last;
+			positions[last] = pos;
+		}
+	}
+
+	// Restores ascending order, so that scans access arrays indexed by topic
+	// in memory order.
+	public void sort() {
+		Arrays.sort(ids, 0, size);
+		for (int i = 0; i < size; i++) {
+			positions[ids[i]] = i;
+		}
+	}
+
+	public int[] toSortedArray() {
+		int[] result = Arrays.copyOf(ids, size);
+		Arrays.sort(result);
+		return result;
+	}
+}
@@ -4,25 +4,67 @@ import gnu.trove.TIntCollection;
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.PriorityQueue;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.hhn.topicgrouper.doc.DocumentProvider;
 import org.hhn.topicgrouper.tg.TGSolution;
 import org.hhn.topicgrouper.tg.TGSolutionListener;
+import org.hhn.topicgrouper.util.LogTable;
 
 public class LowMemTopicGrouper<T> extends AbstractTopicGrouper<T> {
-	protected final PriorityQueue<MyJoinCandidate> allJcs;
-	private final Collection<MyJoinCandidate> addLaterCache;
+	// Below this number of topics a parallel update does not pay off.
+	private static final int MIN_TOPICS_FOR_PARALLEL_UPDATE = 256;
+
+	// Topics ordered by their join candidate (see jcs). Join candidates can be
+	// updated in place via allJcs.update(topic).
+	protected final IndexedTopicHeap allJcs;
+	// Join candidate per topic with jcs[t].i == t.
+	protected final MyJoinCandidate[] jcs;
 
 	protected final HomonymHandler homonymHandler;
 	private int jcUpdates;
-	private int mainLoopCount;
+	protected int mainLoopCount;
+	// Number of two topic likelihoods computed for join candidates.
+	protected long pairComputations;
+	// Number of two topic likelihoods that were skipped or given up early
+	// during rescans because they could not lead to the best join candidate.
+	private long jcPrunes;
+	// Number of join candidates taken from partnerLists instead of a rescan.
+	private int partnerListRepairs;
 
 	private boolean deferJCUpdates;
+	private boolean pruneJCUpdates;
+	private int partnerListSize;
+	// Only exists while solving with a partner list size > 0.
+	protected PartnerLists partnerLists;
+	private boolean batchMerging;
+	private double batchTolerance;
+	private int batchRounds;
+	private int batchMerges;
+	private int threads;
+	// Only exists while solving with more than one thread.
+	protected ForkJoinPool pool;
+	// Likelihoods of the merged topic joined with each other topic.
+	protected final double[] pairLikelihoods;
+	// Same for rescans of a single topic (see updateJoinCandidateForTopic()).
+	private final double[] rescanLikelihoods;
+	// Improvement bounds for rescans (see computeImprovementBound()).
+	private final double[] rescanBounds;
 
 	public LowMemTopicGrouper(int minWordFrequency,
 			DocumentProvider<T> documentProvider, int minTopics) {
@@ -31,11 +73,29 @@ public class LowMemTopicGrouper<T> extends AbstractTopicGrouper<T> {
 
 	public LowMemTopicGrouper(int minWordFrequency,
 			DocumentProvider<T> documentProvider, int minTopics, double hEpsilon) {
-		super(minWordFrequency, documentProvider, minTopics);
-		allJcs = new PriorityQueue<MyJoinCandidate>(maxTopics);
-		addLaterCache = new ArrayList<MyJoinCandidate>();
+		this(minWordFrequency, documentProvider, minTopics, hEpsilon, null);
+	}
+
+	// See AbstractTopicGrouper for memory mapped storage.
+	public LowMemTopicGrouper(int minWordFrequency,
+			DocumentProvider<T> documentProvider, int minTopics,
+			double hEpsilon, File mappedStorageDirectory) {
+		super(minWordFrequency, documentProvider, minTopics,
+				mappedStorageDirectory);
+		jcs = new MyJoinCandidate[maxTopics];
+		allJcs = new IndexedTopicHeap(maxTopics) {
+			@Override
+			protected int compare(int topic1, int topic2) {
+				return jcs[topic1].compareTo(jcs[topic2]);
+			}
+		};
 
 		this.deferJCUpdates = true;
+		this.pruneJCUpdates = true;
+		this.threads = 1;
+		pairLikelihoods = new double[maxTopics];
+		rescanLikelihoods = new double[maxTopics];
+		rescanBounds = new double[maxTopics];
 
 		if (hEpsilon > 0) {
 			homonymHandler = createHomonymHandler(hEpsilon);
@@ -52,6 +112,96 @@ public class LowMemTopicGrouper<T> extends AbstractTopicGrouper<T> {
 		return deferJCUpdates;
 	}
 
+	/**
+	 * If set (the default), a rescan for the best join partner of a topic
+	 * skips partners whose improvement bound cannot beat the best improvement
+	 * found so far and gives up on partners as soon as their partial sum
+	 * falls below it. The results are the same as without pruning.
+	 */
+	public void setPruneJCUpdates(boolean pruneJCUpdates) {
+		this.pruneJCUpdates = pruneJCUpdates;
+	}
+
+	public boolean isPruneJCUpdates() {
+		return pruneJCUpdates;
+	}
+
+	/**
+	 * Number of best join partners to keep per topic (0 by default). When the
+	 * join candidate of a topic becomes invalid, it is taken from the list
+	 * instead of rescanning all topics as long as the list is not empty. This
+	 * needs 20 bytes per topic and list entry. The results are the same as
+	 * without the lists.
+	 */
+	public void setPartnerListSize(int partnerListSize) {
+		if (partnerListSize < 0) {
+			throw new IllegalArgumentException("partnerListSize must be >= 0");
+		}
+		this.partnerListSize = partnerListSize;
+	}
+
+	public int getPartnerListSize() {
+		return partnerListSize;
+	}
+
+	/**
+	 * Approximate fast mode: In every step, all pairs of topics that are each
+	 * other's best join partner and whose improvement is within the batch
+	 * tolerance of the best improvement are joined in one round. The joins
+	 * themselves and the following update of join candidates run in parallel
+	 * (see {@link #setThreads(int)}). The result may differ from the exact
+	 * one, since a join in the round may create a better partner for a topic
+	 * joined in the same round. Rounds with less than two pairs fall back to
+	 * single exact steps. Not combined with homonym handling.
+	 */
+	public void setBatchMerging(boolean batchMerging) {
+		this.batchMerging = batchMerging;
+	}
+
+	public boolean isBatchMerging() {
+		return batchMerging;
+	}
+
+	// Maximum difference between the best improvement and the improvement of
+	// a join in the same round (see setBatchMerging()).
+	public void setBatchTolerance(double batchTolerance) {
+		if (batchTolerance < 0) {
+			throw new IllegalArgumentException("batchTolerance must be >= 0");
+		}
+		this.batchTolerance = batchTolerance;
+	}
+
+	public double getBatchTolerance() {
+		return batchTolerance;
+	}
+
+	// Number of rounds with more than one join in batch merging mode.
+	public int getBatchRounds() {
+		return batchRounds;
+	}
+
+	// Number of joins done in such rounds.
+	public int getBatchMerges() {
+		return batchMerges;
+	}
+
+	/**
+	 * Number of worker threads for setting up the initial topics, computing
+	 * the initial join candidates and for re-evaluating join candidates after
+	 * each merge. With more than one thread the results are identical to the
+	 * ones of the sequential computation.
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be >= 1");
+		}
+		this.threads = threads;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
 	protected TGSolution<T> createSolution() {
 		return new DefaultTGSolution() {
 			@Override
@@ -61,20 +211,69 @@ public class LowMemTopicGrouper<T> extends AbstractTopicGrouper<T> {
 		};
 	}
 
+	@Override
+	protected void startSolving() {
+		super.startSolving();
+		if (threads > 1) {
+			pool = new ForkJoinPool(threads);
+		}
+		if (partnerListSize > 0) {
+			partnerLists = new PartnerLists(maxTopics, partnerListSize);
+		}
+	}
+
+	@Override
+	protected void finishSolving() {
+		if (pool != null) {
+			pool.shutdownNow();
+			pool = null;
+		}
+		partnerLists = null;
+		super.finishSolving();
+	}
+
+	// Words are spread over the pool. Memory mapped storage appends to a
+	// single array, so it stays sequential.
+	@Override
+	protected void initTopicFrequencies(int n) {
+		if (frequencyStore != null) {
+			super.initTopicFrequencies(n);
+			return;
+		}
+		sumOverRanges(n, new RangeTask() {
+			@Override
+			public int compute(int start, int end) {
+				initTopicFrequencies(start, end);
+				return 0;
+			}
+		});
+	}
+
 	protected void createInitialJoinCandidates(
 			TGSolutionListener<T> solutionListener) {
+		if (isSparseInitialization()) {
+			createSparseInitialJoinCandidates(solutionListener);
+			return;
+		}
+		pairComputations = ((long) maxTopics) * (maxTopics - 1) / 2;
+		if (pool != null && maxTopics > 1) {
+			createInitialJoinCandidatesParallel(solutionListener);
+			return;
+		}
 		int initMax = maxTopics * (maxTopics - 1) / 2;
 		int initCounter = 0;
 
 		MyJoinCandidate[] joinCandidates = new MyJoinCandidate[maxTopics];
 
 		for (int i = 0; i < maxTopics; i++) {
+			if (isStopRequested()) {
+				return;
+			}
 			for (int j = i + 1; j < maxTopics; j++) {
 				double newLikelihood = computeTwoWordLogLikelihood(i, j,
 						topics[i].get(0), topics[j].get(0));
 
-				double newImprovement = newLikelihood - topicLogLikelihoods[i]
-						- topicLogLikelihoods[j];
+				double newImprovement = improvement(i, j, newLikelihood);
 
 				MyJoinCandidate jc = joinCandidates[i];
 				if (jc == null) {
@@ -99,13 +298,256 @@ public class LowMemTopicGrouper<T> extends AbstractTopicGrouper<T> {
 				}
 			}
 		}
-		allJcs.addAll(Arrays.asList(joinCandidates));
+		addJoinCandidates(joinCandidates);
 	}
 
-	protected void groupTopics(TGSolutionListener<T> solutionListener) {
-		nTopics[0] = maxTopics;
+	protected void addJoinCandidates(MyJoinCandidate[] joinCandidates) {
+		for (int i = 0; i < joinCandidates.length; i++) {
+			jcs[i] = joinCandidates[i];
+			allJcs.add(i);
+		}
+	}
+
+	// The triangular space of pairs (i, j) with i < j is split into tiles of
+	// consecutive rows i with about the same number of pairs each. Every
+	// worker keeps its own best join candidates and the results get merged
+	// with the same tie break (lowest j wins) as in the sequential case.
+	protected void createInitialJoinCandidatesParallel(
+			final TGSolutionListener<T> solutionListener) {
+		final long initMax = ((long) maxTopics) * (maxTopics - 1) / 2;
+		final int[] tileStarts = createInitTiles(initMax, threads * 16);
+		final AtomicInteger nextTile = new AtomicInteger();
+		final AtomicLong initCounter = new AtomicLong();
+
+		try {
+			List<Future<MyJoinCandidate[]>> results = new ArrayList<Future<MyJoinCandidate[]>>();
+			for (int w = 0; w < threads; w++) {
+				results.add(pool.submit(new Callable<MyJoinCandidate[]>() {
+					@Override
+					public MyJoinCandidate[] call() {
+						MyJoinCandidate[] joinCandidates = new MyJoinCandidate[maxTopics];
+						int tile;
+						while ((tile = nextTile.getAndIncrement()) < tileStarts.length - 1) {
+							for (int i = tileStarts[tile]; i < tileStarts[tile + 1]; i++) {
+								if (isStopRequested()) {
+									return joinCandidates;
+								}
+								computeInitialJoinCandidatesForRow(i,
+										joinCandidates);
+								initCounter.addAndGet(maxTopics - 1 - i);
+							}
+						}
+						return joinCandidates;
+					}
+				}));
+			}
+
+			MyJoinCandidate[] joinCandidates = null;
+			long reported = 0;
+			for (Future<MyJoinCandidate[]> result : results) {
+				MyJoinCandidate[] workerJcs = null;
+				while (workerJcs == null) {
+					try {
+						workerJcs = result.get(100, TimeUnit.MILLISECONDS);
+					} catch (TimeoutException e) {
+						long counter = initCounter.get();
+						if (counter - reported >= 100000) {
+							reported = counter;
+							solutionListener.initalizing(((double) counter)
+									/ initMax);
+						}
+					}
+				}
+				joinCandidates = joinCandidates == null ? workerJcs
+						: mergeJoinCandidates(joinCandidates, workerJcs);
+			}
+			// Rows are missing if a worker stopped early.
+			if (isStopRequested()) {
+				return;
+			}
+			addJoinCandidates(joinCandidates);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	// Every topic gets its best join candidate from its co-occurring topics
+	// and the best non co-occurring one. Rows are independent, so with a pool
+	// they are spread over its threads.
+	protected void createSparseInitialJoinCandidates(
+			TGSolutionListener<T> solutionListener) {
+		createDocumentTopicIndex();
+		final int[] topicsBySize = getInitialTopicsBySize();
+		final MyJoinCandidate[] joinCandidates = new MyJoinCandidate[maxTopics];
+		final AtomicInteger nextTopic = new AtomicInteger();
+		final AtomicLong pairs = new AtomicLong();
+		try {
+			if (pool == null) {
+				CooccurrenceBuffer buffer = new CooccurrenceBuffer();
+				for (int i = 0; i < maxTopics && !isStopRequested(); i++) {
+					pairs.addAndGet(computeSparseInitialJoinCandidate(i,
+							topicsBySize, buffer, joinCandidates));
+					if ((i + 1) % 1000 == 0) {
+						solutionListener.initalizing(((double) i + 1)
+								/ maxTopics);
+					}
+				}
+			} else {
+				List<Future<Void>> results = new ArrayList<Future<Void>>();
+				for (int w = 0; w < threads; w++) {
+					results.add(pool.submit(new Callable<Void>() {
+						@Override
+						public Void call() {
+							CooccurrenceBuffer buffer = new CooccurrenceBuffer();
+							int i;
+							while (!isStopRequested()
+									&& (i = nextTopic.getAndIncrement()) < maxTopics) {
+								pairs.addAndGet(computeSparseInitialJoinCandidate(
+										i, topicsBySize, buffer, joinCandidates));
+							}
+							return null;
+						}
+					}));
+				}
+				for (Future<Void> result : results) {
+					boolean done = false;
+					while (!done) {
+						try {
+							result.get(100, TimeUnit.MILLISECONDS);
+							done = true;
+						} catch (TimeoutException e) {
+							solutionListener.initalizing(Math.min(1,
+									((double) nextTopic.get()) / maxTopics));
+						}
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			releaseDocumentTopicIndex();
+		}
+		pairComputations = pairs.get();
+		if (isStopRequested()) {
+			return;
+		}
+		addJoinCandidates(joinCandidates);
+	}
+
+	// Returns the number of evaluated partners.
+	protected int computeSparseInitialJoinCandidate(int i, int[] topicsBySize,
+			CooccurrenceBuffer buffer, MyJoinCandidate[] joinCandidates) {
+		computeCooccurrences(i, buffer);
+		for (int k = 0; k < buffer.size; k++) {
+			int j = buffer.partners[k];
+			double newLikelihood = computeSparseTwoWordLogLikelihood(i, j,
+					buffer.corrections[j]);
+			updateInitialJoinCandidate(joinCandidates, i, j, newLikelihood,
+					improvement(i, j, newLikelihood));
+		}
+		int j = findBestNonCooccurringTopic(i, topicsBySize, buffer);
+		if (j != -1) {
+			double newLikelihood = computeSparseTwoWordLogLikelihood(i, j, 0);
+			updateInitialJoinCandidate(joinCandidates, i, j, newLikelihood,
+					improvement(i, j, newLikelihood));
+		}
+		// The likelihood of the best candidate becomes the likelihood of the
+		// joined topic, so it is computed exactly like without sparse
+		// initialization.
+		MyJoinCandidate jc = joinCandidates[i];
+		if (jc != null) {
+			int i1 = Math.min(i, jc.j);
+			int i2 = Math.max(i, jc.j);
+			double newLikelihood = computeTwoWordLogLikelihood(i1, i2,
+					topics[i1].get(0), topics[i2].get(0));
+			jc.init(i, jc.j, newLikelihood, improvement(i1, i2, newLikelihood));
+		}
+		return buffer.size + (j != -1 ? 2 : 1);
+	}
+
+	private int[] createInitTiles(long initMax, int nTiles) {
+		long pairsPerTile = Math.max(1, initMax / nTiles);
+		TIntList tileStarts = new TIntArrayList();
+		tileStarts.add(0);
+		long pairs = 0;
+		for (int i = 0; i < maxTopics; i++) {
+			pairs += maxTopics - 1 - i;
+			if (pairs >= pairsPerTile) {
+				tileStarts.add(i + 1);
+				pairs = 0;
+			}
+		}
+		if (tileStarts.get(tileStarts.size() - 1) != maxTopics) {
+			tileStarts.add(maxTopics);
+		}
+		return tileStarts.toArray();
+	}
+
+	protected void computeInitialJoinCandidatesForRow(int i,
+			MyJoinCandidate[] joinCandidates) {
+		for (int j = i + 1; j < maxTopics; j++) {
+			double newLikelihood = computeTwoWordLogLikelihood(i, j,
+					topics[i].get(0), topics[j].get(0));
+
+			double newImprovement = improvement(i, j, newLikelihood);
+
+			updateInitialJoinCandidate(joinCandidates, i, j, newLikelihood,
+					newImprovement);
+			updateInitialJoinCandidate(joinCandidates, j, i, newLikelihood,
+					newImprovement);
+		}
+	}
+
+	private void updateInitialJoinCandidate(MyJoinCandidate[] joinCandidates,
+			int i, int j, double logLikelihood, double improvement) {
+		MyJoinCandidate jc = joinCandidates[i];
+		if (jc == null) {
+			joinCandidates[i] = new MyJoinCandidate(i, j, logLikelihood,
+					improvement);
+		} else if (improvement > jc.improvement
+				|| (improvement == jc.improvement && j < jc.j)) {
+			jc.init(i, j, logLikelihood, improvement);
+		}
+	}
+
+	private MyJoinCandidate[] mergeJoinCandidates(MyJoinCandidate[] a,
+			MyJoinCandidate[] b) {
+		for (int i = 0; i < a.length; i++) {
+			if (b[i] != null) {
+				if (a[i] == null) {
+					a[i] = b[i];
+				} else {
+					updateInitialJoinCandidate(a, i, b[i].j, b[i].logLikelihood,
+							b[i].improvement);
+				}
+			}
+		}
+		return a;
+	}
+
+	@Override
+	protected void initGrouping() {
+		super.initGrouping();
 		jcUpdates = 0;
-		for (mainLoopCount = 0; nTopics[0] > minTopics; mainLoopCount++) {
+		jcPrunes = 0;
+		partnerListRepairs = 0;
+		batchRounds = 0;
+		batchMerges = 0;
+		mainLoopCount = 0;
+	}
+
+	protected void groupTopics(TGSolutionListener<T> solutionListener) {
+		for (; nTopics[0] > minTopics && !isStopRequested(); mainLoopCount++) {
+			if (batchMerging && homonymHandler == null
+					&& joinBatch(solutionListener)) {
+				continue;
+			}
 			// Get the best join candidate
 			MyJoinCandidate jc = getBestJoinCandidate();
 			// Check if jc is invalid
@@ -113,61 +555,81 @@ public class LowMemTopicGrouper<T> extends AbstractTopicGrouper<T> {
 				// Recompute the best join candidate for jc and sort it in in
 				// the right place.
 				updateJoinCandidateForTopic(jc);
-				allJcs.add(jc);
+				allJcs.add(jc.i);
 				jcUpdates++;
 			} else {
-				int t1Size = 0, t2Size = 0;
 				if (!handleHomonymicTopic(jc)) {
-					t1Size = topicSizes[jc.i];
-					t2Size = topicSizes[jc.j];
-					// Join the topics at position jc.i
-					topics[jc.i].addAll(topics[jc.j]);
-					topicUnionFind.union(jc.j, jc.i);
-					topicSizes[jc.i] += t2Size;
-					sumWordFrTimesLogWordFrByTopic[jc.i] += sumWordFrTimesLogWordFrByTopic[jc.j];
-					// Compute likelihood for joined topic
-					totalLogLikelihood -= topicLogLikelihoods[jc.i];
-					topicLogLikelihoods[jc.i] = jc.logLikelihood;
-					totalLogLikelihood += topicLogLikelihoods[jc.i];
-					int[] a = topicFrequencyPerDocuments[jc.i];
-					int[] b = topicFrequencyPerDocuments[jc.j];
-					for (int i = 0; i < a.length; i++) {
-						a[i] += b[i];
-					}
-					// Topic at position jc.j is gone
-					topics[jc.j] = null;
-					totalLogLikelihood -= topicLogLikelihoods[jc.j];
-					topicLogLikelihoods[jc.j] = 0;
-					topicSizes[jc.j] = 0;
-
-					nTopics[0]--;
-
-					solutionListener.updatedSolution(jc.i, jc.j,
-							jc.improvement, t1Size, t2Size, solution);
+					joinTopics(jc, solutionListener);
+				} else if (partnerLists != null) {
+					// A topic changed without a join, which the lists cannot
+					// follow.
+					partnerLists.invalidateAll();
 				}
 				updateJoinCandidates(jc);
+				checkpointIfDue();
 			}
 		}
 	}
 
+	// Joins topic jc.j into topic jc.i. Join candidates are not touched.
+	protected void joinTopics(MyJoinCandidate jc,
+			TGSolutionListener<T> solutionListener) {
+		topicFrequencyPerDocuments[jc.i]
+				.addAll(topicFrequencyPerDocuments[jc.j]);
+		joinTopicsExceptFrequencies(jc, solutionListener);
+	}
+
+	// The rest of joinTopics() when the frequencies per document have been
+	// joined already.
+	protected void joinTopicsExceptFrequencies(MyJoinCandidate jc,
+			TGSolutionListener<T> solutionListener) {
+		int t1Size = topicSizes[jc.i];
+		int t2Size = topicSizes[jc.j];
+		// Join the topics at position jc.i
+		topics[jc.i].addAll(topics[jc.j]);
+		topicUnionFind.union(jc.j, jc.i);
+		topicSizes[jc.i] += t2Size;
+		sumWordFrTimesLogWordFrByTopic[jc.i] += sumWordFrTimesLogWordFrByTopic[jc.j];
+		// Compute likelihood for joined topic
+		totalLogLikelihood -= topicLogLikelihoods[jc.i];
+		topicLogLikelihoods[jc.i] = jc.logLikelihood;
+		totalLogLikelihood += topicLogLikelihoods[jc.i];
+		// Topic at position jc.j is gone
+		topics[jc.j] = null;
+		releaseTopicFrequencies(jc.j);
+		removeLiveTopic(jc.j);
+		totalLogLikelihood -= topicLogLikelihoods[jc.j];
+		topicLogLikelihoods[jc.j] = 0;
+		topicSizes[jc.j] = 0;
+
+		nTopics[0]--;
+
+		solutionListener.updatedSolution(jc.i, jc.j, jc.improvement, t1Size,
+				t2Size, solution);
+	}
+
 	protected void updateJoinCandidates(MyJoinCandidate jc) {
 		// Save old j-index of jc, cause the join candidate with jc.i == j must
 		// be deleted still.
 		// jc.i does not need to be saved cause it does not change under the
 		// following method call.
 		int j = jc.j;
-		// Recompute the best join partner for joined topic
-		updateJoinCandidateForTopic(jc);
+		// Recompute the best join partner for joined topic. The likelihoods
+		// computed for that are the same as the ones needed for the other
+		// topics below, so they are kept in pairLikelihoods.
+		computeTwoTopicLogLikelihoods(jc.i, pairLikelihoods);
+		updateJoinCandidateForTopic(jc, pairLikelihoods);
 		// Add the new best join partner for topic[jc.i]
-		allJcs.add(jc);
-
-		addLaterCache.clear();
-		Iterator<MyJoinCandidate> it = allJcs.iterator();
-		while (it.hasNext()) {
-			MyJoinCandidate jc2 = it.next();
-			if (jc2.i == j) {
-				it.remove();
-			} else if (jc2 != jc
+		allJcs.add(jc.i);
+
+		allJcs.remove(j);
+		jcs[j] = null;
+		if (partnerLists != null) {
+			partnerLists.invalidate(j);
+		}
+		for (int k = 0; k < liveTopics.size(); k++) {
+			int t = liveTopics.get(k);
+			if (t != jc.i && allJcs.contains(t)
 			// The following commented out optimization would require to show
 			// that
 			//
@@ -178,56 +640,294 @@ public class LowMemTopicGrouper<T> extends AbstractTopicGrouper<T> {
 			// Judging by the algorithm, the criterion is not violated. But
 			// proving it seems hard.
 			/* && (jc2.j == jc.i || jc2.j == j || jc2.j == -1) */) {
-				double newLikelihood = computeTwoTopicLogLikelihood(jc.i, jc2.i);
-				double newImprovement = newLikelihood
-						- topicLogLikelihoods[jc2.i]
-						- topicLogLikelihoods[jc.i];
+				MyJoinCandidate jc2 = jcs[t];
+				double newLikelihood = pairLikelihoods[t];
+				double newImprovement = improvement(jc2.i, jc.i, newLikelihood);
+				updatePartnerList(t, jc.i, j, newLikelihood, newImprovement);
 				if (newImprovement > jc2.improvement
 						|| (newImprovement == jc2.improvement && jc.i < jc2.j)) {
-					it.remove();
 					jc2.init(jc.i, newLikelihood, newImprovement);
+					// Increase key in place.
+					allJcs.update(t);
 
 					// Show me where the criterion from above is violated:
 					// if (jc2.j != jc.i && jc2.j != j) {
 					// System.out.println("Stop!");
 					// }
-					addLaterCache.add(jc2);
 				} else if (jc2.j == jc.i || jc2.j == j) {
 					if (!deferJCUpdates) {
-						it.remove();
 						updateJoinCandidateForTopic(jc2);
-						addLaterCache.add(jc2);
+						// Decrease key in place.
+						allJcs.update(t);
 						jcUpdates++;
 					} else {
+						// The order of jc2 does not depend on jc2.j, so
+						// allJcs needs no update.
 						jc2.j = -1;
 					}
 				}
 			}
 		}
-		allJcs.addAll(addLaterCache);
+	}
+
+	// One round of batch merging (see setBatchMerging()). Returns false
+	// without any changes if there are less than two pairs to join.
+	protected boolean joinBatch(TGSolutionListener<T> solutionListener) {
+		int head = allJcs.peek();
+		if (head == -1 || jcs[head].j == -1) {
+			// The exact step recomputes the head first.
+			return false;
+		}
+		double threshold = jcs[head].improvement - batchTolerance;
+		List<MyJoinCandidate> batch = new ArrayList<MyJoinCandidate>();
+		// Only the top of the heap down to the threshold is visited.
+		TIntArrayList stack = new TIntArrayList();
+		stack.add(0);
+		while (!stack.isEmpty()) {
+			int pos = stack.removeAt(stack.size() - 1);
+			if (pos >= allJcs.size()) {
+				continue;
+			}
+			int t = allJcs.get(pos);
+			MyJoinCandidate jc = jcs[t];
+			if (jc.improvement < threshold) {
+				continue;
+			}
+			stack.add(2 * pos + 1);
+			stack.add(2 * pos + 2);
+			if (jc.j > t && allJcs.contains(jc.j) && jcs[jc.j].j == t) {
+				// The topic that would come first in allJcs survives like in
+				// an exact step.
+				MyJoinCandidate other = jcs[jc.j];
+				batch.add(jc.compareTo(other) <= 0 ? jc : other);
+			}
+		}
+		int n = Math.min(batch.size(), nTopics[0] - minTopics);
+		if (n < 2) {
+			return false;
+		}
+		Collections.sort(batch);
+		final MyJoinCandidate[] joins = batch.subList(0, n).toArray(
+				new MyJoinCandidate[n]);
+
+		// Pairs are disjoint, so their frequencies can be joined
+		// concurrently.
+		sumOverRanges(n, new RangeTask() {
+			@Override
+			public int compute(int start, int end) {
+				for (int k = start; k < end; k++) {
+					topicFrequencyPerDocuments[joins[k].i]
+							.addAll(topicFrequencyPerDocuments[joins[k].j]);
+				}
+				return 0;
+			}
+		});
+		// Topics whose best partner has changed or is gone.
+		boolean[] involved = new boolean[maxTopics];
+		for (MyJoinCandidate jc : joins) {
+			involved[jc.i] = true;
+			involved[jc.j] = true;
+			allJcs.remove(jc.i);
+			allJcs.remove(jc.j);
+			joinTopicsExceptFrequencies(jc, solutionListener);
+			jcs[jc.j] = null;
+		}
+		if (partnerLists != null) {
+			partnerLists.invalidateAll();
+		}
+		updateJoinCandidatesAfterBatch(joins, involved);
+		batchRounds++;
+		batchMerges += n;
+		checkpointIfDue();
+		return true;
+	}
+
+	// Computes the best partners of the joined topics and, for all other
+	// topics, the best partner among the joined topics. Every joined topic is
+	// done by one task, each task keeps its own best joined partner per
+	// topic.
+	private void updateJoinCandidatesAfterBatch(
+			final MyJoinCandidate[] joins, boolean[] involved) {
+		int nTasks = pool == null ? 1 : Math.min(threads, joins.length);
+		final int[][] bestPartners = new int[nTasks][];
+		final double[][] bestLikelihoods = new double[nTasks][];
+		final double[][] bestImprovements = new double[nTasks][];
+		final AtomicInteger nextJoin = new AtomicInteger();
+		sumOverRanges(nTasks, new RangeTask() {
+			@Override
+			public int compute(int start, int end) {
+				for (int task = start; task < end; task++) {
+					int[] partners = new int[maxTopics];
+					double[] likelihoods = new double[maxTopics];
+					double[] improvements = new double[maxTopics];
+					Arrays.fill(improvements, Double.NEGATIVE_INFINITY);
+					int k;
+					while ((k = nextJoin.getAndIncrement()) < joins.length) {
+						updateJoinCandidateAfterBatch(joins[k], partners,
+								likelihoods, improvements);
+					}
+					bestPartners[task] = partners;
+					bestLikelihoods[task] = likelihoods;
+					bestImprovements[task] = improvements;
+				}
+				return 0;
+			}
+		});
+		pairComputations += ((long) joins.length) * (liveTopics.size() - 1);
+
+		for (int k = 0; k < liveTopics.size(); k++) {
+			int t = liveTopics.get(k);
+			if (!allJcs.contains(t)) {
+				continue;
+			}
+			int bestPartner = -1;
+			double bestLikelihood = 0;
+			double bestImprovement = Double.NEGATIVE_INFINITY;
+			for (int task = 0; task < nTasks; task++) {
+				double improvement = bestImprovements[task][t];
+				int partner = bestPartners[task][t];
+				if (improvement > bestImprovement
+						|| (improvement == bestImprovement && partner < bestPartner)) {
+					bestPartner = partner;
+					bestLikelihood = bestLikelihoods[task][t];
+					bestImprovement = improvement;
+				}
+			}
+			// Same rules as in updateJoinCandidates().
+			MyJoinCandidate jc2 = jcs[t];
+			if (bestImprovement > jc2.improvement
+					|| (bestImprovement == jc2.improvement && bestPartner < jc2.j)) {
+				jc2.init(bestPartner, bestLikelihood, bestImprovement);
+				allJcs.update(t);
+			} else if (jc2.j != -1 && involved[jc2.j]) {
+				if (!deferJCUpdates) {
+					updateJoinCandidateForTopic(jc2);
+					allJcs.update(t);
+					jcUpdates++;
+				} else {
+					jc2.j = -1;
+				}
+			}
+		}
+		for (MyJoinCandidate jc : joins) {
+			allJcs.add(jc.i);
+		}
+	}
+
+	// Scans all other topics for the joined topic jc.i. Also keeps the best
+	// joined partner for every topic that was not joined.
+	private void updateJoinCandidateAfterBatch(MyJoinCandidate jc,
+			int[] partners, double[] likelihoods, double[] improvements) {
+		int i = jc.i;
+		double bestImprovement = Double.NEGATIVE_INFINITY;
+		double bestLikelihood = 0;
+		int bestJ = -1;
+		for (int k = 0; k < liveTopics.size(); k++) {
+			int t = liveTopics.get(k);
+			if (t == i) {
+				continue;
+			}
+			double newLikelihood = computeTwoTopicLogLikelihood(i, t);
+			double newImprovement = improvement(i, t, newLikelihood);
+			if (newImprovement > bestImprovement
+					|| (newImprovement == bestImprovement && t < bestJ)) {
+				bestImprovement = newImprovement;
+				bestLikelihood = newLikelihood;
+				bestJ = t;
+			}
+			// The best joined partner of t.
+			if (newImprovement > improvements[t]
+					|| (newImprovement == improvements[t] && i < partners[t])) {
+				partners[t] = i;
+				likelihoods[t] = newLikelihood;
+				improvements[t] = newImprovement;
+			}
+		}
+		jc.init(i, bestJ, bestLikelihood, bestImprovement);
 	}
 
 	protected MyJoinCandidate getBestJoinCandidate() {
-		return allJcs.poll();
+		int topic = allJcs.peek();
+		allJcs.remove(topic);
+		return jcs[topic];
 	}
 
 	public int getJCUpdates() {
 		return jcUpdates;
 	}
 
+	// Number of partners skipped or given up during rescans, see
+	// setPruneJCUpdates(). These are not part of getPairComputations().
+	public long getJCPrunes() {
+		return jcPrunes;
+	}
+
+	// Number of join candidate updates that were served by the partner lists
+	// instead of a rescan, see setPartnerListSize().
+	public int getPartnerListRepairs() {
+		return partnerListRepairs;
+	}
+
+	// Tells the partner list of topic t that topic j was joined into topic i
+	// and gives the new join of t and i.
+	protected void updatePartnerList(int t, int i, int j,
+			double logLikelihood, double improvement) {
+		if (partnerLists != null && partnerLists.isValid(t)) {
+			partnerLists.remove(t, i);
+			partnerLists.remove(t, j);
+			partnerLists.offer(t, i, logLikelihood, improvement);
+		}
+	}
+
 	public int getMainLoopCount() {
 		return mainLoopCount;
 	}
 
+	public long getPairComputations() {
+		return pairComputations;
+	}
+
 	protected void updateJoinCandidateForTopic(MyJoinCandidate jc) {
+		if (partnerLists != null && partnerLists.hasBestPartner(jc.i)) {
+			jc.init(partnerLists.getBestPartner(jc.i),
+					partnerLists.getBestLogLikelihood(jc.i),
+					partnerLists.getBestImprovement(jc.i));
+			partnerListRepairs++;
+			return;
+		}
+		if (pruneJCUpdates) {
+			computeCandidateTwoTopicLogLikelihoods(jc.i, rescanLikelihoods);
+		} else {
+			computeTwoTopicLogLikelihoods(jc.i, rescanLikelihoods);
+		}
+		updateJoinCandidateForTopic(jc, rescanLikelihoods);
+	}
+
+	// Likelihoods of Double.NEGATIVE_INFINITY stand for partners that were
+	// pruned (see computeCandidateTwoTopicLogLikelihoods()). The partner list
+	// of the topic gets rebuilt on the way.
+	protected void updateJoinCandidateForTopic(MyJoinCandidate jc,
+			double[] likelihoods) {
 		double bestImprovement = Double.NEGATIVE_INFINITY;
 		double bestLikelihood = 0;
 		int bestJ = -1;
-		for (int j = 0; j < maxTopics; j++) {
-			if (j != jc.i && topics[j] != null) {
-				double newLikelihood = computeTwoTopicLogLikelihood(jc.i, j);
-				double newImprovement = newLikelihood
-						- topicLogLikelihoods[jc.i] - topicLogLikelihoods[j];
+		boolean pruned = false;
+		if (partnerLists != null) {
+			partnerLists.clear(jc.i);
+		}
+		for (int k = 0; k < liveTopics.size(); k++) {
+			int j = liveTopics.get(k);
+			if (j != jc.i) {
+				double newLikelihood = likelihoods[j];
+				double newImprovement = improvement(jc.i, j, newLikelihood);
+				if (partnerLists != null) {
+					if (newLikelihood == Double.NEGATIVE_INFINITY) {
+						pruned = true;
+					} else {
+						partnerLists.offer(jc.i, j, newLikelihood,
+								newImprovement);
+					}
+				}
 				if (newImprovement > bestImprovement
 						|| (newImprovement == bestImprovement && j < bestJ)) {
 					bestImprovement = newImprovement;
@@ -236,9 +936,263 @@ public class LowMemTopicGrouper<T> extends AbstractTopicGrouper<T> {
 				}
 			}
 		}
+		if (pruned) {
+			partnerLists.setIncomplete(jc.i);
+		}
 		jc.init(bestJ, bestLikelihood, bestImprovement);
 	}
 
+	// Sets likelihoods[j] to computeTwoTopicLogLikelihood(topic, j) for all
+	// other existing topics j. The computations only read the topic data, so
+	// with a pool they are spread over its threads.
+	protected void computeTwoTopicLogLikelihoods(final int topic,
+			final double[] likelihoods) {
+		if (pool == null || nTopics[0] < MIN_TOPICS_FOR_PARALLEL_UPDATE) {
+			pairComputations += computeTwoTopicLogLikelihoods(topic,
+					likelihoods, 0, liveTopics.size());
+			return;
+		}
+		pairComputations += sumOverRanges(liveTopics.size(), new RangeTask() {
+			@Override
+			public int compute(int start, int end) {
+				return computeTwoTopicLogLikelihoods(topic, likelihoods,
+						start, end);
+			}
+		});
+	}
+
+	// Returns the number of computed likelihoods for the topics at positions
+	// start to end - 1 in liveTopics.
+	private int computeTwoTopicLogLikelihoods(int topic, double[] likelihoods,
+			int start, int end) {
+		int n = 0;
+		for (int k = start; k < end; k++) {
+			int j = liveTopics.get(k);
+			if (j != topic) {
+				likelihoods[j] = computeTwoTopicLogLikelihood(topic, j);
+				n++;
+			}
+		}
+		return n;
+	}
+
+	// Like computeTwoTopicLogLikelihoods() but only for the partners that may
+	// become one of the best join partners of topic (as many as the partner
+	// lists keep), all others get Double.NEGATIVE_INFINITY. The partner with
+	// the highest improvement bound goes first, its improvement is the
+	// threshold to start with.
+	protected void computeCandidateTwoTopicLogLikelihoods(final int topic,
+			final double[] likelihoods) {
+		int seed = -1;
+		int n = 0;
+		for (int k = 0; k < liveTopics.size(); k++) {
+			int j = liveTopics.get(k);
+			if (j != topic) {
+				rescanBounds[j] = computeImprovementBound(topic, j);
+				if (seed == -1 || rescanBounds[j] > rescanBounds[seed]) {
+					seed = j;
+				}
+				n++;
+			}
+		}
+		if (seed == -1) {
+			return;
+		}
+		likelihoods[seed] = computeTwoTopicLogLikelihood(topic, seed);
+		final int fSeed = seed;
+		final double seedImprovement = improvement(topic, seed,
+				likelihoods[seed]);
+		final int k = partnerLists == null ? 1 : partnerLists.getK();
+		int pruned;
+		if (pool == null || nTopics[0] < MIN_TOPICS_FOR_PARALLEL_UPDATE) {
+			pruned = computeCandidateTwoTopicLogLikelihoods(topic,
+					likelihoods, fSeed, seedImprovement, k, 0,
+					liveTopics.size());
+		} else {
+			pruned = sumOverRanges(liveTopics.size(), new RangeTask() {
+				@Override
+				public int compute(int start, int end) {
+					return computeCandidateTwoTopicLogLikelihoods(topic,
+							likelihoods, fSeed, seedImprovement, k, start, end);
+				}
+			});
+		}
+		pairComputations += n - pruned;
+		jcPrunes += pruned;
+	}
+
+	// Returns the number of pruned partners. Every range keeps its own k best
+	// improvements, so the pruning does not depend on the other ranges.
+	private int computeCandidateTwoTopicLogLikelihoods(int topic,
+			double[] likelihoods, int seed, double seedImprovement, int k,
+			int start, int end) {
+		// The k best improvements so far in descending order.
+		double[] bestImprovements = new double[k];
+		Arrays.fill(bestImprovements, Double.NEGATIVE_INFINITY);
+		bestImprovements[0] = seedImprovement;
+		int pruned = 0;
+		for (int p = start; p < end; p++) {
+			int j = liveTopics.get(p);
+			if (j != topic && j != seed) {
+				double base = topicLogLikelihoods[topic]
+						+ topicLogLikelihoods[j];
+				int sizeSum = topicSizes[topic] + topicSizes[j];
+				double kthImprovement = bestImprovements[k - 1];
+				double threshold = kthImprovement
+						- PRUNE_TOLERANCE
+						* (Math.abs(base) + Math.abs(kthImprovement) + LogTable
+								.xLogX(sizeSum));
+				double newLikelihood = rescanBounds[j] < threshold ? Double.NEGATIVE_INFINITY
+						: computeTwoTopicLogLikelihood(topic, j, threshold
+								+ base);
+				likelihoods[j] = newLikelihood;
+				if (newLikelihood == Double.NEGATIVE_INFINITY) {
+					pruned++;
+				} else {
+					double newImprovement = improvement(topic, j,
+							newLikelihood);
+					int pos = k - 1;
+					if (newImprovement > bestImprovements[pos]) {
+						while (pos > 0
+								&& newImprovement > bestImprovements[pos - 1]) {
+							bestImprovements[pos] = bestImprovements[pos - 1];
+							pos--;
+						}
+						bestImprovements[pos] = newImprovement;
+					}
+				}
+			}
+		}
+		return pruned;
+	}
+
+	protected double computeImprovementBound(int topic1, int topic2) {
+		return computeImprovementBound(topicFrequencyPerDocuments[topic1],
+				topicSizes[topic1], topicFrequencyPerDocuments[topic2],
+				topicSizes[topic2]);
+	}
+
+	private interface RangeTask {
+		// Runs over the indices start to end - 1 (such as positions in
+		// liveTopics) and returns a count to be summed up over all ranges.
+		int compute(int start, int end);
+	}
+
+	// Splits 0 to n - 1 into ranges and runs the task for each range in the
+	// pool or directly if there is no pool.
+	private int sumOverRanges(int n, final RangeTask task) {
+		if (pool == null || n < 2) {
+			return task.compute(0, n);
+		}
+		int nTasks = Math.min(n, threads * 4);
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(
+				nTasks);
+		for (int k = 0; k < nTasks; k++) {
+			final int start = (int) (((long) n) * k / nTasks);
+			final int end = (int) (((long) n) * (k + 1) / nTasks);
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					return task.compute(start, end);
+				}
+			});
+		}
+		int sum = 0;
+		try {
+			for (Future<Integer> future : pool.invokeAll(tasks)) {
+				sum += future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return sum;
+	}
+
+	// Besides the counters and homonyms, only the join candidates of the
+	// topics in allJcs are needed. The heap order is total, so rebuilding the
+	// heap from them continues with exactly the same merges.
+	@Override
+	protected CheckpointSnapshot createSolverSnapshot() {
+		final int jcUpdates = this.jcUpdates;
+		final int mainLoopCount = this.mainLoopCount;
+		final long pairComputations = this.pairComputations;
+		final long jcPrunes = this.jcPrunes;
+		final int partnerListRepairs = this.partnerListRepairs;
+		final int[] homonyms = homonymHandler == null ? null
+				: homonymHandler.homonymList.toArray();
+		final int n = allJcs.size();
+		final int[] is = new int[n];
+		final int[] js = new int[n];
+		final double[] logLikelihoods = new double[n];
+		final double[] improvements = new double[n];
+		int k = 0;
+		for (int t = 0; t < maxTopics; t++) {
+			if (allJcs.contains(t)) {
+				is[k] = t;
+				js[k] = jcs[t].j;
+				logLikelihoods[k] = jcs[t].logLikelihood;
+				improvements[k] = jcs[t].improvement;
+				k++;
+			}
+		}
+		return new CheckpointSnapshot() {
+			@Override
+			public void write(DataOutput out) throws IOException {
+				out.writeInt(jcUpdates);
+				out.writeInt(mainLoopCount);
+				out.writeLong(pairComputations);
+				out.writeLong(jcPrunes);
+				out.writeInt(partnerListRepairs);
+				out.writeBoolean(homonyms != null);
+				if (homonyms != null) {
+					CheckpointIO.writeVarInts(out, homonyms, homonyms.length);
+				}
+				CheckpointIO.writeVarInt(out, n);
+				for (int k = 0; k < n; k++) {
+					CheckpointIO.writeVarInt(out, is[k]);
+					// -1 for candidates that need to be recomputed.
+					out.writeInt(js[k]);
+					out.writeDouble(logLikelihoods[k]);
+					out.writeDouble(improvements[k]);
+				}
+			}
+		};
+	}
+
+	@Override
+	protected void readSolverState(DataInput in) throws IOException {
+		jcUpdates = in.readInt();
+		mainLoopCount = in.readInt();
+		pairComputations = in.readLong();
+		jcPrunes = in.readLong();
+		partnerListRepairs = in.readInt();
+		// The partner lists are not part of the checkpoint, they get filled
+		// again by rescans.
+		if (partnerLists != null) {
+			partnerLists.invalidateAll();
+		}
+		if (in.readBoolean() != (homonymHandler != null)) {
+			throw new IOException(
+					"checkpoint does not match the homonym handling setting");
+		}
+		if (homonymHandler != null) {
+			homonymHandler.homonymList.clear();
+			homonymHandler.homonymList.add(CheckpointIO.readVarInts(in));
+		}
+		allJcs.clear();
+		Arrays.fill(jcs, null);
+		int n = CheckpointIO.readVarInt(in);
+		for (int k = 0; k < n; k++) {
+			int i = CheckpointIO.readVarInt(in);
+			jcs[i] = new MyJoinCandidate(i, in.readInt(), in.readDouble(),
+					in.readDouble());
+			allJcs.add(i);
+		}
+	}
+
 	//
 	// Homonym handling (Experimental)
 	//
@@ -361,12 +1315,11 @@ public class LowMemTopicGrouper<T> extends AbstractTopicGrouper<T> {
 			totalLogLikelihood += v - topicLogLikelihoods[tid];
 			topicLogLikelihoods[tid] = v;
 
-			for (int j = 0; j < documents.size(); j++) {
-				topicFrequencyPerDocuments[tid][j] -= documents.get(j)
-						.getWordFrequency(wordIndex);
-			}
+			DocFrequencies wordFrs = createWordDocFrequencies(wordIndex);
+			topicFrequencyPerDocuments[tid].removeAll(wordFrs);
+			wordFrs.release();
 
-			sumWordFrTimesLogWordFrByTopic[tid] -= fr * Math.log(fr);
+			sumWordFrTimesLogWordFrByTopic[tid] -= LogTable.xLogX(fr);
 		}
 
 		protected TIntCollection getHomonyms() {
@@ -379,10 +1332,10 @@ public class LowMemTopicGrouper<T> extends AbstractTopicGrouper<T> {
 			int fr1 = documentProvider.getWordFrequency(word1);
 			int fr2 = documentProvider.getWordFrequency(word2);
 
-			sum += fr1 * Math.log(fr1);
-			sum += fr2 * Math.log(fr2);
+			sum += LogTable.xLogX(fr1);
+			sum += LogTable.xLogX(fr2);
 			int sizeSum = fr1 + fr2;
-			sum -= (sizeSum) * Math.log(sizeSum);
+			sum -= LogTable.xLogX(sizeSum);
 
 			return sum;
 		}
@@ -0,0 +1,154 @@
+package org.hhn.topicgrouper.tg.impl;
+
+/**
+ * Frequencies per document in a {@link MappedFrequencyStore} instead of the
+ * heap. The entries are a region of alternating document indices and
+ * frequencies starting at {@link #getAddress()}, so a merge join reads them
+ * strictly sequentially. {@link #release()} must be called once the
+ * frequencies are no longer needed.
+ */
+public class MappedDocFrequencies extends DocFrequencies {
+	private final MappedFrequencyStore store;
+	private final MappedIntArray array;
+	// Changed by the store on compaction.
+	long address;
+	// Ints allocated for the region (>= 2 * size).
+	int length;
+	// Position in the list of regions of the store.
+	int storeIndex;
+
+	MappedDocFrequencies(MappedFrequencyStore store, long address,
+			int length, int size, int maxFrequency) {
+		super(size, maxFrequency);
+		this.store = store;
+		this.array = store.getArray();
+		this.address = address;
+		this.length = length;
+		store.register(this);
+	}
+
+	public MappedIntArray getArray() {
+		return array;
+	}
+
+	public long getAddress() {
+		return address;
+	}
+
+	// Address after the last entry.
+	public long getEndAddress() {
+		return address + 2L * size;
+	}
+
+	@Override
+	public int getDocIndex(int pos) {
+		return array.get(address + 2L * pos);
+	}
+
+	@Override
+	public int getFrequency(int pos) {
+		return array.get(address + 2L * pos + 1);
+	}
+
+	@Override
+	public int get(int docIndex) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midDocIndex = getDocIndex(mid);
+			if (midDocIndex < docIndex) {
+				low = mid + 1;
+			} else if (midDocIndex > docIndex) {
+				high = mid - 1;
+			} else {
+				return getFrequency(mid);
+			}
+		}
+		return 0;
+	}
+
+	// Same as in DocFrequencies. A full region moves to a new region with
+	// half as much space again.
+	@Override
+	public void add(int docIndex, int frequency) {
+		if (size > 0 && getDocIndex(size - 1) >= docIndex) {
+			throw new IllegalArgumentException("document index " + docIndex
+					+ " is not in ascending order");
+		}
+		if (frequency == 0) {
+			return;
+		}
+		if (2 * (size + 1) > length) {
+			int newLength = 2 * Math.max(4, size + (size >> 1));
+			long to = store.allocate(newLength);
+			array.copy(address, to, 2 * size);
+			store.release(length);
+			address = to;
+			length = newLength;
+		}
+		array.set(address + 2L * size, docIndex);
+		array.set(address + 2L * size + 1, frequency);
+		size++;
+		maxFrequency = Math.max(maxFrequency, frequency);
+	}
+
+	// The copy is on the heap.
+	@Override
+	public DocFrequencies snapshot() {
+		int[] docIndices = new int[size];
+		int[] frequencies = new int[size];
+		for (int i = 0; i < size; i++) {
+			docIndices[i] = getDocIndex(i);
+			frequencies[i] = getFrequency(i);
+		}
+		return new DocFrequencies(docIndices, frequencies);
+	}
+
+	@Override
+	public void release() {
+		store.unregister(this);
+		store.release(length);
+	}
+
+	// Same as in DocFrequencies, but the result goes to a new region.
+	@Override
+	protected void merge(DocFrequencies other, int sign) {
+		int otherSize = other.size();
+		int newLength = 2 * (size + otherSize);
+		long to = store.allocate(newLength);
+		long p = to;
+		int newMaxFrequency = 0;
+		int p1 = 0, p2 = 0;
+		int d1 = size > 0 ? getDocIndex(0) : 0;
+		int d2 = otherSize > 0 ? other.getDocIndex(0) : 0;
+		while (p1 < size || p2 < otherSize) {
+			int docIndex;
+			int fr;
+			if (p2 == otherSize || (p1 < size && d1 < d2)) {
+				docIndex = d1;
+				fr = getFrequency(p1++);
+				d1 = p1 < size ? getDocIndex(p1) : 0;
+			} else if (p1 == size || d2 < d1) {
+				docIndex = d2;
+				fr = sign * other.getFrequency(p2++);
+				d2 = p2 < otherSize ? other.getDocIndex(p2) : 0;
+			} else {
+				docIndex = d1;
+				fr = getFrequency(p1++) + sign * other.getFrequency(p2++);
+				d1 = p1 < size ? getDocIndex(p1) : 0;
+				d2 = p2 < otherSize ? other.getDocIndex(p2) : 0;
+			}
+			if (fr != 0) {
+				array.set(p++, docIndex);
+				array.set(p++, fr);
+				newMaxFrequency = Math.max(newMaxFrequency, fr);
+			}
+		}
+		store.release(length);
+		address = to;
+		length = newLength;
+		size = (int) ((p - to) / 2);
+		maxFrequency = newMaxFrequency;
+	}
+}
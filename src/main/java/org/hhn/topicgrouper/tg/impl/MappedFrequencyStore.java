@@ -0,0 +1,143 @@
+package org.hhn.topicgrouper.tg.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Storage for {@link MappedDocFrequencies} in a {@link MappedIntArray}. Each
+ * frequency list is a region of alternating document indices and frequencies.
+ * Merges never write in place but append a new region, so the array only
+ * grows until {@link #compactIfNeeded()} moves the live regions together
+ * again.
+ */
+public class MappedFrequencyStore {
+	private final MappedIntArray array;
+	private final long minGarbage;
+	private final List<MappedDocFrequencies> regions;
+	// End of the last region.
+	private long end;
+	// Ints in regions of live frequency lists.
+	private long live;
+	private int compactions;
+
+	public MappedFrequencyStore(MappedIntArray array) {
+		this(array, 1 << 20);
+	}
+
+	// Compaction happens once the garbage exceeds the live ints and
+	// minGarbage.
+	public MappedFrequencyStore(MappedIntArray array, long minGarbage) {
+		this.array = array;
+		this.minGarbage = minGarbage;
+		regions = new ArrayList<MappedDocFrequencies>();
+	}
+
+	public MappedIntArray getArray() {
+		return array;
+	}
+
+	public long getSize() {
+		return end;
+	}
+
+	public long getLiveSize() {
+		return live;
+	}
+
+	public int getCompactions() {
+		return compactions;
+	}
+
+	// Copies size (document index, frequency) pairs starting at address from
+	// source.
+	public MappedDocFrequencies create(MappedIntArray source, long address,
+			int size) {
+		long to = allocate(2 * size);
+		int maxFrequency = 0;
+		for (long i = 0; i < 2 * size; i += 2) {
+			array.set(to + i, source.get(address + i));
+			int fr = source.get(address + i + 1);
+			array.set(to + i + 1, fr);
+			maxFrequency = Math.max(maxFrequency, fr);
+		}
+		return new MappedDocFrequencies(this, to, 2 * size, size,
+				maxFrequency);
+	}
+
+	public MappedDocFrequencies create(DocFrequencies frs) {
+		int size = frs.size();
+		long to = allocate(2 * size);
+		for (int i = 0; i < size; i++) {
+			array.set(to + 2 * i, frs.getDocIndex(i));
+			array.set(to + 2 * i + 1, frs.getFrequency(i));
+		}
+		return new MappedDocFrequencies(this, to, 2 * size, size,
+				frs.getMaxFrequency());
+	}
+
+	synchronized long allocate(int length) {
+		long address = end;
+		end += length;
+		live += length;
+		array.ensureCapacity(end);
+		return address;
+	}
+
+	synchronized void release(int length) {
+		live -= length;
+	}
+
+	synchronized void register(MappedDocFrequencies frs) {
+		frs.storeIndex = regions.size();
+		regions.add(frs);
+	}
+
+	synchronized void unregister(MappedDocFrequencies frs) {
+		MappedDocFrequencies last = regions.remove(regions.size() - 1);
+		if (last != frs) {
+			regions.set(frs.storeIndex, last);
+			last.storeIndex = frs.storeIndex;
+		}
+		frs.storeIndex = -1;
+	}
+
+	// Moves the live regions to the start of the array (in the order of
+	// their addresses, so no region overwrites one that has not been moved
+	// yet) if the garbage is large enough. Must not run concurrently with any
+	// access to the frequency lists.
+	public synchronized boolean compactIfNeeded() {
+		long garbage = end - live;
+		if (garbage <= live || garbage <= minGarbage) {
+			return false;
+		}
+		List<MappedDocFrequencies> sorted = new ArrayList<MappedDocFrequencies>(
+				regions);
+		Collections.sort(sorted, new Comparator<MappedDocFrequencies>() {
+			@Override
+			public int compare(MappedDocFrequencies f1, MappedDocFrequencies f2) {
+				return Long.compare(f1.address, f2.address);
+			}
+		});
+		long to = 0;
+		for (MappedDocFrequencies frs : sorted) {
+			// Unused space at the end of a region does not get copied.
+			int length = 2 * frs.size();
+			if (frs.address != to) {
+				array.copy(frs.address, to, length);
+				frs.address = to;
+			}
+			frs.length = length;
+			to += length;
+		}
+		end = to;
+		live = to;
+		compactions++;
+		return true;
+	}
+
+	public void close() {
+		array.close();
+	}
+}
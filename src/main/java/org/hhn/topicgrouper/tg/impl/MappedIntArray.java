@@ -0,0 +1,112 @@
+package org.hhn.topicgrouper.tg.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Growable array of ints in a memory mapped temporary file, so that the
+ * operating system and not the Java heap decides which parts are in memory.
+ * A single mapping is limited to 2 GB, so the file is mapped in segments of
+ * 2^segmentShift ints. Indices are longs and a range of ints may span
+ * segments.
+ * <p>
+ * Reads may happen concurrently, but growing the array must not run
+ * concurrently with writes to the same range.
+ */
+public class MappedIntArray {
+	// 2^28 ints, i.e. 1 GB per segment.
+	public static final int DEFAULT_SEGMENT_SHIFT = 28;
+
+	private final File file;
+	private final RandomAccessFile randomAccessFile;
+	private final FileChannel channel;
+	private final int segmentShift;
+	private final long segmentMask;
+	private volatile IntBuffer[] segments;
+
+	public MappedIntArray(File directory) {
+		this(directory, DEFAULT_SEGMENT_SHIFT);
+	}
+
+	public MappedIntArray(File directory, int segmentShift) {
+		if (segmentShift < 1 || segmentShift > 28) {
+			throw new IllegalArgumentException(
+					"segmentShift must be in [1, 28]");
+		}
+		this.segmentShift = segmentShift;
+		this.segmentMask = (1L << segmentShift) - 1;
+		segments = new IntBuffer[0];
+		try {
+			file = File.createTempFile("topicgrouper", ".ints", directory);
+			randomAccessFile = new RandomAccessFile(file, "rw");
+			channel = randomAccessFile.getChannel();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		// Mappings stay valid after the file got deleted on most systems,
+		// otherwise it goes when the JVM exits.
+		if (!file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+
+	public int get(long index) {
+		return segments[(int) (index >>> segmentShift)]
+				.get((int) (index & segmentMask));
+	}
+
+	public void set(long index, int value) {
+		segments[(int) (index >>> segmentShift)].put(
+				(int) (index & segmentMask), value);
+	}
+
+	public long getCapacity() {
+		return ((long) segments.length) << segmentShift;
+	}
+
+	// Maps more segments until the array holds at least capacity ints.
+	public synchronized void ensureCapacity(long capacity) {
+		IntBuffer[] current = segments;
+		int n = (int) ((capacity + segmentMask) >>> segmentShift);
+		if (n <= current.length) {
+			return;
+		}
+		IntBuffer[] newSegments = Arrays.copyOf(current, n);
+		long segmentBytes = 4L << segmentShift;
+		try {
+			for (int i = current.length; i < n; i++) {
+				newSegments[i] = channel
+						.map(FileChannel.MapMode.READ_WRITE,
+								i * segmentBytes, segmentBytes)
+						.order(ByteOrder.nativeOrder()).asIntBuffer();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		segments = newSegments;
+	}
+
+	// Copies length ints in ascending order, so the ranges may overlap if
+	// to <= from.
+	public void copy(long from, long to, long length) {
+		for (long i = 0; i < length; i++) {
+			set(to + i, get(from + i));
+		}
+	}
+
+	// Closes the file. The array must not be used afterwards.
+	public synchronized void close() {
+		segments = new IntBuffer[0];
+		try {
+			randomAccessFile.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,48 @@
+package org.hhn.topicgrouper.tg.impl;
+
+import java.util.List;
+
+import org.hhn.topicgrouper.doc.Document;
+
+/**
+ * Inverted index with the postings in a {@link MappedIntArray} instead of the
+ * heap. Document index and word frequency of the posting at position pos are
+ * at the addresses 2 * pos and 2 * pos + 1, so the postings of a word are
+ * read strictly sequentially. Only the offsets per word stay on the heap.
+ */
+public class MappedInvertedIndex extends InvertedIndex {
+	private final MappedIntArray postings;
+
+	public <T> MappedInvertedIndex(List<Document<T>> documents, int nWords,
+			MappedIntArray postings) {
+		super(countPostings(documents, nWords));
+		this.postings = postings;
+		postings.ensureCapacity(2L * getNumberOfPostings());
+		addPostings(documents);
+	}
+
+	public MappedIntArray getPostings() {
+		return postings;
+	}
+
+	// Address of the posting at position pos.
+	public long getAddress(int pos) {
+		return 2L * pos;
+	}
+
+	@Override
+	protected void setPosting(int pos, int docIndex, int wordFr) {
+		postings.set(2L * pos, docIndex);
+		postings.set(2L * pos + 1, wordFr);
+	}
+
+	@Override
+	public int getDocIndex(int pos) {
+		return postings.get(2L * pos);
+	}
+
+	@Override
+	public int getWordFr(int pos) {
+		return postings.get(2L * pos + 1);
+	}
+}
@@ -0,0 +1,167 @@
+package org.hhn.topicgrouper.tg.impl;
+
+import java.util.Arrays;
+
+/**
+ * The k best join partners per topic with the log likelihood and the
+ * improvement of each join, ordered like join candidates (highest improvement
+ * first, lowest partner on ties). Besides the list, every topic has a cut: All
+ * partners that are not listed come after the cut in that order. As long as
+ * all changes of partners get reported (see {@link #remove(int, int)} and
+ * {@link #offer(int, int, double, double)}), the head of a non empty list is
+ * the exact best join partner of its topic.
+ * <p>
+ * A list is invalid until it is filled via {@link #clear(int)} and offers of
+ * all partners of the topic.
+ */
+public class PartnerLists {
+	private final int k;
+	private final int[] partners;
+	private final double[] logLikelihoods;
+	private final double[] improvements;
+	// Size of the list per topic or -1 if the list is invalid.
+	private final int[] sizes;
+	private final int[] cutPartners;
+	private final double[] cutImprovements;
+
+	public PartnerLists(int topics, int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be >= 1");
+		}
+		this.k = k;
+		partners = new int[topics * k];
+		logLikelihoods = new double[topics * k];
+		improvements = new double[topics * k];
+		sizes = new int[topics];
+		cutPartners = new int[topics];
+		cutImprovements = new double[topics];
+		invalidateAll();
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public boolean isValid(int topic) {
+		return sizes[topic] >= 0;
+	}
+
+	// True if the head of the list is the best partner of the topic.
+	public boolean hasBestPartner(int topic) {
+		return sizes[topic] > 0;
+	}
+
+	public void invalidate(int topic) {
+		sizes[topic] = -1;
+	}
+
+	public void invalidateAll() {
+		Arrays.fill(sizes, -1);
+	}
+
+	// Makes the list valid and empty, to be followed by offers for all
+	// partners of the topic.
+	public void clear(int topic) {
+		sizes[topic] = 0;
+		cutPartners[topic] = Integer.MAX_VALUE;
+		cutImprovements[topic] = Double.NEGATIVE_INFINITY;
+	}
+
+	// Tells the list that there are unlisted partners which are known to come
+	// after the last listed one.
+	public void setIncomplete(int topic) {
+		int size = sizes[topic];
+		if (size > 0) {
+			int last = topic * k + size - 1;
+			setCut(topic, partners[last], improvements[last]);
+		}
+	}
+
+	public int getBestPartner(int topic) {
+		return partners[topic * k];
+	}
+
+	public double getBestLogLikelihood(int topic) {
+		return logLikelihoods[topic * k];
+	}
+
+	public double getBestImprovement(int topic) {
+		return improvements[topic * k];
+	}
+
+	// Adds the partner if it comes before the cut. A partner that drops out
+	// of a full list moves the cut.
+	public void offer(int topic, int partner, double logLikelihood,
+			double improvement) {
+		int size = sizes[topic];
+		if (size < 0
+				|| !before(partner, improvement, cutPartners[topic],
+						cutImprovements[topic])) {
+			return;
+		}
+		int offset = topic * k;
+		int pos = size;
+		if (size == k) {
+			int last = offset + k - 1;
+			if (!before(partner, improvement, partners[last],
+					improvements[last])) {
+				setCut(topic, partner, improvement);
+				return;
+			}
+			setCut(topic, partners[last], improvements[last]);
+			pos = k - 1;
+		} else {
+			sizes[topic] = size + 1;
+		}
+		while (pos > 0
+				&& before(partner, improvement, partners[offset + pos - 1],
+						improvements[offset + pos - 1])) {
+			set(offset + pos, partners[offset + pos - 1],
+					logLikelihoods[offset + pos - 1],
+					improvements[offset + pos - 1]);
+			pos--;
+		}
+		set(offset + pos, partner, logLikelihood, improvement);
+	}
+
+	// Removes the partner (if listed). Must be called for every partner that
+	// changes or goes away.
+	public void remove(int topic, int partner) {
+		int size = sizes[topic];
+		int offset = topic * k;
+		for (int pos = 0; pos < size; pos++) {
+			if (partners[offset + pos] == partner) {
+				for (int p = offset + pos; p < offset + size - 1; p++) {
+					set(p, partners[p + 1], logLikelihoods[p + 1],
+							improvements[p + 1]);
+				}
+				sizes[topic] = size - 1;
+				return;
+			}
+		}
+	}
+
+	private void setCut(int topic, int partner, double improvement) {
+		if (before(partner, improvement, cutPartners[topic],
+				cutImprovements[topic])) {
+			cutPartners[topic] = partner;
+			cutImprovements[topic] = improvement;
+		}
+	}
+
+	private void set(int pos, int partner, double logLikelihood,
+			double improvement) {
+		partners[pos] = partner;
+		logLikelihoods[pos] = logLikelihood;
+		improvements[pos] = improvement;
+	}
+
+	// Same order as in JoinCandidateQueue.
+	private static boolean before(int partner1, double improvement1,
+			int partner2, double improvement2) {
+		if (improvement1 == improvement2) {
+			return partner1 < partner2;
+		}
+		return improvement1 > improvement2;
+	}
+}
@@ -0,0 +1,142 @@
+package org.hhn.topicgrouper.tg.report;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.iterator.TIntIterator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.hhn.topicgrouper.tg.TGSolution;
+import org.hhn.topicgrouper.tg.TGSolutionListener;
+
+/**
+ * Writes a solver run to a binary file, which {@link MergeLogReplayer} can
+ * pass on to any listener later without solving again. The header holds the
+ * solution passed to initialized(), followed by one record of
+ * {@link #RECORD_SIZE} bytes per merge: new topic, old topic, sizes of both
+ * topics, number of topics, flags (ints), improvement, log likelihood of the
+ * joined topic and total log likelihood (doubles). Records go through a
+ * buffer, so the overhead per merge is a few field writes.
+ */
+public class BinaryMergeLogWriter<T> implements TGSolutionListener<T> {
+	public static final int MAGIC = 0x54474D4C; // "TGML"
+	public static final int VERSION = 1;
+	public static final int RECORD_SIZE = 6 * 4 + 3 * 8;
+	// Set in the flags of a merge once the solution has homonyms. Homonym
+	// changes themselves are not logged.
+	public static final int FLAG_HOMONYMS = 1;
+
+	private final File file;
+	private int maxTopics;
+	private int documents;
+	private DataOutputStream out;
+
+	public BinaryMergeLogWriter(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public void beforeInitialization(int maxTopics, int documents) {
+		this.maxTopics = maxTopics;
+		this.documents = documents;
+	}
+
+	@Override
+	public void initalizing(double percentage) {
+	}
+
+	@Override
+	public void initialized(TGSolution<T> initialSolution) {
+		close();
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(file), 1 << 16));
+			writeHeader(initialSolution);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	protected void writeHeader(TGSolution<T> solution) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(maxTopics);
+		out.writeInt(documents);
+		int nWords = solution.getVocab().getNumberOfWords();
+		out.writeInt(nWords);
+		out.writeInt(solution.getSize());
+		// Counted, since solvers set the number of topics only after
+		// initialized().
+		TIntCollection[] topics = solution.getTopics();
+		int nTopics = 0;
+		for (int i = 0; i < maxTopics; i++) {
+			if (topics[i] != null) {
+				nTopics++;
+			}
+		}
+		out.writeInt(nTopics);
+		out.writeDouble(solution.getTotalLogLikelhood());
+		for (int i = 0; i < nWords; i++) {
+			out.writeInt(solution.getGlobalWordFrequency(i));
+		}
+		double[] logLikelihoods = solution.getTopicLogLikelihoods();
+		for (int i = 0; i < maxTopics; i++) {
+			if (topics[i] == null) {
+				out.writeInt(-1);
+			} else {
+				out.writeInt(topics[i].size());
+				TIntIterator it = topics[i].iterator();
+				while (it.hasNext()) {
+					out.writeInt(it.next());
+				}
+				out.writeInt(solution.getTopicFrequency(i));
+				out.writeDouble(logLikelihoods[i]);
+			}
+		}
+	}
+
+	@Override
+	public void updatedSolution(int newTopicIndex, int oldTopicIndex,
+			double improvement, int t1Size, int t2Size, TGSolution<T> solution) {
+		TIntCollection homonyms = solution.getHomonymns();
+		try {
+			out.writeInt(newTopicIndex);
+			out.writeInt(oldTopicIndex);
+			out.writeInt(t1Size);
+			out.writeInt(t2Size);
+			out.writeInt(solution.getNumberOfTopics());
+			out.writeInt(homonyms != null && !homonyms.isEmpty() ? FLAG_HOMONYMS
+					: 0);
+			out.writeDouble(improvement);
+			out.writeDouble(solution.getTopicLogLikelihoods()[newTopicIndex]);
+			out.writeDouble(solution.getTotalLogLikelhood());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void done() {
+		close();
+	}
+
+	// Closes the file if a run did not get to done().
+	public void close() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			} finally {
+				out = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package org.hhn.topicgrouper.tg.report;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.hhn.topicgrouper.doc.DocumentProvider.Vocab;
+import org.hhn.topicgrouper.tg.TGSolutionListener;
+import org.hhn.topicgrouper.tg.TGSolutionReplica;
+
+/**
+ * Passes a run logged by {@link BinaryMergeLogWriter} on to a listener as if
+ * the solver was running: beforeInitialization(), initialized(), one
+ * updatedSolution() per merge and done() (initalizing() is not logged). The
+ * solution is rebuilt merge by merge from the log (see
+ * {@link TGSolutionReplica}), so the words are the only thing needed from
+ * outside (via the vocab of the logged run). A truncated last record (from a
+ * run that did not finish) is ignored. Homonyms are not part of the log, so
+ * getHomonymns() of the solution is always null (see {@link #hasHomonyms()}).
+ */
+public class MergeLogReplayer<T> {
+	private final File file;
+	private final Vocab<T> vocab;
+	private int merges;
+	private boolean homonyms;
+	// As of the header of the last replay.
+	private int maxTopics;
+	private int documents;
+
+	public MergeLogReplayer(File file, Vocab<T> vocab) {
+		this.file = file;
+		this.vocab = vocab;
+	}
+
+	// Number of merges passed on by the last replay.
+	public int getMerges() {
+		return merges;
+	}
+
+	// True if the logged solution had homonyms, which the replay leaves out.
+	public boolean hasHomonyms() {
+		return homonyms;
+	}
+
+	public void replay(TGSolutionListener<T> listener) throws IOException {
+		replay(listener, 1);
+	}
+
+	// Stops once the solution is down to minTopics topics.
+	public void replay(TGSolutionListener<T> listener, int minTopics)
+			throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file), 1 << 16));
+		try {
+			TGSolutionReplica<T> solution = readHeader(in);
+			listener.beforeInitialization(maxTopics, documents);
+			listener.initialized(solution);
+			merges = 0;
+			homonyms = false;
+			byte[] record = new byte[BinaryMergeLogWriter.RECORD_SIZE];
+			ByteBuffer buffer = ByteBuffer.wrap(record);
+			while (solution.getNumberOfTopics() > minTopics) {
+				try {
+					in.readFully(record);
+				} catch (EOFException e) {
+					break;
+				}
+				buffer.clear();
+				int newTopic = buffer.getInt();
+				int oldTopic = buffer.getInt();
+				int t1Size = buffer.getInt();
+				int t2Size = buffer.getInt();
+				int nTopics = buffer.getInt();
+				int flags = buffer.getInt();
+				double improvement = buffer.getDouble();
+				double logLikelihood = buffer.getDouble();
+				double totalLogLikelihood = buffer.getDouble();
+				solution.join(newTopic, oldTopic, t1Size + t2Size,
+						logLikelihood, totalLogLikelihood, nTopics);
+				homonyms |= (flags & BinaryMergeLogWriter.FLAG_HOMONYMS) != 0;
+				merges++;
+				listener.updatedSolution(newTopic, oldTopic, improvement,
+						t1Size, t2Size, solution);
+			}
+			listener.done();
+		} finally {
+			in.close();
+		}
+	}
+
+	protected TGSolutionReplica<T> readHeader(DataInputStream in)
+			throws IOException {
+		if (in.readInt() != BinaryMergeLogWriter.MAGIC) {
+			throw new IOException("Not a merge log: " + file);
+		}
+		int version = in.readInt();
+		if (version != BinaryMergeLogWriter.VERSION) {
+			throw new IOException("Unsupported merge log version " + version);
+		}
+		maxTopics = in.readInt();
+		documents = in.readInt();
+		int nWords = in.readInt();
+		if (nWords != vocab.getNumberOfWords()) {
+			throw new IOException("Merge log is for " + nWords
+					+ " words, but the vocab has " + vocab.getNumberOfWords());
+		}
+		TGSolutionReplica<T> solution = new TGSolutionReplica<T>(vocab,
+				maxTopics);
+		solution.setSize(in.readInt());
+		solution.setNumberOfTopics(in.readInt());
+		solution.setTotalLogLikelihood(in.readDouble());
+		for (int i = 0; i < nWords; i++) {
+			solution.setGlobalWordFrequency(i, in.readInt());
+		}
+		for (int i = 0; i < maxTopics; i++) {
+			int size = in.readInt();
+			if (size >= 0) {
+				TIntList topic = new TIntArrayList(size);
+				for (int k = 0; k < size; k++) {
+					topic.add(in.readInt());
+				}
+				int frequency = in.readInt();
+				solution.setTopic(i, topic, frequency, in.readDouble());
+			}
+		}
+		return solution;
+	}
+}
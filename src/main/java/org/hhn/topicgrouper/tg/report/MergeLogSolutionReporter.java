@@ -0,0 +1,116 @@
+package org.hhn.topicgrouper.tg.report;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+
+import org.hhn.topicgrouper.tg.TGSolution;
+import org.hhn.topicgrouper.tg.TGSolutionListener;
+
+/**
+ * Records the sequence of merges of a solver run in memory: For each merge the
+ * surviving and the removed topic, the improvement and the log likelihood of
+ * the joined topic. Initial topics are identified by their word, so the log
+ * can be related to a later run on an extended document provider (see
+ * {@link org.hhn.topicgrouper.tg.impl.IncrementalTopicGrouper}).
+ */
+public class MergeLogSolutionReporter<T> implements TGSolutionListener<T> {
+	private int documents;
+	private int[] initialTopicWords;
+	private final TIntArrayList topics1;
+	private final TIntArrayList topics2;
+	private final TDoubleArrayList improvements;
+	private final TDoubleArrayList logLikelihoods;
+	private boolean homonyms;
+
+	public MergeLogSolutionReporter() {
+		topics1 = new TIntArrayList();
+		topics2 = new TIntArrayList();
+		improvements = new TDoubleArrayList();
+		logLikelihoods = new TDoubleArrayList();
+	}
+
+	@Override
+	public void beforeInitialization(int maxTopics, int documents) {
+		this.documents = documents;
+		initialTopicWords = new int[maxTopics];
+		topics1.clear();
+		topics2.clear();
+		improvements.clear();
+		logLikelihoods.clear();
+		homonyms = false;
+	}
+
+	@Override
+	public void initalizing(double percentage) {
+	}
+
+	@Override
+	public void initialized(TGSolution<T> initialSolution) {
+		TIntCollection[] topics = initialSolution.getTopics();
+		for (int i = 0; i < initialTopicWords.length; i++) {
+			initialTopicWords[i] = topics[i].iterator().next();
+		}
+	}
+
+	@Override
+	public void updatedSolution(int newTopicIndex, int oldTopicIndex,
+			double improvement, int t1Size, int t2Size, TGSolution<T> solution) {
+		topics1.add(newTopicIndex);
+		topics2.add(oldTopicIndex);
+		improvements.add(improvement);
+		logLikelihoods.add(solution.getTopicLogLikelihoods()[newTopicIndex]);
+		TIntCollection h = solution.getHomonymns();
+		if (h != null && !h.isEmpty()) {
+			homonyms = true;
+		}
+	}
+
+	@Override
+	public void done() {
+	}
+
+	// Number of documents of the recorded run.
+	public int getDocuments() {
+		return documents;
+	}
+
+	// Number of initial topics of the recorded run.
+	public int getMaxTopics() {
+		return initialTopicWords.length;
+	}
+
+	// Word index of the initial topic.
+	public int getInitialTopicWord(int topic) {
+		return initialTopicWords[topic];
+	}
+
+	// True if homonyms were split off from topics during the run. Such changes
+	// are not part of the log.
+	public boolean hasHomonyms() {
+		return homonyms;
+	}
+
+	public int size() {
+		return topics1.size();
+	}
+
+	// The topic that remains after the merge.
+	public int getTopic1(int merge) {
+		return topics1.get(merge);
+	}
+
+	// The topic that is gone after the merge.
+	public int getTopic2(int merge) {
+		return topics2.get(merge);
+	}
+
+	public double getImprovement(int merge) {
+		return improvements.get(merge);
+	}
+
+	// Log likelihood of the joined topic.
+	public double getLogLikelihood(int merge) {
+		return logLikelihoods.get(merge);
+	}
+}
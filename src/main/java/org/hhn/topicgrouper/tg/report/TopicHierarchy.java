@@ -0,0 +1,211 @@
+package org.hhn.topicgrouper.tg.report;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * The hierarchy of a finished run as recorded by a
+ * {@link MergeLogSolutionReporter} (possibly via {@link MergeLogReplayer}).
+ * Gives the topics at any number of topics k without solving again, with
+ * the same topic indices as the solver had at k topics. Every initial topic
+ * that got joined into another one points to it, together with the index of
+ * the merge. These indices grow along each path up the hierarchy, so the
+ * topic of a word at k topics is the first topic on its path that was not
+ * joined within the first maxTopics - k merges:
+ * <ul>
+ * <li>{@link #getTopicsForWords(int)} resolves all words in O(V) by going
+ * through the merges backwards.</li>
+ * <li>{@link #getTopicForWord(int, int)} takes O(log V) via jump tables of
+ * the 2^i-th topic above each topic.</li>
+ * </ul>
+ * Homonym changes are not part of the merge log, so they are not reflected.
+ * Instances do not change after construction, so any number of threads may
+ * use them.
+ */
+public class TopicHierarchy {
+	private final int maxTopics;
+	private final int merges;
+	// Initial topic of each word or -1.
+	private final int[] wordToInitialTopic;
+	// Per merge the topic that remains and the topic that is gone.
+	private final int[] topics1;
+	private final int[] topics2;
+	// Merge at which a topic got joined into another one (Integer.MAX_VALUE
+	// if never).
+	private final int[] joinedAt;
+	// jumps[i][t] is the 2^i-th topic above t or -1.
+	private final int[][] jumps;
+
+	public TopicHierarchy(MergeLogSolutionReporter<?> log, int nWords) {
+		maxTopics = log.getMaxTopics();
+		merges = log.size();
+		wordToInitialTopic = new int[nWords];
+		Arrays.fill(wordToInitialTopic, -1);
+		for (int t = 0; t < maxTopics; t++) {
+			wordToInitialTopic[log.getInitialTopicWord(t)] = t;
+		}
+		topics1 = new int[merges];
+		topics2 = new int[merges];
+		joinedAt = new int[maxTopics];
+		Arrays.fill(joinedAt, Integer.MAX_VALUE);
+		int levels = 1;
+		while ((1 << levels) < maxTopics) {
+			levels++;
+		}
+		jumps = new int[levels][maxTopics];
+		Arrays.fill(jumps[0], -1);
+		for (int m = 0; m < merges; m++) {
+			topics1[m] = log.getTopic1(m);
+			topics2[m] = log.getTopic2(m);
+			joinedAt[topics2[m]] = m;
+			jumps[0][topics2[m]] = topics1[m];
+		}
+		for (int i = 1; i < levels; i++) {
+			for (int t = 0; t < maxTopics; t++) {
+				int half = jumps[i - 1][t];
+				jumps[i][t] = half == -1 ? -1 : jumps[i - 1][half];
+			}
+		}
+	}
+
+	public int getMaxTopics() {
+		return maxTopics;
+	}
+
+	// The smallest number of topics the run got down to.
+	public int getMinTopics() {
+		return maxTopics - merges;
+	}
+
+	public int getNumberOfWords() {
+		return wordToInitialTopic.length;
+	}
+
+	// Number of merges up to k topics.
+	protected int getMerges(int k) {
+		if (k < maxTopics - merges || k > maxTopics) {
+			throw new IllegalArgumentException("k must be in ["
+					+ (maxTopics - merges) + ", " + maxTopics + "]");
+		}
+		return maxTopics - k;
+	}
+
+	/**
+	 * Topic of the word at k topics or -1 if the word did not get a topic.
+	 * O(log V).
+	 */
+	public int getTopicForWord(int wordIndex, int k) {
+		int m = getMerges(k);
+		int topic = wordToInitialTopic[wordIndex];
+		if (topic == -1 || joinedAt[topic] >= m) {
+			return topic;
+		}
+		// Topics joined before merge m form a prefix of the path, so jump as
+		// far as possible within the prefix and then one step more.
+		for (int i = jumps.length - 1; i >= 0; i--) {
+			int above = jumps[i][topic];
+			if (above != -1 && joinedAt[above] < m) {
+				topic = above;
+			}
+		}
+		return jumps[0][topic];
+	}
+
+	/**
+	 * Topic of each word at k topics (-1 for words without a topic). O(V).
+	 */
+	public int[] getTopicsForWords(int k) {
+		int[] topicOfTopic = getTopicsForTopics(getMerges(k));
+		int[] result = new int[wordToInitialTopic.length];
+		for (int w = 0; w < result.length; w++) {
+			int topic = wordToInitialTopic[w];
+			result[w] = topic == -1 ? -1 : topicOfTopic[topic];
+		}
+		return result;
+	}
+
+	// Topic of each initial topic after m merges. Going backwards, the topic
+	// a topic got joined into is final already, as it got joined later (if
+	// at all).
+	protected int[] getTopicsForTopics(int m) {
+		int[] result = new int[maxTopics];
+		for (int t = 0; t < maxTopics; t++) {
+			result[t] = t;
+		}
+		for (int i = m - 1; i >= 0; i--) {
+			result[topics2[i]] = result[topics1[i]];
+		}
+		return result;
+	}
+
+	/**
+	 * The words of each topic at k topics, indexed by topic like
+	 * {@link org.hhn.topicgrouper.tg.TGSolution#getTopics()} (null for topics
+	 * that are gone). Words are sorted by index. O(V).
+	 */
+	public TIntList[] getTopics(int k) {
+		int[] wordTopics = getTopicsForWords(k);
+		TIntList[] topics = new TIntList[maxTopics];
+		for (int w = 0; w < wordTopics.length; w++) {
+			int topic = wordTopics[w];
+			if (topic != -1) {
+				if (topics[topic] == null) {
+					topics[topic] = new TIntArrayList();
+				}
+				topics[topic].add(w);
+			}
+		}
+		return topics;
+	}
+
+	/**
+	 * {@link #getTopicsForWords(int)} for each of the ks, computed by the
+	 * given number of threads.
+	 */
+	public int[][] getTopicsForWords(final int[] ks, int threads) {
+		for (int k : ks) {
+			getMerges(k);
+		}
+		final int[][] result = new int[ks.length][];
+		if (threads <= 1 || ks.length < 2) {
+			for (int i = 0; i < ks.length; i++) {
+				result[i] = getTopicsForWords(ks[i]);
+			}
+			return result;
+		}
+		ForkJoinPool pool = new ForkJoinPool(Math.min(threads, ks.length));
+		try {
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(
+					ks.length);
+			for (int i = 0; i < ks.length; i++) {
+				final int index = i;
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						result[index] = getTopicsForWords(ks[index]);
+						return null;
+					}
+				});
+			}
+			for (Future<Void> future : pool.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		return result;
+	}
+}
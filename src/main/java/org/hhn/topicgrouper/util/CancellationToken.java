@@ -0,0 +1,18 @@
+package org.hhn.topicgrouper.util;
+
+/**
+ * Lets one thread ask a long running computation on another thread to stop.
+ * The computation polls {@link #isCancelled()} at points where it can stop
+ * with a consistent result.
+ */
+public class CancellationToken {
+	private volatile boolean cancelled;
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
@@ -0,0 +1,88 @@
+package org.hhn.topicgrouper.util;
+
+import java.util.Arrays;
+
+/**
+ * Shared table of log(n) and n * log(n) for ints n from 0 up to a bound,
+ * grown on demand. The entries are computed via Math.log(), so the results
+ * are exactly the same as with Math.log() (n * log(n) is 0 for n = 0).
+ * Beyond the bound both methods fall back to Math.log().
+ */
+public final class LogTable {
+	public static final int DEFAULT_MAX_SIZE = 1 << 16;
+	private static final int MIN_SIZE = 1024;
+
+	private static volatile int maxSize = DEFAULT_MAX_SIZE;
+	// Not volatile since a reader that sees an outdated table just takes the
+	// slow path. The arrays are final fields of Table, so a table is never
+	// seen partially filled.
+	private static Table table = new Table(new double[0], new double[0]);
+
+	private static final class Table {
+		private final double[] logs;
+		private final double[] xLogXs;
+
+		private Table(double[] logs, double[] xLogXs) {
+			this.logs = logs;
+			this.xLogXs = xLogXs;
+		}
+	}
+
+	private LogTable() {
+	}
+
+	/**
+	 * The table grows up to maxSize entries (2^16 by default). Lowering the
+	 * bound does not shrink a table that got larger already.
+	 */
+	public static void setMaxSize(int maxSize) {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("maxSize must be >= 0");
+		}
+		LogTable.maxSize = maxSize;
+	}
+
+	public static int getMaxSize() {
+		return maxSize;
+	}
+
+	public static double log(int n) {
+		double[] logs = table.logs;
+		if (n >= 0 && n < logs.length) {
+			return logs[n];
+		}
+		if (n >= 0 && n < maxSize) {
+			return grow(n).logs[n];
+		}
+		return Math.log(n);
+	}
+
+	public static double xLogX(long n) {
+		double[] xLogXs = table.xLogXs;
+		if (n >= 0 && n < xLogXs.length) {
+			return xLogXs[(int) n];
+		}
+		if (n >= 0 && n < maxSize) {
+			return grow((int) n).xLogXs[(int) n];
+		}
+		return n == 0 ? 0 : n * Math.log(n);
+	}
+
+	private static synchronized Table grow(int n) {
+		Table t = table;
+		int oldSize = t.logs.length;
+		if (n < oldSize) {
+			return t;
+		}
+		int size = (int) Math.min(maxSize,
+				Math.max(Math.max(n + 1L, 2L * oldSize), MIN_SIZE));
+		double[] logs = Arrays.copyOf(t.logs, size);
+		double[] xLogXs = Arrays.copyOf(t.xLogXs, size);
+		for (int i = oldSize; i < size; i++) {
+			logs[i] = Math.log(i);
+			xLogXs[i] = i == 0 ? 0 : i * logs[i];
+		}
+		table = new Table(logs, xLogXs);
+		return table;
+	}
+}
@@ -1,161 +1,173 @@
 package org.hhn.topicgrouper.util;
 
-/******************************************************************************
- *  Compilation:  javac QuickUnionUF.java
- *  Execution:  java QuickUnionUF < input.txt
- *  Dependencies: StdIn.java StdOut.java
- *
- *  Quick-union algorithm.
- *
- ******************************************************************************/
-
 /**
- *  The <tt>QuickUnionUF</tt> class represents a <em>union-find data type</em>
- *  (also known as the <em>disjoint-sets data type</em>).
- *  It supports the <em>union</em> and <em>find</em> operations,
- *  along with a <em>connected</em> operation for determining whether
- *  two sites are in the same component and a <em>count</em> operation that
- *  returns the total number of components.
- *  <p>
- *  The union-find data type models connectivity among a set of <em>N</em>
- *  sites, named 0 through <em>N</em> &ndash; 1.
- *  The <em>is-connected-to</em> relation must be an 
- *  <em>equivalence relation</em>:
- *  <ul>
- *  <p><li> <em>Reflexive</em>: <em>p</em> is connected to <em>p</em>.
- *  <p><li> <em>Symmetric</em>: If <em>p</em> is connected to <em>q</em>,
- *          then <em>q</em> is connected to <em>p</em>.
- *  <p><li> <em>Transitive</em>: If <em>p</em> is connected to <em>q</em>
- *          and <em>q</em> is connected to <em>r</em>, then
- *          <em>p</em> is connected to <em>r</em>.
- *  </ul>
- *  <p>
- *  An equivalence relation partitions the sites into
- *  <em>equivalence classes</em> (or <em>components</em>). In this case,
- *  two sites are in the same component if and only if they are connected.
- *  Both sites and components are identified with integers between 0 and
- *  <em>N</em> &ndash; 1. 
- *  Initially, there are <em>N</em> components, with each site in its
- *  own component.  The <em>component identifier</em> of a component
- *  (also known as the <em>root</em>, <em>canonical element</em>, <em>leader</em>,
- *  or <em>set representative</em>) is one of the sites in the component:
- *  two sites have the same component identifier if and only if they are
- *  in the same component.
- *  <ul>
- *  <p><li><em>union</em>(<em>p</em>, <em>q</em>) adds a
- *         connection between the two sites <em>p</em> and <em>q</em>.
- *         If <em>p</em> and <em>q</em> are in different components,
- *         then it replaces
- *         these two components with a new component that is the union of
- *         the two.
- *  <p><li><em>find</em>(<em>p</em>) returns the component
- *         identifier of the component containing <em>p</em>.
- *  <p><li><em>connected</em>(<em>p</em>, <em>q</em>)
- *         returns true if both <em>p</em> and <em>q</em>
- *         are in the same component, and false otherwise.
- *  <p><li><em>count</em>() returns the number of components.
- *  </ul>
- *  <p>
- *  The component identifier of a component can change
- *  only when the component itself changes during a call to
- *  <em>union</em>&mdash;it cannot change during a call
- *  to <em>find</em>, <em>connected</em>, or <em>count</em>.
- *  <p>
- *  This implementation uses quick union.
- *  Initializing a data structure with <em>N</em> sites takes linear time.
- *  Afterwards, the <em>union</em>, <em>find</em>, and <em>connected</em>
- *  operations  take linear time (in the worst case) and the
- *  <em>count</em> operation takes constant time.
- *  For alternate implementations of the same API, see
- *  {@link UF}, {@link QuickFindUF}, and {@link WeightedQuickUnionUF}.
- *
- *  <p>
- *  For additional documentation, see <a href="http://algs4.cs.princeton.edu/15uf">Section 1.5</a> of
- *  <i>Algorithms, 4th Edition</i> by Robert Sedgewick and Kevin Wayne.
- *
- *  @author Robert Sedgewick
- *  @author Kevin Wayne
+ * Union find over the sites 0 to N - 1 with union by rank and path halving,
+ * so find() and union() take amortized nearly constant time (see Section
+ * 1.5 of <i>Algorithms, 4th Edition</i> by Robert Sedgewick and Kevin Wayne).
+ * Unlike with plain union by rank, union(p, q) always keeps the component
+ * identifier of q, as the grouping depends on the surviving topic keeping
+ * its index: the identifier is a label stored at the root, which may be
+ * any site of the component.
  */
 public class UnionFind {
-    private int[] parent;  // parent[i] = parent of i
-    private int count;     // number of components
+	private final int[] parent;
+	private final byte[] rank;
+	// Component identifier per root.
+	private final int[] label;
+	private int count;
+	// Incremented by each change of the components.
+	private int version;
+
+	/**
+	 * Each of the N sites is in its own component.
+	 *
+	 * @throws IllegalArgumentException if N &lt; 0
+	 */
+	public UnionFind(int N) {
+		if (N < 0) {
+			throw new IllegalArgumentException("N must be >= 0");
+		}
+		parent = new int[N];
+		rank = new byte[N];
+		label = new int[N];
+		count = N;
+		for (int i = 0; i < N; i++) {
+			parent[i] = i;
+			label[i] = i;
+		}
+	}
+
+	// Number of components.
+	public int count() {
+		return count;
+	}
+
+	// Changes whenever union() or setParents() changed the components.
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Component identifier of the component containing p.
+	 *
+	 * @throws IndexOutOfBoundsException unless 0 &le; p &lt; N
+	 */
+	public int find(int p) {
+		validate(p);
+		return label[root(p)];
+	}
+
+	// Path halving: every site on the way points to its grandparent
+	// afterwards. Concurrent calls only ever shorten paths to the same root,
+	// so they are safe as long as there is no concurrent union().
+	private int root(int p) {
+		while (p != parent[p]) {
+			int grandParent = parent[parent[p]];
+			parent[p] = grandParent;
+			p = grandParent;
+		}
+		return p;
+	}
+
+	private void validate(int p) {
+		int N = parent.length;
+		if (p < 0 || p >= N) {
+			throw new IndexOutOfBoundsException("index " + p
+					+ " is not between 0 and " + (N - 1));
+		}
+	}
 
-    /**
-     * Initializes an empty union-find data structure with <tt>N</tt> sites
-     * <tt>0</tt> through <tt>N-1</tt>. Each site is initially in its own 
-     * component.
-     *
-     * @param  N the number of sites
-     * @throws IllegalArgumentException if <tt>N &lt; 0</tt>
-     */
-    public UnionFind(int N) {
-        parent = new int[N];
-        count = N;
-        for (int i = 0; i < N; i++) {
-            parent[i] = i;
-        }
-    }
+	/**
+	 * True if the sites p and q are in the same component.
+	 *
+	 * @throws IndexOutOfBoundsException unless both 0 &le; p &lt; N and 0
+	 *             &le; q &lt; N
+	 */
+	public boolean connected(int p, int q) {
+		return find(p) == find(q);
+	}
 
-    /**
-     * Returns the number of components.
-     *
-     * @return the number of components (between <tt>1</tt> and <tt>N</tt>)
-     */
-    public int count() {
-        return count;
-    }
-  
-    /**
-     * Returns the component identifier for the component containing site <tt>p</tt>.
-     *
-     * @param  p the integer representing one object
-     * @return the component identifier for the component containing site <tt>p</tt>
-     * @throws IndexOutOfBoundsException unless <tt>0 &le; p &lt; N</tt>
-     */
-    public int find(int p) {
-        validate(p);
-        while (p != parent[p])
-            p = parent[p];
-        return p;
-    }
+	/**
+	 * Merges the component containing p into the one containing q. The
+	 * merged component has the identifier of q's component.
+	 *
+	 * @throws IndexOutOfBoundsException unless both 0 &le; p &lt; N and 0
+	 *             &le; q &lt; N
+	 */
+	public void union(int p, int q) {
+		validate(p);
+		validate(q);
+		int rootP = root(p);
+		int rootQ = root(q);
+		if (rootP == rootQ) {
+			return;
+		}
+		int id = label[rootQ];
+		if (rank[rootP] > rank[rootQ]) {
+			parent[rootQ] = rootP;
+			label[rootP] = id;
+		} else {
+			parent[rootP] = rootQ;
+			if (rank[rootP] == rank[rootQ]) {
+				rank[rootQ]++;
+			}
+		}
+		count--;
+		version++;
+	}
 
-    // validate that p is a valid index
-    private void validate(int p) {
-        int N = parent.length;
-        if (p < 0 || p >= N) {
-            throw new IndexOutOfBoundsException("index " + p + " is not between 0 and " + (N-1));  
-        }
-    }
+	/**
+	 * Component identifiers of all sites in one pass.
+	 */
+	public int[] getIdentifiers() {
+		int[] ids = new int[parent.length];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = label[root(i)];
+		}
+		return ids;
+	}
 
-    /**
-     * Returns true if the the two sites are in the same component.
-     *
-     * @param  p the integer representing one site
-     * @param  q the integer representing the other site
-     * @return <tt>true</tt> if the two sites <tt>p</tt> and <tt>q</tt> are in the same component;
-     *         <tt>false</tt> otherwise
-     * @throws IndexOutOfBoundsException unless
-     *         both <tt>0 &le; p &lt; N</tt> and <tt>0 &le; q &lt; N</tt>
-     */
-    public boolean connected(int p, int q) {
-        return find(p) == find(q);
-    }
+	/**
+	 * Parent links of all sites in the form of a plain quick union, where
+	 * each site points to its component identifier (e.g. for storing the
+	 * data structure).
+	 */
+	public int[] getParents() {
+		return getIdentifiers();
+	}
 
-  
-    /**
-     * Merges the component containing site <tt>p</tt> with the 
-     * the component containing site <tt>q</tt>.
-     *
-     * @param  p the integer representing one site
-     * @param  q the integer representing the other site
-     * @throws IndexOutOfBoundsException unless
-     *         both <tt>0 &le; p &lt; N</tt> and <tt>0 &le; q &lt; N</tt>
-     */
-    public void union(int p, int q) {
-        int rootP = find(p);
-        int rootQ = find(q);
-        if (rootP == rootQ) return;
-        parent[rootP] = rootQ; 
-        count--;
-    }
+	/**
+	 * Replaces the components by the ones given via parent links as returned
+	 * by {@link #getParents()}. The root of each site is its component
+	 * identifier.
+	 *
+	 * @throws IllegalArgumentException if the number of sites differs
+	 */
+	public void setParents(int[] parents) {
+		if (parents.length != parent.length) {
+			throw new IllegalArgumentException("expected " + parent.length
+					+ " sites");
+		}
+		for (int i = 0; i < parents.length; i++) {
+			validate(parents[i]);
+		}
+		count = 0;
+		for (int i = 0; i < parents.length; i++) {
+			parent[i] = parents[i];
+			rank[i] = 0;
+			label[i] = i;
+			if (parents[i] == i) {
+				count++;
+			}
+		}
+		// Every site points directly to its root afterwards.
+		for (int i = 0; i < parents.length; i++) {
+			int root = root(i);
+			parent[i] = root;
+			if (root != i) {
+				rank[root] = 1;
+			}
+		}
+		version++;
+	}
 }
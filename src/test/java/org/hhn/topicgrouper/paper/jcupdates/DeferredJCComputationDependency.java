@@ -17,6 +17,10 @@ import org.hhn.topicgrouper.tg.impl.LowMemTopicGrouper;
 import org.hhn.topicgrouper.util.MathExt;
 
 public class DeferredJCComputationDependency {
+	// Number of best join partners kept per topic (see
+	// LowMemTopicGrouper.setPartnerListSize()).
+	private static final int PARTNER_LIST_SIZE = 8;
+
 	public void runAll() throws IOException {
 		final Random random = new Random(10);
 
@@ -52,9 +56,10 @@ public class DeferredJCComputationDependency {
 
 			@Override
 			protected void aggregateResults(PrintStream pw, int[] nWords,
-					int[] tgDeferredJCCs, long[] durationMs, int[] nDocs) {
-				aggregateResultsNone(pw, nWords, tgDeferredJCCs, durationMs,
-						nDocs);
+					int[] tgDeferredJCCs, int[] avoidedRescans,
+					long[] durationMs, int[] nDocs) {
+				aggregateResultsNone(pw, nWords, tgDeferredJCCs,
+						avoidedRescans, durationMs, nDocs);
 			}
 
 			@Override
@@ -76,9 +81,10 @@ public class DeferredJCComputationDependency {
 
 			@Override
 			protected void aggregateResults(PrintStream pw, int[] nWords,
-					int[] tgDeferredJCCs, long[] durationMs, int[] nDocs) {
-				aggregateResultsNone(pw, nWords, tgDeferredJCCs, durationMs,
-						nDocs);
+					int[] tgDeferredJCCs, int[] avoidedRescans,
+					long[] durationMs, int[] nDocs) {
+				aggregateResultsNone(pw, nWords, tgDeferredJCCs,
+						avoidedRescans, durationMs, nDocs);
 			}
 
 			@Override
@@ -97,12 +103,13 @@ public class DeferredJCComputationDependency {
 			PrintStream pw = new PrintStream(new FileOutputStream(new File(
 					"./target/jcupdates/" + getFileName() + ".csv")));
 
-			pw.println("nwords;ndeferredjccs;err;durationms;durationms_err;ndocs;");
+			pw.println("nwords;ndeferredjccs;err;navoidedrescans;navoidedrescans_err;durationms;durationms_err;ndocs;");
 
 			for (int i = 0; i < steps; i++) {
 				System.out.print("Step: ");
 				System.out.println(i);
 				final int[] tgDeferredJCCs = new int[avgC];
+				final int[] avoidedRescans = new int[avgC];
 				final int[] nWords = new int[avgC];
 				final long[] durationMs = new long[avgC];
 				final int[] nDocs = new int[avgC];
@@ -116,6 +123,7 @@ public class DeferredJCComputationDependency {
 					nDocs[j] = documentProvider.getDocuments().size();
 					final LowMemTopicGrouper<T> topicGrouper = new LowMemTopicGrouper(
 							1, documentProvider, 1);
+					topicGrouper.setPartnerListSize(PARTNER_LIST_SIZE);
 					long startTime = System.currentTimeMillis();
 					topicGrouper.solve(new TGSolutionListener<T>() {
 						@Override
@@ -137,7 +145,8 @@ public class DeferredJCComputationDependency {
 						public void done() {
 							tgDeferredJCCs[counter[0]] = topicGrouper
 									.getJCUpdates();
-
+							avoidedRescans[counter[0]] = topicGrouper
+									.getPartnerListRepairs();
 						}
 
 						@Override
@@ -150,13 +159,15 @@ public class DeferredJCComputationDependency {
 					});
 					durationMs[j] = System.currentTimeMillis() - startTime;
 				}
-				aggregateResults(pw, nWords, tgDeferredJCCs, durationMs, nDocs);
+				aggregateResults(pw, nWords, tgDeferredJCCs, avoidedRescans,
+						durationMs, nDocs);
 			}
 			pw.close();
 		}
 
 		protected void aggregateResultsNone(PrintStream pw, int[] nWords,
-				int[] tgDeferredJCCs, long[] durationMs, int[] nDocs) {
+				int[] tgDeferredJCCs, int[] avoidedRescans, long[] durationMs,
+				int[] nDocs) {
 			for (int i = 0; i < nWords.length; i++) {
 				pw.print(nWords[i]);
 				pw.print("; ");
@@ -164,6 +175,10 @@ public class DeferredJCComputationDependency {
 				pw.print("; ");
 				pw.print(0);
 				pw.print("; ");
+				pw.print(avoidedRescans[i]);
+				pw.print("; ");
+				pw.print(0);
+				pw.print("; ");
 				pw.print(durationMs[i]);
 				pw.print("; ");
 				pw.print(0);
@@ -174,16 +189,22 @@ public class DeferredJCComputationDependency {
 		}
 
 		protected void aggregateResultsAvg(PrintStream pw, int[] nWords,
-				int[] tgDeferredJCCs, long[] durationMs, int[] nDocs) {
+				int[] tgDeferredJCCs, int[] avoidedRescans, long[] durationMs,
+				int[] nDocs) {
 			double tgDeferredJCCsAvg = MathExt.avg(tgDeferredJCCs);
 			double tgDeferredJCCsStdDev = MathExt.sampleStdDev(
 					tgDeferredJCCsAvg, tgDeferredJCCs);
+			double avoidedRescansAvg = MathExt.avg(avoidedRescans);
 			pw.print(MathExt.avg(nWords));
 			pw.print("; ");
 			pw.print(tgDeferredJCCsAvg);
 			pw.print("; ");
 			pw.print(tgDeferredJCCsStdDev);
 			pw.print("; ");
+			pw.print(avoidedRescansAvg);
+			pw.print("; ");
+			pw.print(MathExt.sampleStdDev(avoidedRescansAvg, avoidedRescans));
+			pw.print("; ");
 			pw.print(MathExt.avg(durationMs));
 			pw.print("; ");
 			pw.print(MathExt.sampleStdDev(durationMs));
@@ -193,8 +214,10 @@ public class DeferredJCComputationDependency {
 		}
 
 		protected void aggregateResults(PrintStream pw, int[] nWords,
-				int[] tgDeferredJCCs, long[] durationMs, int[] nDocs) {
-			aggregateResultsAvg(pw, nWords, tgDeferredJCCs, durationMs, nDocs);
+				int[] tgDeferredJCCs, int[] avoidedRescans, long[] durationMs,
+				int[] nDocs) {
+			aggregateResultsAvg(pw, nWords, tgDeferredJCCs, avoidedRescans,
+					durationMs, nDocs);
 		}
 
 		protected abstract DocumentProvider<T> createDocumentProvider(int step);
@@ -0,0 +1,171 @@
+package org.hhn.topicgrouper.paper.performance;
+
+import gnu.trove.list.array.TDoubleArrayList;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.eval.TWCLDAPaperDocumentGenerator;
+import org.hhn.topicgrouper.tg.TGAnytimeResult;
+import org.hhn.topicgrouper.tg.TGSolution;
+import org.hhn.topicgrouper.tg.TGSolutionListener;
+import org.hhn.topicgrouper.tg.impl.AbstractTopicGrouper;
+import org.hhn.topicgrouper.tg.impl.DivideAndConquerTopicGrouper;
+import org.hhn.topicgrouper.tg.impl.LowMemTopicGrouper;
+import org.hhn.topicgrouper.util.CancellationToken;
+
+/**
+ * Stops solvers at a fraction of the time a full run takes and via a
+ * cancellation from another thread. Compares the estimated remaining time
+ * with the time the full run actually needed for the rest and checks that
+ * the partial solution is the one of the full run after as many merges.
+ */
+public class AnytimeSolveExp {
+	// Total log likelihood after each merge (index 0 is the initial one).
+	protected static class LikelihoodListener implements
+			TGSolutionListener<String> {
+		private final TDoubleArrayList logLikelihoods = new TDoubleArrayList();
+		private final TDoubleArrayList times = new TDoubleArrayList();
+		private long start;
+
+		@Override
+		public void beforeInitialization(int maxTopics, int documents) {
+			logLikelihoods.clear();
+			times.clear();
+		}
+
+		@Override
+		public void initalizing(double percentage) {
+		}
+
+		@Override
+		public void initialized(TGSolution<String> initialSolution) {
+			start = System.nanoTime();
+			logLikelihoods.add(initialSolution.getTotalLogLikelhood());
+			times.add(0);
+		}
+
+		@Override
+		public void updatedSolution(int newTopicIndex, int oldTopicIndex,
+				double improvement, int t1Size, int t2Size,
+				TGSolution<String> solution) {
+			logLikelihoods.add(solution.getTotalLogLikelhood());
+			times.add((System.nanoTime() - start) / 1e6);
+		}
+
+		@Override
+		public void done() {
+		}
+	}
+
+	protected AbstractTopicGrouper<String> createSolver(String solver,
+			DocumentProvider<String> documentProvider) {
+		if (solver.equals("LowMem")) {
+			return new LowMemTopicGrouper<String>(1, documentProvider, 1);
+		}
+		if (solver.equals("LowMem4")) {
+			LowMemTopicGrouper<String> lowMem = new LowMemTopicGrouper<String>(
+					1, documentProvider, 1);
+			lowMem.setThreads(4);
+			return lowMem;
+		}
+		DivideAndConquerTopicGrouper<String> dc = new DivideAndConquerTopicGrouper<String>(
+				1, documentProvider, 1);
+		dc.setBlockSize(100);
+		return dc;
+	}
+
+	public void run(int nDocs, int nWords) throws IOException {
+		if (!new File("./target").exists()) {
+			new File("./target").mkdir();
+		}
+		PrintStream pw = new PrintStream(new FileOutputStream(new File(
+				"./target/" + getClass().getSimpleName() + ".csv")));
+		pw.println("solver;stop;status;elapsedms;merges;remaining;estimatedms;actualms;same;");
+		DocumentProvider<String> documentProvider = new TWCLDAPaperDocumentGenerator(
+				new Random(42), new double[] { 5, 0.5, 0.5, 0.5 }, nDocs,
+				nWords, nWords, 30, 30, 0, null, 0.5, 0.8);
+		String[] solvers = { "LowMem", "LowMem4", "DC" };
+		double[] fractions = { 0.05, 0.25, 0.5, 0.75 };
+		for (String solver : solvers) {
+			LikelihoodListener full = new LikelihoodListener();
+			long start = System.currentTimeMillis();
+			createSolver(solver, documentProvider).solve(full);
+			long fullMillis = System.currentTimeMillis() - start;
+			System.out.println(solver + " full: " + fullMillis + "ms");
+			for (double fraction : fractions) {
+				String stop = "deadline" + fraction;
+				LikelihoodListener partial = new LikelihoodListener();
+				TGAnytimeResult<String> result = createSolver(solver,
+						documentProvider).solve(partial,
+						System.currentTimeMillis() + (long) (fraction * fullMillis),
+						null);
+				print(pw, solver, stop, result, full, partial);
+			}
+			// Cancelled from another thread half way through.
+			final CancellationToken token = new CancellationToken();
+			final long delay = fullMillis / 2;
+			Thread canceller = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(delay);
+					} catch (InterruptedException e) {
+						return;
+					}
+					token.cancel();
+				}
+			};
+			canceller.start();
+			LikelihoodListener partial = new LikelihoodListener();
+			TGAnytimeResult<String> result = createSolver(solver,
+					documentProvider).solve(partial, Long.MAX_VALUE, token);
+			canceller.interrupt();
+			print(pw, solver, "cancel", result, full, partial);
+		}
+		pw.close();
+	}
+
+	protected void print(PrintStream pw, String solver, String stop,
+			TGAnytimeResult<String> result, LikelihoodListener full,
+			LikelihoodListener partial) {
+		int merges = result.getMerges();
+		// Time the full run took for the merges after the stop.
+		double actual = full.times.get(full.times.size() - 1)
+				- full.times.get(merges);
+		boolean same = result.getSolution().getTotalLogLikelhood() == full.logLikelihoods
+				.get(merges)
+				&& partial.logLikelihoods.size() == merges + 1;
+		System.out.println(solver + " " + stop + ": " + result.getStatus()
+				+ " after " + result.getElapsedMillis() + "ms, " + merges
+				+ " merges, " + result.getRemainingMerges()
+				+ " remaining, estimated " + result.getEstimatedRemainingMillis()
+				+ "ms, actual " + (long) actual + "ms, same " + same);
+		pw.print(solver);
+		pw.print(";");
+		pw.print(stop);
+		pw.print(";");
+		pw.print(result.getStatus());
+		pw.print(";");
+		pw.print(result.getElapsedMillis());
+		pw.print(";");
+		pw.print(merges);
+		pw.print(";");
+		pw.print(result.getRemainingMerges());
+		pw.print(";");
+		pw.print(result.getEstimatedRemainingMillis());
+		pw.print(";");
+		pw.print((long) actual);
+		pw.print(";");
+		pw.print(same);
+		pw.println(";");
+	}
+
+	public static void main(String[] args) throws IOException {
+		new AnytimeSolveExp().run(2000, 300);
+	}
+}
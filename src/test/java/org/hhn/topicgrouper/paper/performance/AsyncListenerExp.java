@@ -0,0 +1,114 @@
+package org.hhn.topicgrouper.paper.performance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.eval.TWCLDAPaperDocumentGenerator;
+import org.hhn.topicgrouper.tg.AsyncTGSolutionListener;
+import org.hhn.topicgrouper.tg.AsyncTGSolutionListener.Backpressure;
+import org.hhn.topicgrouper.tg.TGSolution;
+import org.hhn.topicgrouper.tg.TGSolutionListener;
+import org.hhn.topicgrouper.tg.impl.LowMemTopicGrouper;
+
+/**
+ * Measures how long a slow listener holds up the solver when it is called
+ * directly and when it sits behind an {@link AsyncTGSolutionListener} with
+ * each kind of backpressure. The listener simulates a reporter that needs a
+ * fixed time per merge.
+ */
+public class AsyncListenerExp {
+	protected static class SlowListener implements TGSolutionListener<String> {
+		private final long sleepMillis;
+		private int merges;
+
+		public SlowListener(long sleepMillis) {
+			this.sleepMillis = sleepMillis;
+		}
+
+		@Override
+		public void updatedSolution(int newTopicIndex, int oldTopicIndex,
+				double improvement, int t1Size, int t2Size,
+				TGSolution<String> solution) {
+			merges++;
+			try {
+				Thread.sleep(sleepMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void initialized(TGSolution<String> initialSolution) {
+		}
+
+		@Override
+		public void initalizing(double percentage) {
+		}
+
+		@Override
+		public void done() {
+		}
+
+		@Override
+		public void beforeInitialization(int maxTopics, int documents) {
+		}
+
+		public int getMerges() {
+			return merges;
+		}
+	}
+
+	// Returns the duration of solve() and of solve() plus delivering all
+	// events.
+	protected long[] runSolver(DocumentProvider<String> documentProvider,
+			TGSolutionListener<String> listener) {
+		long start = System.currentTimeMillis();
+		new LowMemTopicGrouper<String>(1, documentProvider, 1).solve(listener);
+		long solved = System.currentTimeMillis();
+		if (listener instanceof AsyncTGSolutionListener) {
+			((AsyncTGSolutionListener<String>) listener).close();
+		}
+		return new long[] { solved - start,
+				System.currentTimeMillis() - start };
+	}
+
+	public void run(int nDocs, int nWords, long sleepMillis)
+			throws IOException {
+		if (!new File("./target").exists()) {
+			new File("./target").mkdir();
+		}
+		PrintStream pw = new PrintStream(new FileOutputStream(new File(
+				"./target/" + getClass().getSimpleName() + ".csv")));
+		pw.println("mode;solvems;totalms;delivered;");
+		DocumentProvider<String> documentProvider = new TWCLDAPaperDocumentGenerator(
+				new Random(42), new double[] { 5, 0.5, 0.5, 0.5 }, nDocs,
+				nWords, nWords, 30, 30, 0, null, 0.5, 0.8);
+		String[] modes = { "SYNC", "BLOCK", "DROP", "SAMPLE" };
+		for (String mode : modes) {
+			SlowListener slowListener = new SlowListener(sleepMillis);
+			TGSolutionListener<String> listener = mode.equals("SYNC") ? slowListener
+					: new AsyncTGSolutionListener<String>(slowListener, 256,
+							Backpressure.valueOf(mode));
+			long[] times = runSolver(documentProvider, listener);
+			System.out.println(mode + " solve: " + times[0] + "ms total: "
+					+ times[1] + "ms delivered: " + slowListener.getMerges());
+			pw.print(mode);
+			pw.print(";");
+			pw.print(times[0]);
+			pw.print(";");
+			pw.print(times[1]);
+			pw.print(";");
+			pw.print(slowListener.getMerges());
+			pw.println(";");
+		}
+		pw.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		new AsyncListenerExp().run(2000, 100, 10);
+	}
+}
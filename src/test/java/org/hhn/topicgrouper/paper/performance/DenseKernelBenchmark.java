@@ -0,0 +1,145 @@
+package org.hhn.topicgrouper.paper.performance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.eval.TWCLDAPaperDocumentGenerator;
+import org.hhn.topicgrouper.tg.impl.DocFrequencies;
+import org.hhn.topicgrouper.tg.impl.LowMemTopicGrouper;
+import org.hhn.topicgrouper.util.LogTable;
+
+/**
+ * Times the kernels for the likelihood of joining two topics on their own:
+ * the merge join over sparse frequencies, the former dense loop with a
+ * branch per document and the branch-free dense loop. The pairs of topics
+ * are random with frequencies in the given fraction of the documents. All
+ * kernels must give exactly the same sums.
+ */
+public class DenseKernelBenchmark {
+	// Gives access to the kernels of the solver.
+	protected static class Kernels extends LowMemTopicGrouper<String> {
+		public Kernels(DocumentProvider<String> documentProvider) {
+			super(1, documentProvider, 1);
+			setDenseRowThreshold(1);
+		}
+
+		public double mergeJoin(DocFrequencies f1, DocFrequencies f2) {
+			return computeTwoTopicLogLikelihoodHelp(f1, f2, 1);
+		}
+
+		public double dense(int[] frs1, int[] frs2) {
+			return computeDenseLogLikelihoodHelp(frs1, frs2, 1);
+		}
+
+		// The dense loop as it was before it got branch-free.
+		public double denseWithBranches(int[] frs1, int[] frs2) {
+			double sum = 0;
+			for (int d = 0; d < frs1.length; d++) {
+				int fr = frs1[d] + frs2[d];
+				if (fr > 0 && documentSizes[d] > 0) {
+					sum += fr * (LogTable.log(fr) - logDocumentSizes[d]);
+				}
+			}
+			return sum;
+		}
+
+		public int getDocumentSize(int d) {
+			return documentSizes[d];
+		}
+	}
+
+	// Frequencies in about density * documents documents, at most half the
+	// document size each, so the sum of two is valid.
+	protected DocFrequencies createFrequencies(Kernels kernels, int docs,
+			double density, Random random) {
+		DocFrequencies frs = new DocFrequencies();
+		for (int d = 0; d < docs; d++) {
+			int max = kernels.getDocumentSize(d) / 2;
+			if (max > 0 && random.nextDouble() < density) {
+				frs.add(d, 1 + random.nextInt(max));
+			}
+		}
+		return frs;
+	}
+
+	public void run(int docs, double[] densities, int pairs, int rounds)
+			throws IOException {
+		if (!new File("./target").exists()) {
+			new File("./target").mkdir();
+		}
+		PrintStream pw = new PrintStream(new FileOutputStream(new File(
+				"./target/" + getClass().getSimpleName() + ".csv")));
+		pw.println("docs;density;mergeJoinNs;branchNs;branchFreeNs;same;");
+		DocumentProvider<String> documentProvider = new TWCLDAPaperDocumentGenerator(
+				new Random(42), new double[] { 5, 0.5, 0.5, 0.5 }, docs, 25,
+				25, 30, 30, 0, null, 0.5, 0.8);
+		Kernels kernels = new Kernels(documentProvider);
+		Random random = new Random(42);
+		for (double density : densities) {
+			DocFrequencies[] sparse = new DocFrequencies[2 * pairs];
+			DocFrequencies[] dense = new DocFrequencies[2 * pairs];
+			for (int i = 0; i < sparse.length; i++) {
+				sparse[i] = createFrequencies(kernels, docs, density, random);
+				dense[i] = sparse[i].snapshot();
+				dense[i].setDenseRow(1, docs);
+			}
+			boolean same = true;
+			long[] nanos = new long[3];
+			// The first round warms up.
+			for (int round = 0; round <= rounds; round++) {
+				double[] sums = new double[3];
+				for (int k = 0; k < 3; k++) {
+					long start = System.nanoTime();
+					for (int p = 0; p < pairs; p++) {
+						if (k == 0) {
+							sums[k] += kernels.mergeJoin(sparse[2 * p],
+									sparse[2 * p + 1]);
+						} else if (k == 1) {
+							sums[k] += kernels.denseWithBranches(
+									dense[2 * p].getDenseFrequencies(),
+									dense[2 * p + 1].getDenseFrequencies());
+						} else {
+							sums[k] += kernels.dense(
+									dense[2 * p].getDenseFrequencies(),
+									dense[2 * p + 1].getDenseFrequencies());
+						}
+					}
+					if (round > 0) {
+						nanos[k] += System.nanoTime() - start;
+					}
+				}
+				same &= Double.doubleToLongBits(sums[0]) == Double
+						.doubleToLongBits(sums[1])
+						&& Double.doubleToLongBits(sums[0]) == Double
+								.doubleToLongBits(sums[2]);
+			}
+			long calls = ((long) pairs) * rounds;
+			System.out.println("Docs: " + docs + " density: " + density
+					+ " merge join: " + nanos[0] / calls + "ns branches: "
+					+ nanos[1] / calls + "ns branch-free: " + nanos[2] / calls
+					+ "ns same: " + same);
+			pw.print(docs);
+			pw.print(";");
+			pw.print(density);
+			pw.print(";");
+			pw.print(nanos[0] / calls);
+			pw.print(";");
+			pw.print(nanos[1] / calls);
+			pw.print(";");
+			pw.print(nanos[2] / calls);
+			pw.print(";");
+			pw.print(same);
+			pw.println(";");
+		}
+		pw.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		new DenseKernelBenchmark().run(16000, new double[] { 0.05, 0.2, 0.5,
+				0.9 }, 200, 20);
+	}
+}
@@ -0,0 +1,96 @@
+package org.hhn.topicgrouper.paper.performance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.eval.TWCLDAPaperDocumentGenerator;
+import org.hhn.topicgrouper.tg.TGSolution;
+import org.hhn.topicgrouper.tg.TGSolutionListener;
+import org.hhn.topicgrouper.tg.impl.LowMemTopicGrouper;
+
+/**
+ * Compares the merge join with the dense row kernel for several values of
+ * the dense row threshold. Small vocabularies make most topics occur in
+ * most documents, which is where dense rows should help. All runs must give
+ * the same total log likelihood.
+ */
+public class DenseRowKernelExp {
+	protected long[] runSolver(DocumentProvider<String> documentProvider,
+			double denseRowThreshold) {
+		LowMemTopicGrouper<String> topicGrouper = new LowMemTopicGrouper<String>(
+				1, documentProvider, 1);
+		topicGrouper.setDenseRowThreshold(denseRowThreshold);
+		// Start, end, final log likelihood bits.
+		final long[] result = new long[3];
+		topicGrouper.solve(new TGSolutionListener<String>() {
+			@Override
+			public void updatedSolution(int newTopicIndex, int oldTopicIndex,
+					double improvement, int t1Size, int t2Size,
+					TGSolution<String> solution) {
+				result[2] = Double.doubleToLongBits(solution
+						.getTotalLogLikelhood());
+			}
+
+			@Override
+			public void initialized(TGSolution<String> initialSolution) {
+			}
+
+			@Override
+			public void initalizing(double percentage) {
+			}
+
+			@Override
+			public void done() {
+				result[1] = System.currentTimeMillis();
+			}
+
+			@Override
+			public void beforeInitialization(int maxTopics, int documents) {
+				result[0] = System.currentTimeMillis();
+			}
+		});
+		return result;
+	}
+
+	public void run(int[] nDocs, int nWords, double[] thresholds)
+			throws IOException {
+		if (!new File("./target").exists()) {
+			new File("./target").mkdir();
+		}
+		PrintStream pw = new PrintStream(new FileOutputStream(new File(
+				"./target/" + getClass().getSimpleName() + ".csv")));
+		pw.println("docs;threshold;ms;same;");
+		for (int docs : nDocs) {
+			DocumentProvider<String> documentProvider = new TWCLDAPaperDocumentGenerator(
+					new Random(42), new double[] { 5, 0.5, 0.5, 0.5 }, docs,
+					nWords, nWords, 30, 30, 0, null, 0.5, 0.8);
+			// Warm up.
+			runSolver(documentProvider, 0);
+			long[] reference = runSolver(documentProvider, 0);
+			for (double threshold : thresholds) {
+				long[] result = threshold == 0 ? reference : runSolver(
+						documentProvider, threshold);
+				System.out.println("Docs: " + docs + " threshold: "
+						+ threshold + " " + (result[1] - result[0]) + "ms");
+				pw.print(docs);
+				pw.print(";");
+				pw.print(threshold);
+				pw.print(";");
+				pw.print(result[1] - result[0]);
+				pw.print(";");
+				pw.print(result[2] == reference[2]);
+				pw.println(";");
+			}
+		}
+		pw.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		new DenseRowKernelExp().run(new int[] { 1000, 4000, 16000 }, 25,
+				new double[] { 0, 0.5, 0.2, 0.05 });
+	}
+}
@@ -0,0 +1,90 @@
+package org.hhn.topicgrouper.paper.performance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.eval.TWCLDAPaperDocumentGenerator;
+import org.hhn.topicgrouper.paper.performance.HierarchyCutRecorder.Run;
+import org.hhn.topicgrouper.tg.impl.DivideAndConquerTopicGrouper;
+import org.hhn.topicgrouper.tg.impl.LowMemTopicGrouper;
+
+/**
+ * Compares DivideAndConquerTopicGrouper for several block sizes with the exact
+ * LowMemTopicGrouper: durations (including initialization, see
+ * {@link HierarchyCutRecorder}), pair computations and, at cuts with k
+ * topics, the total log likelihood and the Fowlkes-Mallows index B_k of the
+ * word clusterings.
+ */
+public class DivideAndConquerQualityExp {
+	public static void main(String[] args) throws IOException {
+		DocumentProvider<String> documentProvider = new TWCLDAPaperDocumentGenerator(
+				new Random(42), new double[] { 5, 0.5, 0.5, 0.5 }, 6000, 200,
+				200, 30, 30, 0, null, 0.5, 0.8);
+		int[] blockSizes = new int[] { 100, 200, 400 };
+		int[] blockTopics = new int[] { 20, 100 };
+		int threads = Runtime.getRuntime().availableProcessors();
+		int[] cuts = new int[] { 400, 200, 100, 50, 20, 10, 4 };
+		HierarchyCutRecorder recorder = new HierarchyCutRecorder(cuts);
+
+		if (!new File("./target").exists()) {
+			new File("./target").mkdir();
+		}
+		PrintStream pw = new PrintStream(new FileOutputStream(new File(
+				"./target/DivideAndConquerQualityExp.csv")));
+		pw.println("blocksize;blocktopics;blocks;ntopics;exactll;dcll;lldiff;fowlkesmallows;exactms;dcms;exactpairs;dcpairs;");
+
+		LowMemTopicGrouper<String> exactGrouper = new LowMemTopicGrouper<String>(
+				1, documentProvider, 1);
+		exactGrouper.setThreads(threads);
+		Run exact = recorder.record(exactGrouper);
+		System.out.println("Exact: " + exact.durationMs + "ms");
+		for (int blockSize : blockSizes) {
+			for (int topics : blockTopics) {
+				DivideAndConquerTopicGrouper<String> topicGrouper = new DivideAndConquerTopicGrouper<String>(
+						1, documentProvider, 1);
+				topicGrouper.setBlockSize(blockSize);
+				topicGrouper.setBlockTopics(topics);
+				topicGrouper.setParallelBlocks(threads);
+				Run run = recorder.record(topicGrouper);
+				System.out.println("Block size: " + blockSize + " Block topics: "
+						+ topics + " Blocks: " + topicGrouper.getNumberOfBlocks()
+						+ " " + run.durationMs + "ms");
+				for (int i = 0; i < cuts.length; i++) {
+					if (exact.clusterings[i] == null) {
+						continue;
+					}
+					pw.print(blockSize);
+					pw.print(";");
+					pw.print(topics);
+					pw.print(";");
+					pw.print(topicGrouper.getNumberOfBlocks());
+					pw.print(";");
+					pw.print(cuts[i]);
+					pw.print(";");
+					pw.print(exact.logLikelihoods[i]);
+					pw.print(";");
+					pw.print(run.logLikelihoods[i]);
+					pw.print(";");
+					pw.print(run.logLikelihoods[i] - exact.logLikelihoods[i]);
+					pw.print(";");
+					pw.print(HierarchyCutRecorder.fowlkesMallows(
+							exact.clusterings[i], run.clusterings[i]));
+					pw.print(";");
+					pw.print(exact.durationMs);
+					pw.print(";");
+					pw.print(run.durationMs);
+					pw.print(";");
+					pw.print(exactGrouper.getPairComputations());
+					pw.print(";");
+					pw.print(topicGrouper.getPairComputations());
+					pw.println(";");
+				}
+			}
+		}
+		pw.close();
+	}
+}
@@ -0,0 +1,120 @@
+package org.hhn.topicgrouper.paper.performance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.eval.TWCLDAPaperDocumentGenerator;
+import org.hhn.topicgrouper.tg.TGSolution;
+import org.hhn.topicgrouper.tg.TGSolutionListener;
+import org.hhn.topicgrouper.tg.impl.EHACTopicGrouper;
+
+/**
+ * Compares the time of the merge phase of EHAC with and without keyed join
+ * candidate queues for growing vocabularies. The growth exponent is estimated
+ * from two consecutive steps as log(t2 / t1) / log(v2 / v1).
+ */
+public class EHACKeyedJCQueuesScalingExp {
+	private final int[] wordsPerTopic;
+	private final int docsPerWord;
+	private int maxTopics;
+
+	public EHACKeyedJCQueuesScalingExp(int[] wordsPerTopic, int docsPerWord) {
+		this.wordsPerTopic = wordsPerTopic;
+		this.docsPerWord = docsPerWord;
+	}
+
+	protected long runSolver(DocumentProvider<String> documentProvider,
+			boolean keyed) {
+		EHACTopicGrouper<String> topicGrouper = new EHACTopicGrouper<String>(1,
+				documentProvider, 1);
+		topicGrouper.setKeyedJCQueues(keyed);
+		final long[] times = new long[2];
+		topicGrouper.solve(new TGSolutionListener<String>() {
+			@Override
+			public void updatedSolution(int newTopicIndex, int oldTopicIndex,
+					double improvement, int t1Size, int t2Size,
+					TGSolution<String> solution) {
+			}
+
+			@Override
+			public void initialized(TGSolution<String> initialSolution) {
+				times[0] = System.currentTimeMillis();
+			}
+
+			@Override
+			public void initalizing(double percentage) {
+			}
+
+			@Override
+			public void done() {
+				times[1] = System.currentTimeMillis();
+			}
+
+			@Override
+			public void beforeInitialization(int maxTopics, int documents) {
+				EHACKeyedJCQueuesScalingExp.this.maxTopics = maxTopics;
+			}
+		});
+		return times[1] - times[0];
+	}
+
+	public void run(Random random) throws IOException {
+		if (!new File("./target").exists()) {
+			new File("./target").mkdir();
+		}
+		PrintStream pw = new PrintStream(new FileOutputStream(new File(
+				"./target/" + getClass().getSimpleName() + ".csv")));
+		pw.println("nwords;scanms;keyedms;scanexp;keyedexp;");
+
+		int lastWords = 0;
+		long lastScan = 0, lastKeyed = 0;
+		for (int i = 0; i < wordsPerTopic.length; i++) {
+			// Short documents, so the merge step is dominated by the queue
+			// maintenance rather than by the likelihood computation.
+			DocumentProvider<String> documentProvider = new TWCLDAPaperDocumentGenerator(
+					random, new double[] { 5, 0.5, 0.5, 0.5 }, docsPerWord * 4
+							* wordsPerTopic[i], wordsPerTopic[i],
+					wordsPerTopic[i], 10, 10, 0, null, 0.5, 0.8);
+			long scan = runSolver(documentProvider, false);
+			long keyed = runSolver(documentProvider, true);
+			int nWords = maxTopics;
+
+			pw.print(nWords);
+			pw.print(";");
+			pw.print(scan);
+			pw.print(";");
+			pw.print(keyed);
+			pw.print(";");
+			if (lastWords > 0) {
+				pw.print(growthExponent(lastWords, nWords, lastScan, scan));
+				pw.print(";");
+				pw.print(growthExponent(lastWords, nWords, lastKeyed, keyed));
+				pw.print(";");
+			} else {
+				pw.print(";;");
+			}
+			pw.println();
+			System.out.println("Words: " + nWords + " Scan: " + scan
+					+ "ms Keyed: " + keyed + "ms");
+
+			lastWords = nWords;
+			lastScan = scan;
+			lastKeyed = keyed;
+		}
+		pw.close();
+	}
+
+	private static double growthExponent(int v1, int v2, long t1, long t2) {
+		return Math.log(Math.max(1, t2) / (double) Math.max(1, t1))
+				/ Math.log(v2 / (double) v1);
+	}
+
+	public static void main(String[] args) throws IOException {
+		new EHACKeyedJCQueuesScalingExp(new int[] { 250, 500, 1000, 2000 }, 1)
+				.run(new Random(42));
+	}
+}
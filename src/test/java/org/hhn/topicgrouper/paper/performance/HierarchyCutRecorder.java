@@ -0,0 +1,111 @@
+package org.hhn.topicgrouper.paper.performance;
+
+import gnu.trove.iterator.TLongIntIterator;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import org.hhn.topicgrouper.tg.TGSolution;
+import org.hhn.topicgrouper.tg.TGSolutionListener;
+import org.hhn.topicgrouper.tg.TGSolver;
+
+/**
+ * Records the total log likelihood and the word clustering of a solver run
+ * at cuts with k topics, so that hierarchies of different solvers can be
+ * compared via the Fowlkes-Mallows index B_k.
+ */
+public class HierarchyCutRecorder {
+	private final int[] cuts;
+
+	public HierarchyCutRecorder(int[] cuts) {
+		this.cuts = cuts;
+	}
+
+	public int[] getCuts() {
+		return cuts;
+	}
+
+	// Log likelihoods and word clusterings at the cuts of one run.
+	public static class Run {
+		public double[] logLikelihoods;
+		public int[][] clusterings;
+		// Duration of the whole run including initialization.
+		public long durationMs;
+	}
+
+	public Run record(TGSolver<String> solver) {
+		final Run run = new Run();
+		run.logLikelihoods = new double[cuts.length];
+		run.clusterings = new int[cuts.length][];
+		final int[] nTopics = new int[1];
+		final long[] times = new long[2];
+		solver.solve(new TGSolutionListener<String>() {
+			@Override
+			public void updatedSolution(int newTopicIndex, int oldTopicIndex,
+					double improvement, int t1Size, int t2Size,
+					TGSolution<String> solution) {
+				nTopics[0]--;
+				for (int i = 0; i < cuts.length; i++) {
+					if (cuts[i] == nTopics[0]) {
+						run.logLikelihoods[i] = solution.getTotalLogLikelhood();
+						int[] clustering = new int[solution.getVocab()
+								.getNumberOfWords()];
+						for (int w = 0; w < clustering.length; w++) {
+							clustering[w] = solution.getTopicForWord(w);
+						}
+						run.clusterings[i] = clustering;
+					}
+				}
+			}
+
+			@Override
+			public void initialized(TGSolution<String> initialSolution) {
+			}
+
+			@Override
+			public void initalizing(double percentage) {
+			}
+
+			@Override
+			public void done() {
+				times[1] = System.currentTimeMillis();
+			}
+
+			@Override
+			public void beforeInitialization(int maxTopics, int documents) {
+				times[0] = System.currentTimeMillis();
+				nTopics[0] = maxTopics;
+			}
+		});
+		run.durationMs = times[1] - times[0];
+		return run;
+	}
+
+	// Fowlkes-Mallows index of two clusterings of the same words (-1 for
+	// words without topic).
+	public static double fowlkesMallows(int[] c1, int[] c2) {
+		TLongIntHashMap both = new TLongIntHashMap();
+		TLongIntHashMap first = new TLongIntHashMap();
+		TLongIntHashMap second = new TLongIntHashMap();
+		long n = 0;
+		for (int w = 0; w < c1.length; w++) {
+			if (c1[w] >= 0 && c2[w] >= 0) {
+				both.adjustOrPutValue((((long) c1[w]) << 32) | c2[w], 1, 1);
+				first.adjustOrPutValue(c1[w], 1, 1);
+				second.adjustOrPutValue(c2[w], 1, 1);
+				n++;
+			}
+		}
+		double t = sumOfSquares(both) - n;
+		double p = sumOfSquares(first) - n;
+		double q = sumOfSquares(second) - n;
+		return p == 0 || q == 0 ? (t == 0 ? 1 : 0) : t / Math.sqrt(p * q);
+	}
+
+	private static double sumOfSquares(TLongIntHashMap counts) {
+		double sum = 0;
+		for (TLongIntIterator it = counts.iterator(); it.hasNext();) {
+			it.advance();
+			sum += ((double) it.value()) * it.value();
+		}
+		return sum;
+	}
+}
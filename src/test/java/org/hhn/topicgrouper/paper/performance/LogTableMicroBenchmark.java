@@ -0,0 +1,97 @@
+package org.hhn.topicgrouper.paper.performance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.hhn.topicgrouper.util.LogTable;
+
+/**
+ * Times the inner term of the likelihood kernels, fr * (log(fr) -
+ * log(docSize)), with Math.log() and with LogTable for frequencies of
+ * different ranges. Frequencies are log-uniform as word counts per document
+ * mostly are small. The sums must be exactly the same.
+ */
+public class LogTableMicroBenchmark {
+	private final int[] frs;
+	private final double[] logDocSizes;
+
+	public LogTableMicroBenchmark(int n, int maxFr, Random random) {
+		frs = new int[n];
+		logDocSizes = new double[n];
+		for (int i = 0; i < n; i++) {
+			frs[i] = (int) Math.exp(random.nextDouble() * Math.log(maxFr));
+			logDocSizes[i] = Math.log(frs[i] + random.nextInt(1000));
+		}
+	}
+
+	public double sumWithMathLog() {
+		double sum = 0;
+		for (int i = 0; i < frs.length; i++) {
+			int fr = frs[i];
+			sum += fr * (Math.log(fr) - logDocSizes[i]);
+		}
+		return sum;
+	}
+
+	public double sumWithLogTable() {
+		double sum = 0;
+		for (int i = 0; i < frs.length; i++) {
+			int fr = frs[i];
+			sum += fr * (LogTable.log(fr) - logDocSizes[i]);
+		}
+		return sum;
+	}
+
+	// Nanoseconds per term, the best of several rounds.
+	protected double time(boolean table, int rounds) {
+		long best = Long.MAX_VALUE;
+		double check = 0;
+		for (int r = 0; r < rounds; r++) {
+			long start = System.nanoTime();
+			check += table ? sumWithLogTable() : sumWithMathLog();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		// Keeps the JIT from dropping the loops.
+		if (check == 1) {
+			System.out.println();
+		}
+		return ((double) best) / frs.length;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (!new File("./target").exists()) {
+			new File("./target").mkdir();
+		}
+		PrintStream pw = new PrintStream(new FileOutputStream(new File(
+				"./target/LogTableMicroBenchmark.csv")));
+		pw.println("maxfr;mathlogns;logtablens;speedup;same;");
+		for (int maxFr : new int[] { 10, 100, 1000, 10000, 1000000 }) {
+			LogTableMicroBenchmark benchmark = new LogTableMicroBenchmark(
+					1 << 20, maxFr, new Random(42));
+			// Warm up.
+			benchmark.time(false, 5);
+			benchmark.time(true, 5);
+			double mathLog = benchmark.time(false, 20);
+			double logTable = benchmark.time(true, 20);
+			boolean same = benchmark.sumWithMathLog() == benchmark
+					.sumWithLogTable();
+			System.out.println("Max frequency: " + maxFr + " Math.log: "
+					+ mathLog + "ns LogTable: " + logTable + "ns Speedup: "
+					+ (mathLog / logTable) + " Same: " + same);
+			pw.print(maxFr);
+			pw.print(";");
+			pw.print(mathLog);
+			pw.print(";");
+			pw.print(logTable);
+			pw.print(";");
+			pw.print(mathLog / logTable);
+			pw.print(";");
+			pw.print(same);
+			pw.println(";");
+		}
+		pw.close();
+	}
+}
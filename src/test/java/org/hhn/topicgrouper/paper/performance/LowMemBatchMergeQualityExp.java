@@ -0,0 +1,180 @@
+package org.hhn.topicgrouper.paper.performance;
+
+import gnu.trove.iterator.TLongIntIterator;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.eval.TWCLDAPaperDocumentGenerator;
+import org.hhn.topicgrouper.tg.TGSolution;
+import org.hhn.topicgrouper.tg.TGSolutionListener;
+import org.hhn.topicgrouper.tg.impl.LowMemTopicGrouper;
+
+/**
+ * Compares the batch merging mode of LowMemTopicGrouper with the exact solver
+ * for several batch tolerances. The hierarchies are compared at cuts with k
+ * topics via the total log likelihood and the Fowlkes-Mallows index B_k of
+ * the two flat clusterings (1 means identical clusterings).
+ */
+public class LowMemBatchMergeQualityExp {
+	private final int[] cuts;
+
+	public LowMemBatchMergeQualityExp(int[] cuts) {
+		this.cuts = cuts;
+	}
+
+	// Log likelihoods and word clusterings at the cuts of one run.
+	protected static class Run {
+		double[] logLikelihoods;
+		int[][] clusterings;
+		long durationMs;
+		int rounds;
+		int batchMerges;
+	}
+
+	protected Run runSolver(DocumentProvider<String> documentProvider,
+			boolean batch, double tolerance, int threads) {
+		final LowMemTopicGrouper<String> topicGrouper = new LowMemTopicGrouper<String>(
+				1, documentProvider, 1);
+		topicGrouper.setThreads(threads);
+		topicGrouper.setBatchMerging(batch);
+		topicGrouper.setBatchTolerance(tolerance);
+		final Run run = new Run();
+		run.logLikelihoods = new double[cuts.length];
+		run.clusterings = new int[cuts.length][];
+		final int[] nTopics = new int[1];
+		final long[] times = new long[2];
+		topicGrouper.solve(new TGSolutionListener<String>() {
+			@Override
+			public void updatedSolution(int newTopicIndex, int oldTopicIndex,
+					double improvement, int t1Size, int t2Size,
+					TGSolution<String> solution) {
+				nTopics[0]--;
+				for (int i = 0; i < cuts.length; i++) {
+					if (cuts[i] == nTopics[0]) {
+						run.logLikelihoods[i] = solution.getTotalLogLikelhood();
+						int[] clustering = new int[solution.getVocab()
+								.getNumberOfWords()];
+						for (int w = 0; w < clustering.length; w++) {
+							clustering[w] = solution.getTopicForWord(w);
+						}
+						run.clusterings[i] = clustering;
+					}
+				}
+			}
+
+			@Override
+			public void initialized(TGSolution<String> initialSolution) {
+				times[0] = System.currentTimeMillis();
+			}
+
+			@Override
+			public void initalizing(double percentage) {
+			}
+
+			@Override
+			public void done() {
+				times[1] = System.currentTimeMillis();
+			}
+
+			@Override
+			public void beforeInitialization(int maxTopics, int documents) {
+				nTopics[0] = maxTopics;
+			}
+		});
+		run.durationMs = times[1] - times[0];
+		run.rounds = topicGrouper.getBatchRounds();
+		run.batchMerges = topicGrouper.getBatchMerges();
+		return run;
+	}
+
+	// Fowlkes-Mallows index of two clusterings of the same words (-1 for
+	// words without topic).
+	public static double fowlkesMallows(int[] c1, int[] c2) {
+		TLongIntHashMap both = new TLongIntHashMap();
+		TLongIntHashMap first = new TLongIntHashMap();
+		TLongIntHashMap second = new TLongIntHashMap();
+		long n = 0;
+		for (int w = 0; w < c1.length; w++) {
+			if (c1[w] >= 0 && c2[w] >= 0) {
+				both.adjustOrPutValue((((long) c1[w]) << 32) | c2[w], 1, 1);
+				first.adjustOrPutValue(c1[w], 1, 1);
+				second.adjustOrPutValue(c2[w], 1, 1);
+				n++;
+			}
+		}
+		double t = sumOfSquares(both) - n;
+		double p = sumOfSquares(first) - n;
+		double q = sumOfSquares(second) - n;
+		return p == 0 || q == 0 ? (t == 0 ? 1 : 0) : t / Math.sqrt(p * q);
+	}
+
+	private static double sumOfSquares(TLongIntHashMap counts) {
+		double sum = 0;
+		for (TLongIntIterator it = counts.iterator(); it.hasNext();) {
+			it.advance();
+			sum += ((double) it.value()) * it.value();
+		}
+		return sum;
+	}
+
+	public void run(DocumentProvider<String> documentProvider,
+			double[] tolerances, int threads) throws IOException {
+		if (!new File("./target").exists()) {
+			new File("./target").mkdir();
+		}
+		PrintStream pw = new PrintStream(new FileOutputStream(new File(
+				"./target/" + getClass().getSimpleName() + ".csv")));
+		pw.println("tolerance;ntopics;exactll;batchll;lldiff;fowlkesmallows;exactms;batchms;rounds;batchmerges;");
+
+		Run exact = runSolver(documentProvider, false, 0, threads);
+		System.out.println("Exact: " + exact.durationMs + "ms");
+		for (double tolerance : tolerances) {
+			Run batch = runSolver(documentProvider, true, tolerance, threads);
+			System.out.println("Tolerance: " + tolerance + " "
+					+ batch.durationMs + "ms Rounds: " + batch.rounds
+					+ " Batch merges: " + batch.batchMerges);
+			for (int i = 0; i < cuts.length; i++) {
+				if (exact.clusterings[i] == null) {
+					continue;
+				}
+				pw.print(tolerance);
+				pw.print(";");
+				pw.print(cuts[i]);
+				pw.print(";");
+				pw.print(exact.logLikelihoods[i]);
+				pw.print(";");
+				pw.print(batch.logLikelihoods[i]);
+				pw.print(";");
+				pw.print(batch.logLikelihoods[i] - exact.logLikelihoods[i]);
+				pw.print(";");
+				pw.print(fowlkesMallows(exact.clusterings[i],
+						batch.clusterings[i]));
+				pw.print(";");
+				pw.print(exact.durationMs);
+				pw.print(";");
+				pw.print(batch.durationMs);
+				pw.print(";");
+				pw.print(batch.rounds);
+				pw.print(";");
+				pw.print(batch.batchMerges);
+				pw.println(";");
+			}
+		}
+		pw.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		DocumentProvider<String> documentProvider = new TWCLDAPaperDocumentGenerator(
+				new Random(42), new double[] { 5, 0.5, 0.5, 0.5 }, 6000, 200,
+				200, 30, 30, 0, null, 0.5, 0.8);
+		new LowMemBatchMergeQualityExp(new int[] { 400, 200, 100, 50, 20, 10,
+				4 }).run(documentProvider, new double[] { 0, 10, 100, 1000 },
+				Runtime.getRuntime().availableProcessors());
+	}
+}
@@ -0,0 +1,106 @@
+package org.hhn.topicgrouper.paper.performance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.eval.TWCLDAPaperDocumentGenerator;
+import org.hhn.topicgrouper.tg.TGSolution;
+import org.hhn.topicgrouper.tg.TGSolutionListener;
+import org.hhn.topicgrouper.tg.impl.LowMemTopicGrouper;
+
+/**
+ * Compares LowMemTopicGrouper with the inverted index and the topic
+ * frequencies on the heap and in memory mapped files. Reports the durations
+ * and the heap in use after the initialization. Both runs must give the same
+ * total log likelihood.
+ */
+public class MappedStoragePerformanceExp {
+	protected long[] runSolver(DocumentProvider<String> documentProvider,
+			File mappedStorageDirectory, int threads) {
+		LowMemTopicGrouper<String> topicGrouper = new LowMemTopicGrouper<String>(
+				1, documentProvider, 1, 0, mappedStorageDirectory);
+		topicGrouper.setThreads(threads);
+		// Start, end of initialization, end, heap after initialization,
+		// final log likelihood bits.
+		final long[] result = new long[5];
+		topicGrouper.solve(new TGSolutionListener<String>() {
+			@Override
+			public void updatedSolution(int newTopicIndex, int oldTopicIndex,
+					double improvement, int t1Size, int t2Size,
+					TGSolution<String> solution) {
+				result[4] = Double.doubleToLongBits(solution
+						.getTotalLogLikelhood());
+			}
+
+			@Override
+			public void initialized(TGSolution<String> initialSolution) {
+				result[1] = System.currentTimeMillis();
+				Runtime runtime = Runtime.getRuntime();
+				runtime.gc();
+				result[3] = runtime.totalMemory() - runtime.freeMemory();
+			}
+
+			@Override
+			public void initalizing(double percentage) {
+			}
+
+			@Override
+			public void done() {
+				result[2] = System.currentTimeMillis();
+			}
+
+			@Override
+			public void beforeInitialization(int maxTopics, int documents) {
+				result[0] = System.currentTimeMillis();
+			}
+		});
+		topicGrouper.closeMappedStorage();
+		return result;
+	}
+
+	public void run(int[] nDocs, int nWords, int threads) throws IOException {
+		if (!new File("./target").exists()) {
+			new File("./target").mkdir();
+		}
+		PrintStream pw = new PrintStream(new FileOutputStream(new File(
+				"./target/" + getClass().getSimpleName() + ".csv")));
+		pw.println("docs;heapinitms;heapms;heapbytes;mappedinitms;mappedms;mappedbytes;same;");
+		for (int docs : nDocs) {
+			DocumentProvider<String> documentProvider = new TWCLDAPaperDocumentGenerator(
+					new Random(42), new double[] { 5, 0.5, 0.5, 0.5 }, docs,
+					nWords, nWords, 30, 30, 0, null, 0.5, 0.8);
+			long[] heap = runSolver(documentProvider, null, threads);
+			long[] mapped = runSolver(documentProvider, new File("./target"),
+					threads);
+			System.out.println("Docs: " + docs + " heap: "
+					+ (heap[2] - heap[0]) + "ms mapped: "
+					+ (mapped[2] - mapped[0]) + "ms");
+			pw.print(docs);
+			pw.print(";");
+			pw.print(heap[1] - heap[0]);
+			pw.print(";");
+			pw.print(heap[2] - heap[0]);
+			pw.print(";");
+			pw.print(heap[3]);
+			pw.print(";");
+			pw.print(mapped[1] - mapped[0]);
+			pw.print(";");
+			pw.print(mapped[2] - mapped[0]);
+			pw.print(";");
+			pw.print(mapped[3]);
+			pw.print(";");
+			pw.print(heap[4] == mapped[4]);
+			pw.println(";");
+		}
+		pw.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		new MappedStoragePerformanceExp().run(new int[] { 2000, 8000, 32000 },
+				100, Runtime.getRuntime().availableProcessors());
+	}
+}
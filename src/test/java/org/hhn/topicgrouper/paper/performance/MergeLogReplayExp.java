@@ -0,0 +1,82 @@
+package org.hhn.topicgrouper.paper.performance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.eval.TWCLDAPaperDocumentGenerator;
+import org.hhn.topicgrouper.tg.TGSolutionListenerMultiplexer;
+import org.hhn.topicgrouper.tg.impl.LowMemTopicGrouper;
+import org.hhn.topicgrouper.tg.report.BinaryMergeLogWriter;
+import org.hhn.topicgrouper.tg.report.MergeLogReplayer;
+import org.hhn.topicgrouper.tg.report.MergeLogSolutionReporter;
+import org.hhn.topicgrouper.tg.report.TopicFrCollectSolutionReporter;
+
+/**
+ * Compares solving with and without a {@link BinaryMergeLogWriter} attached
+ * and the time for replaying the log into reporters instead of solving
+ * again.
+ */
+public class MergeLogReplayExp {
+	public void run(int nDocs, int[] nWords) throws IOException {
+		if (!new File("./target").exists()) {
+			new File("./target").mkdir();
+		}
+		PrintStream pw = new PrintStream(new FileOutputStream(new File(
+				"./target/" + getClass().getSimpleName() + ".csv")));
+		pw.println("words;solvems;solvelogms;logbytes;replayms;merges;");
+		File log = new File("./target/" + getClass().getSimpleName() + ".bin");
+		for (int words : nWords) {
+			DocumentProvider<String> documentProvider = new TWCLDAPaperDocumentGenerator(
+					new Random(42), new double[] { 5, 0.5, 0.5, 0.5 }, nDocs,
+					words, words, 30, 30, 0, null, 0.5, 0.8);
+
+			long start = System.currentTimeMillis();
+			new LowMemTopicGrouper<String>(1, documentProvider, 1)
+					.solve(new MergeLogSolutionReporter<String>());
+			long solve = System.currentTimeMillis() - start;
+
+			TGSolutionListenerMultiplexer<String> listener = new TGSolutionListenerMultiplexer<String>();
+			listener.addSolutionListener(new MergeLogSolutionReporter<String>());
+			listener.addSolutionListener(new BinaryMergeLogWriter<String>(log));
+			start = System.currentTimeMillis();
+			new LowMemTopicGrouper<String>(1, documentProvider, 1)
+					.solve(listener);
+			long solveLog = System.currentTimeMillis() - start;
+
+			MergeLogReplayer<String> replayer = new MergeLogReplayer<String>(
+					log, documentProvider.getVocab());
+			listener = new TGSolutionListenerMultiplexer<String>();
+			listener.addSolutionListener(new MergeLogSolutionReporter<String>());
+			listener.addSolutionListener(new TopicFrCollectSolutionReporter<String>());
+			start = System.currentTimeMillis();
+			replayer.replay(listener);
+			long replay = System.currentTimeMillis() - start;
+
+			System.out.println("Words: " + words + " solve: " + solve
+					+ "ms with log: " + solveLog + "ms replay: " + replay
+					+ "ms");
+			pw.print(words);
+			pw.print(";");
+			pw.print(solve);
+			pw.print(";");
+			pw.print(solveLog);
+			pw.print(";");
+			pw.print(log.length());
+			pw.print(";");
+			pw.print(replay);
+			pw.print(";");
+			pw.print(replayer.getMerges());
+			pw.println(";");
+		}
+		log.delete();
+		pw.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		new MergeLogReplayExp().run(2000, new int[] { 100, 200, 400 });
+	}
+}
@@ -0,0 +1,186 @@
+package org.hhn.topicgrouper.tg;
+
+import gnu.trove.TIntCollection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.eval.TWCLDAPaperDocumentGenerator;
+import org.hhn.topicgrouper.tg.AsyncTGSolutionListener.Backpressure;
+import org.hhn.topicgrouper.tg.impl.LowMemTopicGrouper;
+import org.hhn.topicgrouper.tg.report.MindMapSolutionReporter;
+import org.hhn.topicgrouper.tg.report.TopicHistoryCSVSolutionReporter;
+import org.hhn.topicgrouper.tg.report.store.MapNode;
+
+public class AsyncTGSolutionListenerTest extends TestCase {
+	private final DocumentProvider<String> documentProvider = new TWCLDAPaperDocumentGenerator(
+			new Random(42), new double[] { 5, 0.5, 0.5, 0.5 }, 300, 100, 100,
+			30, 30, 0, null, 0.5, 0.8);
+
+	public void testBlockGivesSynchronousOutput() {
+		ByteArrayOutputStream syncCSV = new ByteArrayOutputStream();
+		MindMapSolutionReporter<String> syncMindMap = new MindMapSolutionReporter<String>(
+				10, false, 1.1, 20);
+		StateRecorder syncStates = new StateRecorder();
+		solve(multiplex(new TopicHistoryCSVSolutionReporter<String>(
+				new PrintStream(syncCSV), 1), syncMindMap, syncStates));
+
+		ByteArrayOutputStream asyncCSV = new ByteArrayOutputStream();
+		MindMapSolutionReporter<String> asyncMindMap = new MindMapSolutionReporter<String>(
+				10, false, 1.1, 20);
+		StateRecorder asyncStates = new StateRecorder();
+		AsyncTGSolutionListener<String> async = new AsyncTGSolutionListener<String>(
+				new SlowListener(multiplex(
+						new TopicHistoryCSVSolutionReporter<String>(
+								new PrintStream(asyncCSV), 1), asyncMindMap,
+						asyncStates)), 64, Backpressure.BLOCK);
+		solve(async);
+		async.close();
+
+		assertTrue(syncCSV.size() > 0);
+		assertEquals(syncCSV.toString(), asyncCSV.toString());
+		assertEquals(describe(syncMindMap.getAllNodes()),
+				describe(asyncMindMap.getAllNodes()));
+		assertEquals(syncStates.states, asyncStates.states);
+	}
+
+	public void testDropAndSampleGiveStateOfEvent() {
+		StateRecorder syncStates = new StateRecorder();
+		solve(syncStates);
+		for (Backpressure backpressure : new Backpressure[] {
+				Backpressure.DROP, Backpressure.SAMPLE }) {
+			StateRecorder asyncStates = new StateRecorder();
+			AsyncTGSolutionListener<String> async = new AsyncTGSolutionListener<String>(
+					new SlowListener(asyncStates), 4, backpressure);
+			async.setSampleInterval(3);
+			solve(async);
+			async.close();
+			assertTrue(async.getDropped() > 0);
+			assertTrue(asyncStates.states.size() < syncStates.states.size());
+			for (Map.Entry<Integer, String> e : asyncStates.states.entrySet()) {
+				assertEquals(syncStates.states.get(e.getKey()), e.getValue());
+			}
+			// The last merge is never left out when sampling.
+			if (backpressure == Backpressure.SAMPLE) {
+				assertTrue(asyncStates.states.containsKey(1));
+			}
+		}
+	}
+
+	private void solve(TGSolutionListener<String> listener) {
+		new LowMemTopicGrouper<String>(1, documentProvider, 1)
+				.solve(listener);
+	}
+
+	private static TGSolutionListener<String> multiplex(
+			TGSolutionListener<String>... listeners) {
+		TGSolutionListenerMultiplexer<String> multiplexer = new TGSolutionListenerMultiplexer<String>();
+		for (TGSolutionListener<String> listener : listeners) {
+			multiplexer.addSolutionListener(listener);
+		}
+		return multiplexer;
+	}
+
+	private static String describe(List<MapNode<String>> nodes) {
+		StringBuilder b = new StringBuilder();
+		for (MapNode<String> node : nodes) {
+			b.append(node.getId()).append(' ')
+					.append(node.getTopTopicWordInfos()).append(' ')
+					.append(node.getTotalLikelihood()).append(' ')
+					.append(node.getLikelihood()).append(' ')
+					.append(node.getDeltaLikelihood()).append(' ')
+					.append(node.getTopicFrequency()).append(' ')
+					.append(node.isMarked()).append('\n');
+		}
+		return b.toString();
+	}
+
+	// Records the whole solution per number of topics.
+	private static class StateRecorder implements TGSolutionListener<String> {
+		private final Map<Integer, String> states = new HashMap<Integer, String>();
+
+		@Override
+		public void beforeInitialization(int maxTopics, int documents) {
+		}
+
+		@Override
+		public void initalizing(double percentage) {
+		}
+
+		@Override
+		public void initialized(TGSolution<String> initialSolution) {
+		}
+
+		@Override
+		public void updatedSolution(int newTopicIndex, int oldTopicIndex,
+				double improvement, int t1Size, int t2Size,
+				TGSolution<String> solution) {
+			StringBuilder b = new StringBuilder();
+			b.append(solution.getTotalLogLikelhood()).append('\n');
+			TIntCollection[] topics = solution.getTopics();
+			double[] logLikelihoods = solution.getTopicLogLikelihoods();
+			for (int id : solution.getTopicIds()) {
+				b.append(id).append(' ').append(topics[id]).append(' ')
+						.append(solution.getTopicFrequency(id)).append(' ')
+						.append(logLikelihoods[id]).append('\n');
+			}
+			for (int w = 0; w < solution.getVocab().getNumberOfWords(); w++) {
+				b.append(solution.getTopicForWord(w)).append(' ');
+			}
+			states.put(solution.getNumberOfTopics(), b.toString());
+		}
+
+		@Override
+		public void done() {
+		}
+	}
+
+	// Takes 1 ms per merge, so the solver gets ahead of the consumer.
+	private static class SlowListener implements TGSolutionListener<String> {
+		private final TGSolutionListener<String> listener;
+
+		public SlowListener(TGSolutionListener<String> listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public void beforeInitialization(int maxTopics, int documents) {
+			listener.beforeInitialization(maxTopics, documents);
+		}
+
+		@Override
+		public void initalizing(double percentage) {
+			listener.initalizing(percentage);
+		}
+
+		@Override
+		public void initialized(TGSolution<String> initialSolution) {
+			listener.initialized(initialSolution);
+		}
+
+		@Override
+		public void updatedSolution(int newTopicIndex, int oldTopicIndex,
+				double improvement, int t1Size, int t2Size,
+				TGSolution<String> solution) {
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			listener.updatedSolution(newTopicIndex, oldTopicIndex,
+					improvement, t1Size, t2Size, solution);
+		}
+
+		@Override
+		public void done() {
+			listener.done();
+		}
+	}
+}
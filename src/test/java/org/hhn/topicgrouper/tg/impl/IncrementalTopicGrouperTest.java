@@ -0,0 +1,70 @@
+package org.hhn.topicgrouper.tg.impl;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.doc.impl.DefaultDocumentProvider;
+import org.hhn.topicgrouper.eval.TWCLDAPaperDocumentGenerator;
+import org.hhn.topicgrouper.tg.report.MergeLogSolutionReporter;
+
+public class IncrementalTopicGrouperTest extends TestCase {
+	// 300 documents for the previous run, the others get appended.
+	private void assertSameAsFromScratch(long seed, int words,
+			int minWordFrequency, int newDocuments) {
+		DocumentProvider<String> generator = new TWCLDAPaperDocumentGenerator(
+				new Random(seed), new double[] { 5, 0.5, 0.5, 0.5 },
+				300 + newDocuments, words, words, 30, 30, 0, null, 0.5, 0.8);
+		DefaultDocumentProvider<String> documentProvider = new DefaultDocumentProvider<String>();
+		for (int i = 0; i < 300; i++) {
+			documentProvider.addDocument(generator.getDocuments().get(i));
+		}
+		MergeLogSolutionReporter<String> previousRun = new MergeLogSolutionReporter<String>();
+		new LowMemTopicGrouper<String>(minWordFrequency, documentProvider, 1)
+				.solve(previousRun);
+		for (int i = 300; i < 300 + newDocuments; i++) {
+			documentProvider.addDocument(generator.getDocuments().get(i));
+		}
+
+		MergeLogSolutionReporter<String> incremental = new MergeLogSolutionReporter<String>();
+		IncrementalTopicGrouper<String> solver = new IncrementalTopicGrouper<String>(
+				minWordFrequency, documentProvider, 1, previousRun);
+		assertEquals(0.0, solver.getTolerance());
+		solver.solve(incremental);
+		MergeLogSolutionReporter<String> fromScratch = new MergeLogSolutionReporter<String>();
+		new LowMemTopicGrouper<String>(minWordFrequency, documentProvider, 1)
+				.solve(fromScratch);
+
+		assertEquals(fromScratch.size(), incremental.size());
+		for (int k = 0; k < fromScratch.size(); k++) {
+			String merge = "seed " + seed + " merge " + k;
+			assertEquals(merge, fromScratch.getTopic1(k),
+					incremental.getTopic1(k));
+			assertEquals(merge, fromScratch.getTopic2(k),
+					incremental.getTopic2(k));
+			// Bit identical, not just up to rounding.
+			assertEquals(merge, Double.doubleToLongBits(fromScratch
+					.getImprovement(k)), Double.doubleToLongBits(incremental
+					.getImprovement(k)));
+			assertEquals(merge, Double.doubleToLongBits(fromScratch
+					.getLogLikelihood(k)), Double.doubleToLongBits(incremental
+					.getLogLikelihood(k)));
+		}
+	}
+
+	public void testSameMergesAsFromScratch() {
+		assertSameAsFromScratch(1, 100, 3, 30);
+		assertSameAsFromScratch(2, 100, 1, 30);
+		// The survivor of a join of an affected and an unaffected topic.
+		assertSameAsFromScratch(14, 150, 3, 30);
+	}
+
+	// Few words give many joins with exactly the same improvement.
+	public void testSameMergesAsFromScratchWithTies() {
+		for (long seed = 1; seed <= 5; seed++) {
+			assertSameAsFromScratch(seed, 10, 1, 1);
+			assertSameAsFromScratch(seed, 10, 2, 5);
+		}
+	}
+}
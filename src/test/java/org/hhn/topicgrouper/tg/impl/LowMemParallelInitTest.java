@@ -0,0 +1,78 @@
+package org.hhn.topicgrouper.tg.impl;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.eval.TWCLDAPaperDocumentGenerator;
+import org.hhn.topicgrouper.tg.TGSolution;
+import org.hhn.topicgrouper.tg.TGSolutionListener;
+
+public class LowMemParallelInitTest extends TestCase {
+	// Initial join candidates as (partner, log likelihood, improvement) per
+	// topic. The run stops right after initialization.
+	private double[][] initialJoinCandidates(
+			DocumentProvider<String> documentProvider, int threads,
+			boolean sparse) {
+		final LowMemTopicGrouper<String> solver = new LowMemTopicGrouper<String>(
+				1, documentProvider, Integer.MAX_VALUE);
+		solver.setThreads(threads);
+		solver.setSparseInitialization(sparse);
+		final double[][] result = new double[solver.maxTopics][];
+		solver.solve(new TGSolutionListener<String>() {
+			@Override
+			public void beforeInitialization(int maxTopics, int documents) {
+			}
+
+			@Override
+			public void initalizing(double percentage) {
+			}
+
+			@Override
+			public void initialized(TGSolution<String> initialSolution) {
+				for (int t = 0; t < result.length; t++) {
+					LowMemTopicGrouper.MyJoinCandidate jc = solver.jcs[t];
+					result[t] = new double[] { jc.i, jc.j, jc.logLikelihood,
+							jc.improvement };
+				}
+			}
+
+			@Override
+			public void updatedSolution(int newTopicIndex, int oldTopicIndex,
+					double improvement, int t1Size, int t2Size,
+					TGSolution<String> solution) {
+			}
+
+			@Override
+			public void done() {
+			}
+		});
+		return result;
+	}
+
+	public void testParallelInitIsSequentialInit() {
+		DocumentProvider<String> documentProvider = new TWCLDAPaperDocumentGenerator(
+				new Random(42), new double[] { 5, 0.5, 0.5, 0.5 }, 500, 100,
+				100, 30, 30, 0, null, 0.5, 0.8);
+		for (boolean sparse : new boolean[] { false, true }) {
+			double[][] sequential = initialJoinCandidates(documentProvider,
+					1, sparse);
+			assertTrue(sequential.length > 100);
+			// Several runs, as a race would not show up every time.
+			for (int run = 0; run < 5; run++) {
+				double[][] parallel = initialJoinCandidates(documentProvider,
+						4, sparse);
+				assertEquals(sequential.length, parallel.length);
+				for (int t = 0; t < sequential.length; t++) {
+					for (int k = 0; k < sequential[t].length; k++) {
+						// Bit identical, not just up to rounding.
+						assertEquals("topic " + t, Double
+								.doubleToLongBits(sequential[t][k]), Double
+								.doubleToLongBits(parallel[t][k]));
+					}
+				}
+			}
+		}
+	}
+}
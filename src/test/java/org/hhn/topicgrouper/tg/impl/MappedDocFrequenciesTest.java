@@ -0,0 +1,44 @@
+package org.hhn.topicgrouper.tg.impl;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+public class MappedDocFrequenciesTest extends TestCase {
+	public void testAddLikeOnHeap() {
+		MappedFrequencyStore store = new MappedFrequencyStore(
+				new MappedIntArray(new File(System.getProperty("java.io.tmpdir")),
+						4));
+		try {
+			DocFrequencies heap = new DocFrequencies();
+			// Starts with an empty region, so the first add() moves it.
+			DocFrequencies mapped = store.create(new DocFrequencies());
+			DocFrequencies other = store.create(new DocFrequencies(new int[] {
+					1, 5 }, new int[] { 2, 3 }));
+			for (int d = 0; d < 100; d += 3) {
+				heap.add(d, d % 7);
+				mapped.add(d, d % 7);
+			}
+			assertEquals(heap.size(), mapped.size());
+			assertEquals(heap.getMaxFrequency(), mapped.getMaxFrequency());
+			for (int i = 0; i < heap.size(); i++) {
+				assertEquals(heap.getDocIndex(i), mapped.getDocIndex(i));
+				assertEquals(heap.getFrequency(i), mapped.getFrequency(i));
+			}
+			// Regions of other lists stay intact.
+			assertEquals(3, other.get(5));
+			assertEquals(0, mapped.get(1));
+			assertEquals(5, mapped.get(12));
+			try {
+				mapped.add(50, 1);
+				fail();
+			} catch (IllegalArgumentException e) {
+			}
+			mapped.addAll(other);
+			assertEquals(2, mapped.get(1));
+			assertEquals(heap.size() + 2, mapped.size());
+		} finally {
+			store.close();
+		}
+	}
+}
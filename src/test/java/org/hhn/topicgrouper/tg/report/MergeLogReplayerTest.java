@@ -0,0 +1,155 @@
+package org.hhn.topicgrouper.tg.report;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.eval.TWCLDAPaperDocumentGenerator;
+import org.hhn.topicgrouper.tg.TGSolutionListenerMultiplexer;
+import org.hhn.topicgrouper.tg.impl.LowMemTopicGrouper;
+import org.hhn.topicgrouper.tg.report.store.MapNode;
+
+public class MergeLogReplayerTest extends TestCase {
+	private final DocumentProvider<String> documentProvider = new TWCLDAPaperDocumentGenerator(
+			new Random(42), new double[] { 5, 0.5, 0.5, 0.5 }, 300, 100, 100,
+			30, 30, 0, null, 0.5, 0.8);
+
+	private File log;
+	private File truncatedLog;
+
+	@Override
+	protected void setUp() throws Exception {
+		log = File.createTempFile("mergelog", ".bin");
+		truncatedLog = File.createTempFile("mergelog", ".bin");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		log.delete();
+		truncatedLog.delete();
+	}
+
+	public void testReplayGivesSameOutputAsSolver() throws IOException {
+		Reporters live = new Reporters();
+		TGSolutionListenerMultiplexer<String> listener = live.multiplexer();
+		listener.addSolutionListener(new BinaryMergeLogWriter<String>(log));
+		// Minimum word frequency 3, so not every word has a topic.
+		new LowMemTopicGrouper<String>(3, documentProvider, 1)
+				.solve(listener);
+
+		Reporters replayed = new Reporters();
+		MergeLogReplayer<String> replayer = new MergeLogReplayer<String>(log,
+				documentProvider.getVocab());
+		replayer.replay(replayed.multiplexer());
+
+		assertEquals(live.mergeLog.size(), replayer.getMerges());
+		assertFalse(replayer.hasHomonyms());
+		assertTrue(live.csv.size() > 0);
+		assertEquals(live.csv.toString(), replayed.csv.toString());
+		assertEquals(describe(live.mindMap.getAllNodes()),
+				describe(replayed.mindMap.getAllNodes()));
+		assertTrue(Arrays.deepEquals(live.topicFrs.getFrequenciesPerNTopics(),
+				replayed.topicFrs.getFrequenciesPerNTopics()));
+		assertSameMerges(live.mergeLog, replayed.mergeLog,
+				live.mergeLog.size());
+
+		// Stops at the given number of topics.
+		MergeLogSolutionReporter<String> upTo10 = new MergeLogSolutionReporter<String>();
+		replayer.replay(upTo10, 10);
+		assertEquals(live.mergeLog.getMaxTopics() - 10, replayer.getMerges());
+		assertSameMerges(live.mergeLog, upTo10, replayer.getMerges());
+	}
+
+	public void testTruncatedLastRecordIsIgnored() throws IOException {
+		MergeLogSolutionReporter<String> live = new MergeLogSolutionReporter<String>();
+		TGSolutionListenerMultiplexer<String> listener = new TGSolutionListenerMultiplexer<String>();
+		listener.addSolutionListener(live);
+		listener.addSolutionListener(new BinaryMergeLogWriter<String>(log));
+		new LowMemTopicGrouper<String>(1, documentProvider, 1)
+				.solve(listener);
+
+		// Like a run that got killed in the middle of writing a record.
+		byte[] bytes = Files.readAllBytes(log.toPath());
+		FileOutputStream out = new FileOutputStream(truncatedLog);
+		try {
+			out.write(bytes, 0, bytes.length
+					- BinaryMergeLogWriter.RECORD_SIZE / 2);
+		} finally {
+			out.close();
+		}
+
+		Reporters replayed = new Reporters();
+		MergeLogReplayer<String> replayer = new MergeLogReplayer<String>(
+				truncatedLog, documentProvider.getVocab());
+		replayer.replay(replayed.multiplexer());
+		assertEquals(live.size() - 1, replayer.getMerges());
+		assertSameMerges(live, replayed.mergeLog, live.size() - 1);
+		// The solution stopped at 2 topics.
+		int[][] topicFrs = replayed.topicFrs.getFrequenciesPerNTopics();
+		assertNull(topicFrs[0]);
+		assertNotNull(topicFrs[1]);
+	}
+
+	private static void assertSameMerges(
+			MergeLogSolutionReporter<String> expected,
+			MergeLogSolutionReporter<String> actual, int merges) {
+		assertEquals(expected.getMaxTopics(), actual.getMaxTopics());
+		assertEquals(expected.getDocuments(), actual.getDocuments());
+		for (int i = 0; i < expected.getMaxTopics(); i++) {
+			assertEquals(expected.getInitialTopicWord(i),
+					actual.getInitialTopicWord(i));
+		}
+		assertEquals(merges, actual.size());
+		for (int k = 0; k < merges; k++) {
+			assertEquals(expected.getTopic1(k), actual.getTopic1(k));
+			assertEquals(expected.getTopic2(k), actual.getTopic2(k));
+			assertEquals(Double.doubleToLongBits(expected.getImprovement(k)),
+					Double.doubleToLongBits(actual.getImprovement(k)));
+			assertEquals(Double.doubleToLongBits(expected.getLogLikelihood(k)),
+					Double.doubleToLongBits(actual.getLogLikelihood(k)));
+		}
+	}
+
+	private static String describe(List<MapNode<String>> nodes) {
+		StringBuilder b = new StringBuilder();
+		for (MapNode<String> node : nodes) {
+			b.append(node.getId()).append(' ')
+					.append(node.getTopTopicWordInfos()).append(' ')
+					.append(node.getTotalLikelihood()).append(' ')
+					.append(node.getLikelihood()).append(' ')
+					.append(node.getDeltaLikelihood()).append(' ')
+					.append(node.getTopicFrequency()).append(' ')
+					.append(node.isMarked()).append('\n');
+		}
+		return b.toString();
+	}
+
+	// The reporters of a run, either live or replayed.
+	private static class Reporters {
+		private final ByteArrayOutputStream csv = new ByteArrayOutputStream();
+		private final MindMapSolutionReporter<String> mindMap = new MindMapSolutionReporter<String>(
+				10, false, 1.1, 20);
+		private final TopicFrCollectSolutionReporter<String> topicFrs = new TopicFrCollectSolutionReporter<String>();
+		private final MergeLogSolutionReporter<String> mergeLog = new MergeLogSolutionReporter<String>();
+
+		public TGSolutionListenerMultiplexer<String> multiplexer() {
+			TGSolutionListenerMultiplexer<String> multiplexer = new TGSolutionListenerMultiplexer<String>();
+			multiplexer
+					.addSolutionListener(new TopicHistoryCSVSolutionReporter<String>(
+							new PrintStream(csv), 1));
+			multiplexer.addSolutionListener(mindMap);
+			multiplexer.addSolutionListener(topicFrs);
+			multiplexer.addSolutionListener(mergeLog);
+			return multiplexer;
+		}
+	}
+}
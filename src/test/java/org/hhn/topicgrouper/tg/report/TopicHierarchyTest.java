@@ -0,0 +1,136 @@
+package org.hhn.topicgrouper.tg.report;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.list.TIntList;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.eval.TWCLDAPaperDocumentGenerator;
+import org.hhn.topicgrouper.tg.TGSolution;
+import org.hhn.topicgrouper.tg.TGSolutionListener;
+import org.hhn.topicgrouper.tg.TGSolutionListenerMultiplexer;
+import org.hhn.topicgrouper.tg.impl.LowMemTopicGrouper;
+
+public class TopicHierarchyTest extends TestCase {
+	public void testSameTopicsAsSolver() {
+		// A minimum word frequency of 3 leaves some words without a topic.
+		DocumentProvider<String> documentProvider = new TWCLDAPaperDocumentGenerator(
+				new Random(42), new double[] { 5, 0.5, 0.5, 0.5 }, 300, 100,
+				100, 30, 30, 0, null, 0.5, 0.8);
+		int nWords = documentProvider.getVocab().getNumberOfWords();
+		MergeLogSolutionReporter<String> log = new MergeLogSolutionReporter<String>();
+		StateRecorder states = new StateRecorder(nWords);
+		TGSolutionListenerMultiplexer<String> multiplexer = new TGSolutionListenerMultiplexer<String>();
+		multiplexer.addSolutionListener(log);
+		multiplexer.addSolutionListener(states);
+		new LowMemTopicGrouper<String>(3, documentProvider, 1)
+				.solve(multiplexer);
+
+		TopicHierarchy hierarchy = new TopicHierarchy(log, nWords);
+		assertEquals(1, hierarchy.getMinTopics());
+		assertEquals(log.getMaxTopics(), hierarchy.getMaxTopics());
+		assertEquals(hierarchy.getMaxTopics(), states.topicsForWords.size());
+		assertTrue(hierarchy.getMaxTopics() < nWords);
+
+		int[] ks = new int[hierarchy.getMaxTopics()];
+		for (int k = 1; k <= hierarchy.getMaxTopics(); k++) {
+			ks[k - 1] = k;
+			int[] expected = states.topicsForWords.get(k);
+			assertTrue(Arrays.equals(expected, hierarchy.getTopicsForWords(k)));
+			for (int w = 0; w < nWords; w++) {
+				assertEquals("k " + k + " word " + w, expected[w],
+						hierarchy.getTopicForWord(w, k));
+			}
+			int[][] expectedTopics = states.topics.get(k);
+			TIntList[] topics = hierarchy.getTopics(k);
+			assertEquals(expectedTopics.length, topics.length);
+			for (int t = 0; t < topics.length; t++) {
+				if (expectedTopics[t] == null) {
+					assertNull(topics[t]);
+				} else {
+					assertTrue("k " + k + " topic " + t, Arrays.equals(
+							expectedTopics[t], topics[t].toArray()));
+				}
+			}
+		}
+		int[][] parallel = hierarchy.getTopicsForWords(ks, 4);
+		for (int i = 0; i < ks.length; i++) {
+			assertTrue(Arrays.equals(states.topicsForWords.get(ks[i]),
+					parallel[i]));
+		}
+
+		try {
+			hierarchy.getTopicsForWords(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			hierarchy.getTopicForWord(0, hierarchy.getMaxTopics() + 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	// Records the topic of each word and the sorted words of each topic per
+	// number of topics.
+	private static class StateRecorder implements TGSolutionListener<String> {
+		private final int nWords;
+		private final Map<Integer, int[]> topicsForWords = new HashMap<Integer, int[]>();
+		private final Map<Integer, int[][]> topics = new HashMap<Integer, int[][]>();
+
+		public StateRecorder(int nWords) {
+			this.nWords = nWords;
+		}
+
+		@Override
+		public void beforeInitialization(int maxTopics, int documents) {
+		}
+
+		@Override
+		public void initalizing(double percentage) {
+		}
+
+		@Override
+		public void initialized(TGSolution<String> initialSolution) {
+			record(initialSolution);
+		}
+
+		@Override
+		public void updatedSolution(int newTopicIndex, int oldTopicIndex,
+				double improvement, int t1Size, int t2Size,
+				TGSolution<String> solution) {
+			record(solution);
+		}
+
+		private void record(TGSolution<String> solution) {
+			int[] topicForWord = new int[nWords];
+			for (int w = 0; w < nWords; w++) {
+				topicForWord[w] = solution.getTopicForWord(w);
+			}
+			// Counted here as the initial solution does not know its number
+			// of topics yet.
+			int k = 0;
+			TIntCollection[] solutionTopics = solution.getTopics();
+			int[][] sortedTopics = new int[solutionTopics.length][];
+			for (int t = 0; t < solutionTopics.length; t++) {
+				if (solutionTopics[t] != null) {
+					sortedTopics[t] = solutionTopics[t].toArray();
+					Arrays.sort(sortedTopics[t]);
+					k++;
+				}
+			}
+			topicsForWords.put(k, topicForWord);
+			topics.put(k, sortedTopics);
+		}
+
+		@Override
+		public void done() {
+		}
+	}
+}
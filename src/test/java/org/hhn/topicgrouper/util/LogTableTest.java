@@ -0,0 +1,130 @@
+package org.hhn.topicgrouper.util;
+
+import gnu.trove.list.TIntList;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.hhn.topicgrouper.doc.DocumentProvider;
+import org.hhn.topicgrouper.doc.impl.DefaultDocumentProvider;
+import org.hhn.topicgrouper.tg.TGSolution;
+import org.hhn.topicgrouper.tg.TGSolutionListener;
+import org.hhn.topicgrouper.tg.impl.LowMemTopicGrouper;
+
+public class LogTableTest extends TestCase {
+	@Override
+	protected void tearDown() throws Exception {
+		LogTable.setMaxSize(LogTable.DEFAULT_MAX_SIZE);
+	}
+
+	public void testTable() {
+		// Small bound so that the fallback gets used as well.
+		LogTable.setMaxSize(500);
+		for (int n = 0; n < 1000; n++) {
+			assertWithinUlp(Math.log(n), LogTable.log(n));
+			assertWithinUlp(n == 0 ? 0 : n * Math.log(n), LogTable.xLogX(n));
+		}
+		assertWithinUlp(3000000000L * Math.log(3000000000L),
+				LogTable.xLogX(3000000000L));
+	}
+
+	public void testLikelihoods() {
+		LogTable.setMaxSize(64);
+		Random random = new Random(42);
+		DefaultDocumentProvider<Integer> provider = new DefaultDocumentProvider<Integer>();
+		final int nDocs = 40;
+		final int nWords = 30;
+		final int[][] frs = new int[nDocs][nWords];
+		final int[] docSizes = new int[nDocs];
+		for (int i = 0; i < nDocs; i++) {
+			DefaultDocumentProvider<Integer>.DefaultDocument d = provider
+					.newDocument();
+			for (int w = 0; w < nWords; w++) {
+				if (random.nextInt(3) == 0) {
+					frs[i][w] = 1 + random.nextInt(random.nextBoolean() ? 5
+							: 200);
+					d.addWord(w, frs[i][w]);
+					docSizes[i] += frs[i][w];
+				}
+			}
+		}
+		final DocumentProvider<Integer> documentProvider = provider;
+		final int[] joins = new int[1];
+		new LowMemTopicGrouper<Integer>(1, provider, 1)
+				.solve(new TGSolutionListener<Integer>() {
+					@Override
+					public void updatedSolution(int newTopicIndex,
+							int oldTopicIndex, double improvement, int t1Size,
+							int t2Size, TGSolution<Integer> solution) {
+						if (joins[0]++ > 0) {
+							return;
+						}
+						// The first join is of two single words.
+						TIntList topic = (TIntList) solution.getTopics()[newTopicIndex];
+						int w1 = word(topic.get(0));
+						int w2 = word(topic.get(1));
+						double sum = 0;
+						int n1 = 0;
+						int n2 = 0;
+						for (int i = 0; i < nDocs; i++) {
+							int fr = frs[i][w1] + frs[i][w2];
+							if (fr > 0) {
+								sum += fr
+										* (Math.log(fr) - Math.log(docSizes[i]));
+							}
+							n1 += frs[i][w1];
+							n2 += frs[i][w2];
+						}
+						sum += n1 * Math.log(n1) + n2 * Math.log(n2);
+						sum -= (n1 + n2) * Math.log(n1 + n2);
+						assertWithinUlp(sum,
+								solution.getTopicLogLikelihoods()[newTopicIndex]);
+					}
+
+					@Override
+					public void initialized(TGSolution<Integer> initialSolution) {
+						for (int id : initialSolution.getTopicIds()) {
+							TIntList topic = (TIntList) initialSolution
+									.getTopics()[id];
+							int w = word(topic.get(0));
+							double sum = 0;
+							for (int i = 0; i < nDocs; i++) {
+								if (frs[i][w] > 0) {
+									sum += frs[i][w]
+											* (Math.log(frs[i][w]) - Math
+													.log(docSizes[i]));
+								}
+							}
+							assertWithinUlp(sum,
+									initialSolution.getTopicLogLikelihoods()[id]);
+						}
+					}
+
+					@Override
+					public void initalizing(double percentage) {
+					}
+
+					@Override
+					public void done() {
+					}
+
+					@Override
+					public void beforeInitialization(int maxTopics,
+							int documents) {
+					}
+
+					private int word(int wordIndex) {
+						return documentProvider.getVocab().getWord(wordIndex);
+					}
+				});
+		assertTrue(joins[0] > 0);
+	}
+
+	private static void assertWithinUlp(double expected, double actual) {
+		if (expected != actual) {
+			assertTrue(expected + " vs. " + actual,
+					Math.abs(expected - actual) <= Math.ulp(expected));
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package org.hhn.topicgrouper.util;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class UnionFindTest extends TestCase {
+	public void testUnionKeepsIdentifierOfSecondSite() {
+		Random random = new Random(42);
+		int n = 500;
+		UnionFind unionFind = new UnionFind(n);
+		// Component identifier of each site, maintained naively.
+		int[] ids = new int[n];
+		for (int i = 0; i < n; i++) {
+			ids[i] = i;
+		}
+		int count = n;
+		for (int k = 0; k < 2000; k++) {
+			int p = random.nextInt(n);
+			int q = random.nextInt(n);
+			int version = unionFind.getVersion();
+			unionFind.union(p, q);
+			int idP = ids[p];
+			int idQ = ids[q];
+			if (idP != idQ) {
+				count--;
+				for (int i = 0; i < n; i++) {
+					if (ids[i] == idP) {
+						ids[i] = idQ;
+					}
+				}
+				assertTrue(version != unionFind.getVersion());
+			} else {
+				assertEquals(version, unionFind.getVersion());
+			}
+			assertEquals(count, unionFind.count());
+			int s = random.nextInt(n);
+			assertEquals(ids[s], unionFind.find(s));
+		}
+		int[] identifiers = unionFind.getIdentifiers();
+		for (int i = 0; i < n; i++) {
+			assertEquals(ids[i], identifiers[i]);
+		}
+	}
+
+	public void testSetParents() {
+		UnionFind unionFind = new UnionFind(6);
+		unionFind.union(0, 1);
+		unionFind.union(2, 1);
+		unionFind.union(4, 5);
+		UnionFind copy = new UnionFind(6);
+		copy.setParents(unionFind.getParents());
+		assertEquals(3, copy.count());
+		for (int i = 0; i < 6; i++) {
+			assertEquals(unionFind.find(i), copy.find(i));
+		}
+		// Plain quick union links as in older checkpoints.
+		copy.setParents(new int[] { 1, 2, 2, 3, 5, 5 });
+		assertEquals(3, copy.count());
+		assertEquals(2, copy.find(0));
+		assertEquals(5, copy.find(4));
+		copy.union(2, 3);
+		assertEquals(3, copy.find(0));
+	}
+}